@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import org.json.JSONObject;
+
+import java.util.*;
+
+import static ma.vi.esql.encoder.ResultEncoder.*;
+
+/**
+ * The attributes of results, relations and columns to encode, and the language
+ * to encode their multi-language values in, resolved once per encode call from
+ * the {@link ResultEncoder#ATTRIBUTES}, {@link ResultEncoder#EXCLUDE_ATTRIBUTES},
+ * {@link ResultEncoder#LOCALE} and {@link ResultEncoder#FALLBACK_LOCALE}
+ * parameters.
+ *
+ * <p>A multi-language value is a map (or JSON object) of text whose keys are
+ * all language tags with an ISO 639-1 language (from
+ * {@link Locale#getISOLanguages()}), such as
+ * <code>{en: 'Any', fr: 'Une ou plusieurs'}</code>. Maps whose keys are not all
+ * language tags (<code>{fr: 'x', max: 'y'}</code>), or whose values are not all
+ * text (<code>{id: 42, to: 43}</code>), are not multi-language values, even if
+ * their keys happen to be language codes. When a locale is requested, such a
+ * value is replaced by the value for the locale (e.g. <code>fr-FR</code>), or
+ * else for its language (<code>fr</code>) or for another region of its
+ * language (<code>fr-CA</code>), then likewise for the fallback locale; it is
+ * encoded unchanged if it has none of these. Multi-language values nested in
+ * other maps are also collapsed, so that the <code>values</code> attribute
+ * <code>{any: {en: 'Any', fr: 'Une ou plusieurs'}}</code> is encoded as
+ * <code>{any: 'Une ou plusieurs'}</code> for the <code>fr</code> locale.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class AttributeSelection {
+  private AttributeSelection(Set<String> included,
+                             Set<String> excluded,
+                             Locale      locale,
+                             Locale      fallback) {
+    this.included = included;
+    this.excluded = excluded;
+    this.locale = locale;
+    this.fallback = fallback;
+  }
+
+  /**
+   * The attribute selection in the parameters, or null if none of its
+   * parameters is set.
+   */
+  static AttributeSelection of(Configuration params) {
+    Object included = params.get(ATTRIBUTES, null);
+    Object excluded = params.get(EXCLUDE_ATTRIBUTES, null);
+    Object locale = params.get(LOCALE, null);
+    if (included == null && excluded == null && locale == null) {
+      return null;
+    }
+    return new AttributeSelection(included == null ? null : Projection.names(included),
+                                  excluded == null ? Set.of() : Projection.names(excluded),
+                                  locale(locale),
+                                  locale(params.get(FALLBACK_LOCALE, null)));
+  }
+
+  /**
+   * Whether the attribute is to be encoded.
+   */
+  boolean includes(String attribute) {
+    return (included == null || included.contains(attribute))
+        && !excluded.contains(attribute);
+  }
+
+  /**
+   * Whether multi-language values are collapsed to a single language.
+   */
+  boolean localizes() {
+    return locale != null;
+  }
+
+  /**
+   * The value for the requested locale if the value is a multi-language map or
+   * JSON object with a value for it (or its fallback), or else the value itself.
+   */
+  Object localize(Object value) {
+    if (locale == null) {
+      return value;
+    } else if (value instanceof Map<?, ?> map && !map.isEmpty() && text(map.values())) {
+      Object key = select(map.keySet());
+      return key == null ? value : map.get(key);
+    } else if (value instanceof JSONObject json && json.length() > 0 && text(json.keySet().stream().map(json::opt).toList())) {
+      Object key = select(json.keySet());
+      return key == null ? value : json.get(key.toString());
+    }
+    return value;
+  }
+
+  /**
+   * Whether the values of a map are all text (or null), as the values of
+   * multi-language maps are.
+   */
+  private static boolean text(Collection<?> values) {
+    for (Object value: values) {
+      if (value != null && value != JSONObject.NULL && !(value instanceof CharSequence)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The key of the value to select from the keys of a map, or null if the keys
+   * are not all language tags or none of them matches the locale or its fallback.
+   */
+  private Object select(Collection<?> keys) {
+    Object[] tagged = new Object[keys.size()];
+    Locale[] locales = new Locale[keys.size()];
+    int i = 0;
+    for (Object key: keys) {
+      Locale l = key == null ? null : languageTag(key.toString());
+      if (l == null) return null;
+      tagged[i] = key;
+      locales[i++] = l;
+    }
+    Object key = select(tagged, locales, locale);
+    return key == null && fallback != null ? select(tagged, locales, fallback) : key;
+  }
+
+  private static Object select(Object[] keys, Locale[] locales, Locale locale) {
+    Object language = null, region = null;
+    for (int i = 0; i < keys.length; i++) {
+      Locale l = locales[i];
+      if (l.equals(locale)) {
+        return keys[i];
+      } else if (l.getLanguage().equals(locale.getLanguage())) {
+        if (l.getCountry().isEmpty()) {
+          if (language == null) language = keys[i];
+        } else {
+          if (region == null) region = keys[i];
+        }
+      }
+    }
+    return language != null ? language : region;
+  }
+
+  /**
+   * The locale of a map key if it is a language tag with an ISO 639-1 language
+   * (such as <code>en</code>, <code>fr_FR</code> or <code>pt-BR</code>), or else
+   * null.
+   */
+  private static Locale languageTag(String key) {
+    int length = key.length();
+    if (length < 2 || length > 16) {
+      return null;
+    }
+    int end = length;
+    for (int i = 0; i < length; i++) {
+      char c = key.charAt(i);
+      if (c == '-' || c == '_') {
+        end = i;
+        break;
+      }
+    }
+    if (end != 2 || !ISO_LANGUAGES.contains(key.substring(0, 2).toLowerCase())) {
+      return null;
+    }
+    Locale l = Locale.forLanguageTag(key.replace('_', '-'));
+    return l.getLanguage().isEmpty() ? null : l;
+  }
+
+  private static Locale locale(Object locale) {
+    if (locale == null) {
+      return null;
+    } else if (locale instanceof Locale l) {
+      return l;
+    }
+    Locale l = Locale.forLanguageTag(locale.toString().trim().replace('_', '-'));
+    if (l.getLanguage().isEmpty()) {
+      throw new IllegalArgumentException("Invalid locale: " + locale);
+    }
+    return l;
+  }
+
+  /**
+   * The attributes to encode, or null for all.
+   */
+  private final Set<String> included;
+
+  /**
+   * The attributes not to encode.
+   */
+  private final Set<String> excluded;
+
+  /**
+   * The locale to collapse multi-language values to, or null to encode them
+   * with all their languages.
+   */
+  private final Locale locale;
+
+  /**
+   * The locale to use for multi-language values with no value for the requested
+   * locale, or null.
+   */
+  private final Locale fallback;
+
+  private static final Set<String> ISO_LANGUAGES = Set.of(Locale.getISOLanguages());
+}
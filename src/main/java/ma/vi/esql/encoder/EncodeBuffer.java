@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A writer which encodes the characters written to it as UTF-8 directly into a
+ * growable byte array, avoiding the intermediate {@link java.io.StringWriter},
+ * String and byte array copies otherwise needed to get the encoded bytes of a
+ * result. Buffers are obtained from {@link EncodeBufferPool#acquire(int)} and
+ * returned to the pool on {@link #close()}, after which they must not be used:
+ *
+ * <pre>
+ *   try (EncodeBuffer buffer = EncodeBufferPool.acquire(8192)) {
+ *     encoder.encode(result, buffer, params);
+ *     buffer.writeTo(out);
+ *   }
+ * </pre>
+ *
+ * Bytes can also be written directly (by binary encoders) through the stream
+ * returned by {@link #outputStream()}. Buffers are not thread-safe.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class EncodeBuffer extends Writer {
+  EncodeBuffer(int capacity, boolean pooled) {
+    this.buf = new byte[capacity];
+    this.pooled = pooled;
+  }
+
+  /**
+   * Creates a buffer, not part of any pool, with the specified initial capacity.
+   */
+  public EncodeBuffer(int capacity) {
+    this(capacity, false);
+  }
+
+  @Override
+  public void write(int c) {
+    put((char)c);
+  }
+
+  @Override
+  public void write(char[] chars, int off, int len) {
+    ensure(len);
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      char c = chars[i];
+      if (c < 0x80 && high == 0) buf[count++] = (byte)c;
+      else {
+        ensure(end - i + 3);
+        put(c);
+      }
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) {
+    ensure(len);
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      char c = str.charAt(i);
+      if (c < 0x80 && high == 0) buf[count++] = (byte)c;
+      else {
+        ensure(end - i + 3);
+        put(c);
+      }
+    }
+  }
+
+  @Override
+  public void write(String str) {
+    write(str, 0, str.length());
+  }
+
+  @Override
+  public EncodeBuffer append(CharSequence csq) {
+    String s = String.valueOf(csq);
+    write(s, 0, s.length());
+    return this;
+  }
+
+  @Override
+  public EncodeBuffer append(char c) {
+    put(c);
+    return this;
+  }
+
+  /**
+   * Appends raw bytes to the buffer.
+   */
+  public void write(byte[] bytes, int off, int len) {
+    settle();
+    ensure(len);
+    System.arraycopy(bytes, off, buf, count, len);
+    count += len;
+  }
+
+  /**
+   * A stream writing raw bytes into this buffer.
+   */
+  public OutputStream outputStream() {
+    return new OutputStream() {
+      @Override
+      public void write(int b) {
+        settle();
+        ensure(1);
+        buf[count++] = (byte)b;
+      }
+
+      @Override
+      public void write(byte[] bytes, int off, int len) {
+        EncodeBuffer.this.write(bytes, off, len);
+      }
+    };
+  }
+
+  /**
+   * Number of bytes in the buffer.
+   */
+  public int size() {
+    settle();
+    return count;
+  }
+
+  /**
+   * Current capacity of the buffer, in bytes.
+   */
+  public int capacity() {
+    return buf.length;
+  }
+
+  /**
+   * Empties the buffer, keeping its capacity.
+   */
+  public void reset() {
+    count = 0;
+    high = 0;
+  }
+
+  /**
+   * Returns a copy of the bytes in the buffer, sized exactly.
+   */
+  public byte[] toByteArray() {
+    settle();
+    return Arrays.copyOf(buf, count);
+  }
+
+  /**
+   * A read-only view of the bytes in the buffer which is only valid until the
+   * buffer is written to again or closed.
+   */
+  public ByteBuffer view() {
+    settle();
+    return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+  }
+
+  /**
+   * Writes the content of the buffer to the output stream.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    settle();
+    out.write(buf, 0, count);
+  }
+
+  /**
+   * Writes the content of the buffer to the writer, copying the bytes directly
+   * if it is another {@link EncodeBuffer} and decoding them in chunks otherwise.
+   */
+  public void writeTo(Writer out) throws IOException {
+    settle();
+    if (out instanceof EncodeBuffer buffer) {
+      buffer.write(buf, 0, count);
+    } else {
+      new InputStreamReader(new ByteArrayInputStream(buf, 0, count), UTF_8).transferTo(out);
+    }
+  }
+
+  /**
+   * Decodes the content of the buffer into a string.
+   */
+  @Override
+  public String toString() {
+    settle();
+    return new String(buf, 0, count, UTF_8);
+  }
+
+  @Override
+  public void flush() {}
+
+  /**
+   * Returns the buffer to its pool, if it was obtained from one. The buffer must
+   * not be used after it is closed.
+   */
+  @Override
+  public void close() {
+    if (pooled && !released) {
+      released = true;
+      reset();
+      EncodeBufferPool.release(this);
+    }
+  }
+
+  /**
+   * Reuses a pooled buffer.
+   */
+  void reacquire() {
+    released = false;
+  }
+
+  private void put(char c) {
+    if (high != 0) {
+      char h = high;
+      high = 0;
+      if (Character.isLowSurrogate(c)) {
+        int cp = Character.toCodePoint(h, c);
+        ensure(4);
+        buf[count++] = (byte)(0xF0 | (cp >> 18));
+        buf[count++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+        buf[count++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+        buf[count++] = (byte)(0x80 | (cp & 0x3F));
+        return;
+      }
+      /*
+       * Unpaired high surrogate: replaced as done by String.getBytes.
+       */
+      ensure(1);
+      buf[count++] = '?';
+    }
+    if (c < 0x80) {
+      ensure(1);
+      buf[count++] = (byte)c;
+    } else if (c < 0x800) {
+      ensure(2);
+      buf[count++] = (byte)(0xC0 | (c >> 6));
+      buf[count++] = (byte)(0x80 | (c & 0x3F));
+    } else if (Character.isHighSurrogate(c)) {
+      high = c;
+    } else if (Character.isLowSurrogate(c)) {
+      ensure(1);
+      buf[count++] = '?';
+    } else {
+      ensure(3);
+      buf[count++] = (byte)(0xE0 | (c >> 12));
+      buf[count++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+      buf[count++] = (byte)(0x80 | (c & 0x3F));
+    }
+  }
+
+  /**
+   * Replaces a high surrogate left without its low surrogate at the end of the
+   * content.
+   */
+  private void settle() {
+    if (high != 0) {
+      high = 0;
+      ensure(1);
+      buf[count++] = '?';
+    }
+  }
+
+  private void ensure(int more) {
+    if (count + more > buf.length) {
+      int capacity = Math.max(buf.length << 1, count + more);
+      if (capacity < 0) {
+        throw new OutOfMemoryError("Encoded output too large");
+      }
+      buf = Arrays.copyOf(buf, capacity);
+    }
+  }
+
+  byte[] buf;
+  int count;
+
+  /**
+   * High surrogate waiting for its low surrogate, or 0.
+   */
+  private char high;
+
+  private final boolean pooled;
+  private boolean released;
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.esql.exec.ColumnMapping;
+import ma.vi.esql.exec.Result;
+import ma.vi.esql.semantic.type.Relation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of reusable {@link EncodeBuffer}s in size classes (powers of 2 from 1KB
+ * to 4MB), striped by thread to avoid contention. Buffers which have grown beyond
+ * the largest size class are not kept, so that a single very large result does
+ * not pin memory indefinitely.
+ *
+ * <p>Each stripe holds at most one buffer per size class, a buffer being kept
+ * in the class of the largest power of 2 not above its capacity; a stripe thus
+ * retains less than 12MB (under 8MB for the classes up to 2MB and 4MB for the
+ * largest one). There are twice as many stripes as available processors,
+ * rounded up to a power of 2, which bounds the memory retained by the pool to
+ * 12MB times the number of stripes (e.g. 192MB with 8 processors), reached only
+ * if every stripe has encoded results of every size.</p>
+ *
+ * <p>The pool also keeps a moving average of the encoded sizes of recent results,
+ * keyed by their columns (or relation name), to estimate the initial capacity
+ * of the buffer for the next encoding of the same query, reducing the number of
+ * times buffers need to grow.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class EncodeBufferPool {
+  private EncodeBufferPool() {}
+
+  /**
+   * Obtains a buffer with at least the specified capacity from the pool, or
+   * a new one if none is available. The buffer is returned to the pool when it
+   * is closed.
+   */
+  public static EncodeBuffer acquire(int capacity) {
+    int sizeClass = ceilClass(capacity);
+    if (sizeClass < CLASSES) {
+      AtomicReferenceArray<EncodeBuffer> stripe = stripe();
+      EncodeBuffer buffer = stripe.getAndSet(sizeClass, null);
+      if (buffer == null && sizeClass + 1 < CLASSES) {
+        buffer = stripe.getAndSet(sizeClass + 1, null);
+      }
+      if (buffer != null) {
+        buffer.reacquire();
+        return buffer;
+      }
+      return new EncodeBuffer(MIN_SIZE << sizeClass, true);
+    }
+    return new EncodeBuffer(capacity, false);
+  }
+
+  /**
+   * Returns a buffer to the pool, keeping it only if it is no larger than the
+   * largest size class and there is no buffer of the same size class already
+   * pooled in the stripe of the current thread.
+   */
+  static void release(EncodeBuffer buffer) {
+    int capacity = buffer.capacity();
+    if (capacity >= MIN_SIZE && capacity <= MAX_SIZE) {
+      stripe().compareAndSet(floorClass(capacity), null, buffer);
+    }
+  }
+
+  /**
+   * Estimates the size of the encoding of a result from the recent encodings
+   * with the same key or, failing that, from its number of columns.
+   */
+  public static int estimate(String key, int columns) {
+    Integer recent = key == null ? null : recentSizes.get(key);
+    return recent != null
+         ? recent + (recent >> 3)
+         : MIN_SIZE + columns * 256;
+  }
+
+  /**
+   * Records the size of an encoding, updating the moving average for its key.
+   */
+  public static void record(String key, int size) {
+    if (key != null) {
+      if (recentSizes.size() >= MAX_KEYS && !recentSizes.containsKey(key)) {
+        recentSizes.clear();
+      }
+      recentSizes.merge(key, size, (previous, current) -> previous + (current - previous) / 4);
+    }
+  }
+
+  /**
+   * Key of a result for size estimation, composed of its column names.
+   */
+  public static String key(Result result) {
+    List<ColumnMapping> columns = result.columns();
+    if (columns == null || columns.isEmpty()) {
+      return null;
+    }
+    StringBuilder key = new StringBuilder();
+    for (ColumnMapping c: columns) {
+      key.append(c.column().name()).append(',');
+    }
+    return key.toString();
+  }
+
+  /**
+   * Key of a relation structure for size estimation.
+   */
+  public static String key(Relation relation) {
+    return '$' + relation.name();
+  }
+
+  private static AtomicReferenceArray<EncodeBuffer> stripe() {
+    int h = System.identityHashCode(Thread.currentThread());
+    return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+  }
+
+  private static int ceilClass(int capacity) {
+    if (capacity <= MIN_SIZE) return 0;
+    return 32 - Integer.numberOfLeadingZeros((capacity - 1) / MIN_SIZE);
+  }
+
+  private static int floorClass(int capacity) {
+    if (capacity < MIN_SIZE) return -1;
+    return 31 - Integer.numberOfLeadingZeros(capacity / MIN_SIZE);
+  }
+
+  /**
+   * Capacity of the smallest size class.
+   */
+  private static final int MIN_SIZE = 1024;
+
+  /**
+   * Number of size classes (1KB to 4MB).
+   */
+  private static final int CLASSES = 13;
+
+  /**
+   * Capacity of the largest size class, above which buffers are not pooled.
+   */
+  private static final int MAX_SIZE = MIN_SIZE << (CLASSES - 1);
+
+  /**
+   * Maximum number of keys for which recent sizes are kept.
+   */
+  private static final int MAX_KEYS = 4096;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static final AtomicReferenceArray<EncodeBuffer>[] stripes =
+      new AtomicReferenceArray[Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2];
+
+  static {
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new AtomicReferenceArray<>(CLASSES);
+    }
+  }
+
+  private static final Map<String, Integer> recentSizes = new ConcurrentHashMap<>();
+}
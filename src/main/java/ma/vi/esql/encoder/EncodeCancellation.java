@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static ma.vi.esql.encoder.ResultEncoder.*;
+
+/**
+ * A token to cooperatively cancel encode calls, such as when the client of an
+ * HTTP request disconnects or the request times out. A token is cancelled
+ * explicitly, with {@link #cancel()}, or when its deadline (if any) passes; the
+ * same token can be shared by several encode calls. It is passed to the encoder
+ * with the {@link ResultEncoder#CANCELLATION} parameter, or a deadline alone
+ * with {@link ResultEncoder#DEADLINE}.
+ *
+ * <p>Encoders check the token before fetching every
+ * {@link ResultEncoder#CANCELLATION_CHECK_INTERVAL} rows. When cancelled, they
+ * stop fetching rows, close the result and fail with an
+ * {@link EncodeCancelledException} reporting the number of rows written. A
+ * failure to write to the output (e.g. a closed connection) ends the encoding
+ * in the same way, whether a token was supplied or not; failures reading values,
+ * such as blobs and clobs, are not reported as cancellations.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class EncodeCancellation {
+  /**
+   * Creates a token without a deadline, cancelled only explicitly.
+   */
+  public EncodeCancellation() {
+    this(0, false);
+  }
+
+  private EncodeCancellation(long deadline, boolean hasDeadline) {
+    this.deadline = deadline;
+    this.hasDeadline = hasDeadline;
+  }
+
+  /**
+   * Creates a token which is cancelled when the timeout has elapsed from now.
+   */
+  public static EncodeCancellation timeout(Duration timeout) {
+    return new EncodeCancellation(System.nanoTime() + timeout.toNanos(), true);
+  }
+
+  /**
+   * Creates a token which is cancelled at the deadline.
+   */
+  public static EncodeCancellation deadline(Instant deadline) {
+    return timeout(Duration.between(Instant.now(), deadline));
+  }
+
+  /**
+   * The token to check for the encode call with the parameters, from the
+   * {@link ResultEncoder#CANCELLATION} and {@link ResultEncoder#DEADLINE}
+   * parameters; null if neither is set.
+   */
+  public static EncodeCancellation of(Configuration params) {
+    EncodeCancellation token = params.get(CANCELLATION, null);
+    Object deadline = params.get(DEADLINE, null);
+    if (deadline == null) {
+      return token;
+    }
+    EncodeCancellation timed;
+    if      (deadline instanceof Instant d)  timed = deadline(d);
+    else if (deadline instanceof Duration d) timed = timeout(d);
+    else if (deadline instanceof Number d)   timed = timeout(Duration.ofMillis(d.longValue()));
+    else {
+      throw new IllegalArgumentException("Invalid " + DEADLINE + ": " + deadline
+                                       + " (expected an Instant, Duration or milliseconds)");
+    }
+    if (token == null) {
+      return timed;
+    }
+    timed.parent = token;
+    return timed;
+  }
+
+  /**
+   * Cancels the encode calls using this token.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Whether this token has been cancelled or its deadline has passed.
+   */
+  public boolean isCancelled() {
+    return cancelled
+        || (hasDeadline && System.nanoTime() - deadline >= 0)
+        || (parent != null && parent.isCancelled());
+  }
+
+  /**
+   * Whether this token was cancelled by its deadline passing rather than
+   * explicitly.
+   */
+  public boolean isExpired() {
+    return !cancelled
+        && (parent == null || !parent.cancelled)
+        && isCancelled();
+  }
+
+  /**
+   * Fails with an {@link EncodeCancelledException} if this token is cancelled.
+   * @param rows Number of rows written so far, to report in the exception.
+   */
+  public void check(long rows) {
+    if (isCancelled()) {
+      throw new EncodeCancelledException(rows,
+                                         isExpired() ? EncodeCancelledException.Reason.DEADLINE
+                                                     : EncodeCancelledException.Reason.CANCELLED,
+                                         null);
+    }
+  }
+
+  /**
+   * Deadline as a {@link System#nanoTime()} value, if {@link #hasDeadline}.
+   */
+  private final long deadline;
+
+  private final boolean hasDeadline;
+
+  /**
+   * A token supplied with {@link ResultEncoder#CANCELLATION} which also cancels
+   * this one, when combined with a {@link ResultEncoder#DEADLINE}.
+   */
+  private EncodeCancellation parent;
+
+  private volatile boolean cancelled;
+}
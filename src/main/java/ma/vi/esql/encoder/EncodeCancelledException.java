@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+/**
+ * Thrown when an encode call is stopped before the end of its result, because
+ * it was cancelled (see {@link EncodeCancellation}), its deadline passed or its
+ * output could not be written to. The result has been closed when this is
+ * thrown, and the output holds the first {@link #rows()} rows of the result,
+ * without the end of the encoding.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class EncodeCancelledException extends RuntimeException {
+  public EncodeCancelledException(long rows, Reason reason, Throwable cause) {
+    super(switch (reason) {
+            case CANCELLED    -> "Encoding cancelled";
+            case DEADLINE     -> "Encoding deadline passed";
+            case WRITE_FAILED -> "Writing encoded output failed";
+          } + " after " + rows + " row(s)",
+          cause);
+    this.rows = rows;
+    this.reason = reason;
+  }
+
+  /**
+   * Number of rows completely written to the output before the encoding stopped.
+   */
+  public long rows() {
+    return rows;
+  }
+
+  public Reason reason() {
+    return reason;
+  }
+
+  /**
+   * Why the encoding stopped.
+   */
+  public enum Reason {
+    /**
+     * Explicitly cancelled through its {@link EncodeCancellation}.
+     */
+    CANCELLED,
+
+    /**
+     * The deadline of the encoding passed.
+     */
+    DEADLINE,
+
+    /**
+     * Writing to the output failed, e.g. because the client disconnected; the
+     * cause is the failure.
+     */
+    WRITE_FAILED
+  }
+
+  private final long rows;
+
+  private final Reason reason;
+}
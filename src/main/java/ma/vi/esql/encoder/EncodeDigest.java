@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * A hash of the encoded output, computed incrementally over its UTF-8 bytes as
+ * they are produced, for use as the ETag of the encoded result (e.g. to answer
+ * HTTP conditional requests with a 304) without buffering the output. The
+ * digest is passed to the encoder with the {@link ResultEncoder#DIGEST}
+ * parameter and is available once the encode call returns; with
+ * {@link ResultEncoder#DIGEST_TRAILER} the JSON encoder also writes it at the
+ * end of the encoded result, as <code>$h</code>, for streamed responses whose
+ * headers are sent before the end of the encoding is known.
+ *
+ * <p>For the same result to always hash to the same value, it should be encoded
+ * with {@link ResultEncoder#SORT_ATTRIBUTES} so that the attributes of the
+ * result, columns and values are written in the same order on every run.</p>
+ *
+ * <p>A digest is used by one encode call at a time and can be reused, being
+ * reset at the start of each call. It has no value if the encoding fails. For
+ * a batch of results ({@link ResultEncoder#encodeBatch}), the digest holds the
+ * hash of the whole envelope, and no trailer is written.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class EncodeDigest {
+  /**
+   * Creates a digest using SHA-256.
+   */
+  public EncodeDigest() {
+    this(DEFAULT_ALGORITHM);
+  }
+
+  /**
+   * Creates a digest using the specified {@link MessageDigest} algorithm.
+   */
+  public EncodeDigest(String algorithm) {
+    this.digest = messageDigest(algorithm);
+  }
+
+  /**
+   * The hash of the encoded output.
+   * @throws IllegalStateException if no encoding has completed.
+   */
+  public byte[] value() {
+    if (value == null) {
+      throw new IllegalStateException("Digest is only available after encoding");
+    }
+    return value.clone();
+  }
+
+  /**
+   * The hash of the encoded output as a url-safe base64 string (without padding),
+   * as written in the <code>$h</code> trailer.
+   * @throws IllegalStateException if no encoding has completed.
+   */
+  public String hash() {
+    return base64(value());
+  }
+
+  /**
+   * The hash of the encoded output as a strong entity tag (its {@link #hash()}
+   * quoted), as used in the HTTP <code>ETag</code> header.
+   * @throws IllegalStateException if no encoding has completed.
+   */
+  public String etag() {
+    return '"' + hash() + '"';
+  }
+
+  /**
+   * Number of bytes hashed.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * The entity tag, as returned by {@link #etag()}, of already encoded bytes,
+   * such as cached encodings.
+   */
+  public static String etag(byte[] data, int off, int len) {
+    MessageDigest digest = messageDigest(DEFAULT_ALGORITHM);
+    digest.update(data, off, len);
+    return '"' + base64(digest.digest()) + '"';
+  }
+
+  /**
+   * Resets the digest and returns a writer which hashes the characters written
+   * to it, as UTF-8, before writing them to the output.
+   */
+  DigestWriter start(Writer out) {
+    digest.reset();
+    value = null;
+    size = 0;
+    return new DigestWriter(out);
+  }
+
+  private static String base64(byte[] hash) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+  }
+
+  private static MessageDigest messageDigest(String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+    }
+  }
+
+  /**
+   * Hashes characters while writing them to the output. Characters are encoded
+   * to UTF-8 in a small pooled {@link EncodeBuffer} which is hashed and emptied
+   * as it fills; a high surrogate waiting for its low surrogate stays in the
+   * buffer.
+   */
+  final class DigestWriter extends Writer {
+    DigestWriter(Writer out) {
+      this.out = out;
+      this.staging = EncodeBufferPool.acquire(STAGING_SIZE);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      out.write(c);
+      if (staging != null) {
+        staging.write(c);
+        if (staging.count >= STAGING_SIZE) drain();
+      }
+    }
+
+    @Override
+    public void write(char[] chars, int off, int len) throws IOException {
+      out.write(chars, off, len);
+      while (staging != null && len > 0) {
+        int n = Math.min(len, STAGING_SIZE);
+        staging.write(chars, off, n);
+        if (staging.count >= STAGING_SIZE) drain();
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      out.write(str, off, len);
+      while (staging != null && len > 0) {
+        int n = Math.min(len, STAGING_SIZE);
+        staging.write(str, off, n);
+        if (staging.count >= STAGING_SIZE) drain();
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      finish();
+      out.close();
+    }
+
+    /**
+     * Completes the hash of the output written so far; later writes are passed
+     * to the output without being hashed.
+     */
+    void finish() {
+      if (staging != null) {
+        staging.size();
+        drain();
+        staging.close();
+        staging = null;
+        value = digest.digest();
+      }
+    }
+
+    /**
+     * Returns the staging buffer to its pool without completing the hash, such
+     * as when the encoding fails; the digest then has no value. Has no effect
+     * once finished.
+     */
+    void discard() {
+      if (staging != null) {
+        staging.close();
+        staging = null;
+      }
+    }
+
+    private void drain() {
+      digest.update(staging.buf, 0, staging.count);
+      size += staging.count;
+      staging.count = 0;
+    }
+
+    private final Writer out;
+
+    /**
+     * Encoded bytes not hashed yet; null once finished.
+     */
+    private EncodeBuffer staging;
+  }
+
+  private final MessageDigest digest;
+
+  /**
+   * The hash of the last encoding; null until completed.
+   */
+  private byte[] value;
+
+  private long size;
+
+  private static final String DEFAULT_ALGORITHM = "SHA-256";
+
+  private static final int STAGING_SIZE = 8 * 1024;
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder event committed for every encode call when enabled in
+ * the recording. The duration of the event is the total time of the call;
+ * the phase timings are only set for the sampled calls (zero otherwise).
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+@Name("ma.vi.esql.encoder.Encode")
+@Label("ESQL Encode")
+@Category({"ESQL", "Encoder"})
+@Description("Encoding of an ESQL result or relation")
+@StackTrace(false)
+public class EncodeEvent extends Event {
+  @Label("Encoder")
+  String encoder;
+
+  @Label("Kind")
+  @Description("What was encoded: result or relation")
+  String kind;
+
+  @Label("Rows")
+  long rows;
+
+  @Label("Columns")
+  int columns;
+
+  @Label("Bytes")
+  @DataAmount
+  long bytes;
+
+  @Label("Sink Wait")
+  @Description("Time spent blocked flushing the output and, when sampled, writing to it")
+  @Timespan
+  long sinkWait;
+
+  @Label("Sampled")
+  boolean sampled;
+
+  @Label("Header Time")
+  @Timespan
+  long headerTime;
+
+  @Label("Rows Time")
+  @Timespan
+  long rowsTime;
+
+  @Label("Expression Translation Time")
+  @Timespan
+  long translationTime;
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.time.temporal.Temporal;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Measurements collected during a single encode call: number of rows and
+ * columns written, bytes produced, time spent blocked on the output and, for
+ * sampled calls, the time spent in each phase of the encoding and in each write
+ * to the output. Instances are created by {@link EncoderMetrics#start} only
+ * when metrics are being collected (a JFR recording is active for
+ * {@link EncodeEvent} or a listener is registered) and are passed to every
+ * {@link EncoderListener} on completion.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class EncodeStats {
+  EncodeStats(String encoder, String kind, boolean sampled) {
+    this.encoder = encoder;
+    this.kind = kind;
+    this.sampled = sampled;
+    this.start = System.nanoTime();
+  }
+
+  /**
+   * Types of values counted while encoding rows.
+   */
+  public enum ValueType {
+    NULL, STRING, NUMBER, BOOLEAN, TEMPORAL, JSON, BINARY, ARRAY, MAP, OTHER
+  }
+
+  /**
+   * Wraps the output of the encoding so that the bytes written and the time
+   * spent waiting on the writer are measured. Writes are only timed for sampled
+   * calls, as encoders write many small fragments and reading the clock around
+   * each would add to the cost being measured; flushes are always timed.
+   */
+  Writer meter(Writer out) {
+    return new MeteredWriter(out);
+  }
+
+  /**
+   * Counts the value by its type.
+   */
+  void count(Object value) {
+    valueCounts[typeOf(value).ordinal()]++;
+  }
+
+  static ValueType typeOf(Object value) {
+    if      (value == null)                                    return ValueType.NULL;
+    else if (value instanceof String
+          || value instanceof Character)                       return ValueType.STRING;
+    else if (value instanceof Number)                          return ValueType.NUMBER;
+    else if (value instanceof Boolean)                         return ValueType.BOOLEAN;
+    else if (value instanceof Date
+          || value instanceof Temporal)                        return ValueType.TEMPORAL;
+    else if (value instanceof JSONObject
+          || value instanceof JSONArray)                       return ValueType.JSON;
+    else if (value instanceof byte[]
+          || value instanceof Blob
+          || value instanceof InputStream)                     return ValueType.BINARY;
+    else if (value instanceof Clob
+          || value instanceof Reader)                          return ValueType.STRING;
+    else if (value instanceof Collection<?>
+          || value.getClass().isArray())                       return ValueType.ARRAY;
+    else if (value instanceof Map<?, ?>)                       return ValueType.MAP;
+    else                                                       return ValueType.OTHER;
+  }
+
+  /**
+   * Name of the encoder (its class simple name) which produced these stats.
+   */
+  public String encoder() {
+    return encoder;
+  }
+
+  /**
+   * What was encoded: "result" or "relation".
+   */
+  public String kind() {
+    return kind;
+  }
+
+  /**
+   * Whether the per-phase timings were measured for this call. Phase timings
+   * are only measured for a sample of the calls to keep the overhead low.
+   */
+  public boolean sampled() {
+    return sampled;
+  }
+
+  public long rows() {
+    return rows;
+  }
+
+  public int columns() {
+    return columns;
+  }
+
+  /**
+   * Number of bytes written to the output, as UTF-8.
+   */
+  public long bytes() {
+    return bytes;
+  }
+
+  /**
+   * Total time of the encode call, in nanoseconds.
+   */
+  public long elapsedNanos() {
+    return elapsedNanos;
+  }
+
+  /**
+   * Time spent blocked on flushes of the output and, when sampled, on writes
+   * to the output, in nanoseconds.
+   */
+  public long sinkWaitNanos() {
+    return sinkWaitNanos;
+  }
+
+  /**
+   * Time spent encoding the header ($m and columns) when sampled, in nanoseconds.
+   */
+  public long headerNanos() {
+    return headerNanos;
+  }
+
+  /**
+   * Time spent encoding the rows when sampled, in nanoseconds.
+   */
+  public long rowsNanos() {
+    return rowsNanos;
+  }
+
+  /**
+   * Time spent translating and evaluating expressions when sampled, in nanoseconds.
+   * This time is also included in the header and rows time.
+   */
+  public long translationNanos() {
+    return translationNanos;
+  }
+
+  /**
+   * Number of row values of the specified type encoded.
+   */
+  public long values(ValueType type) {
+    return valueCounts[type.ordinal()];
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder st = new StringBuilder(encoder).append('[').append(kind)
+        .append(", rows=").append(rows)
+        .append(", columns=").append(columns)
+        .append(", bytes=").append(bytes)
+        .append(", elapsed=").append(elapsedNanos)
+        .append(", sinkWait=").append(sinkWaitNanos);
+    if (sampled) {
+      st.append(", header=").append(headerNanos)
+        .append(", rows=").append(rowsNanos)
+        .append(", translation=").append(translationNanos);
+    }
+    return st.append(']').toString();
+  }
+
+  /**
+   * Writer counting the number of UTF-8 bytes written through it and the time
+   * spent in the underlying writer.
+   */
+  private class MeteredWriter extends Writer {
+    MeteredWriter(Writer out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      bytes += c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isSurrogate((char)c) ? 2 : 3;
+      if (sampled) {
+        long t = System.nanoTime();
+        out.write(c);
+        sinkWaitNanos += System.nanoTime() - t;
+      } else {
+        out.write(c);
+      }
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) throws IOException {
+      bytes += utf8Length(buf, off, len);
+      if (sampled) {
+        long t = System.nanoTime();
+        out.write(buf, off, len);
+        sinkWaitNanos += System.nanoTime() - t;
+      } else {
+        out.write(buf, off, len);
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      bytes += utf8Length(str, off, len);
+      if (sampled) {
+        long t = System.nanoTime();
+        out.write(str, off, len);
+        sinkWaitNanos += System.nanoTime() - t;
+      } else {
+        out.write(str, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      long t = System.nanoTime();
+      out.flush();
+      sinkWaitNanos += System.nanoTime() - t;
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+
+    private final Writer out;
+  }
+
+  static long utf8Length(char[] buf, int off, int len) {
+    long n = len;
+    for (int i = off; i < off + len; i++) {
+      char c = buf[i];
+      if (c >= 0x80) n += c < 0x800 || Character.isSurrogate(c) ? 1 : 2;
+    }
+    return n;
+  }
+
+  static long utf8Length(String str, int off, int len) {
+    long n = len;
+    for (int i = off; i < off + len; i++) {
+      char c = str.charAt(i);
+      if (c >= 0x80) n += c < 0x800 || Character.isSurrogate(c) ? 1 : 2;
+    }
+    return n;
+  }
+
+  final String encoder;
+  final String kind;
+  final boolean sampled;
+  final long start;
+  final long[] valueCounts = new long[ValueType.values().length];
+
+  long rows;
+  int columns;
+  long bytes;
+  long elapsedNanos;
+  long sinkWaitNanos;
+  long headerNanos;
+  long rowsNanos;
+  long translationNanos;
+
+  /**
+   * Listener passed in the parameters of the encode call.
+   */
+  EncoderListener listener;
+
+  /**
+   * JFR event for this call, if enabled when the call started.
+   */
+  EncodeEvent event;
+
+  /**
+   * Stats of the encoding that was running on this thread when this one started
+   * (for nested encodes), restored on completion.
+   */
+  EncodeStats previous;
+}
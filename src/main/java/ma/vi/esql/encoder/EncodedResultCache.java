@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.exec.Result;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache of encoded results, for queries whose results change rarely (lookup
+ * lists, reference data, etc.). Results are keyed by their query, normalized
+ * for whitespace, the arguments of the query and the encoding parameters, other
+ * than the per-call hooks in {@link #PER_CALL_PARAMETERS}; on a hit the encoded
+ * bytes are written straight to the output without running the query or the
+ * encoder.
+ *
+ * <p>The cache is bounded by the total size of the encoded results it holds,
+ * evicting the least recently used ones first, and results expire after a
+ * fixed time. Concurrent misses for the same key run the query and encode the
+ * result only once, the other callers waiting for and sharing that encoding.
+ * Results can be invalidated by table, when the data they were read from changes.
+ * Encoded results can optionally be kept gzip-compressed, in which case they
+ * can also be written out compressed (e.g. as an HTTP response with gzip content
+ * encoding) without being decompressed.</p>
+ *
+ * <p>As an encoding is shared by all the calls for its key, per-call hooks are
+ * not passed to the encoder: a miss is neither cancelled nor reported to the
+ * metrics listener of the call which encodes it, so that calls waiting for it
+ * are not failed by another call's cancellation. A {@link ResultEncoder#DIGEST}
+ * is rejected, as it would not be filled on hits; the entity tag of a cached
+ * result is returned by {@link #etag}.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class EncodedResultCache {
+  /**
+   * Creates a cache.
+   * @param encoder The encoder to encode results with on misses.
+   * @param maxBytes Maximum total size of the encoded results (compressed, if
+   *                 compression is on) held in the cache.
+   * @param ttl Time after which a cached result expires.
+   * @param compress Whether to keep the encoded results gzip-compressed.
+   */
+  public EncodedResultCache(ResultEncoder encoder,
+                            long          maxBytes,
+                            Duration      ttl,
+                            boolean       compress) {
+    this.encoder = encoder;
+    this.maxBytes = maxBytes;
+    this.ttlNanos = ttl.toNanos();
+    this.compress = compress;
+  }
+
+  /**
+   * Writes the encoded result of the query to the output, from the cache if
+   * present, or else by executing the query, encoding its result and caching it.
+   *
+   * @param query The text of the query, normalized for whitespace in the key.
+   * @param arguments The arguments of the query, if any (such as a map or list
+   *                  of parameter values), compared by equality; arrays are
+   *                  compared by their content.
+   * @param params Parameters to control the encoding, part of the key; the
+   *               per-call hooks in {@link #PER_CALL_PARAMETERS} are left out
+   *               of the key and not passed to the encoder.
+   * @param tables The tables the result is read from, for invalidation.
+   * @param execute Executes the query, on a miss. The result is closed after
+   *                being encoded.
+   * @param out Outputstream to write the encoded result to.
+   * @throws IllegalArgumentException if a {@link ResultEncoder#DIGEST} is set.
+   */
+  public void encode(String             query,
+                     Object             arguments,
+                     Configuration      params,
+                     Collection<String> tables,
+                     Supplier<Result>   execute,
+                     OutputStream       out) {
+    Entry entry = get(query, arguments, params, tables, execute);
+    try {
+      if (entry.compressed) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(entry.data))) {
+          in.transferTo(out);
+        }
+      } else {
+        out.write(entry.data);
+      }
+      out.flush();
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+  }
+
+  /**
+   * Writes the encoded result of the query, gzip-compressed, to the output. If
+   * the cache keeps results compressed, the cached bytes are written as is.
+   * @see #encode(String, Object, Configuration, Collection, Supplier, OutputStream)
+   */
+  public void encodeCompressed(String             query,
+                               Object             arguments,
+                               Configuration      params,
+                               Collection<String> tables,
+                               Supplier<Result>   execute,
+                               OutputStream       out) {
+    Entry entry = get(query, arguments, params, tables, execute);
+    try {
+      if (entry.compressed) {
+        out.write(entry.data);
+      } else {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, entry.data.length / 4));
+        try (OutputStream gzip = gzip(compressed)) {
+          gzip.write(entry.data);
+        }
+        compressed.writeTo(out);
+      }
+      out.flush();
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+  }
+
+  /**
+   * The entity tag of the encoded result of the query (as computed by
+   * {@link EncodeDigest}, over the uncompressed encoding), from the cache if
+   * present, or else by executing the query and caching its encoded result. This
+   * allows conditional requests to be answered (e.g. with an HTTP 304) without
+   * writing, or re-encoding, the result.
+   * @see #encode(String, Object, Configuration, Collection, Supplier, OutputStream)
+   */
+  public String etag(String             query,
+                     Object             arguments,
+                     Configuration      params,
+                     Collection<String> tables,
+                     Supplier<Result>   execute) {
+    return get(query, arguments, params, tables, execute).etag;
+  }
+
+  /**
+   * Removes the results read from the table from the cache. Results being
+   * encoded when this is called are not cached.
+   */
+  public void invalidate(String table) {
+    invalidations.incrementAndGet();
+    synchronized (entries) {
+      for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+        Entry e = i.next();
+        if (e.tables.contains(table)) {
+          i.remove();
+          size -= e.data.length;
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes all results from the cache.
+   */
+  public void invalidateAll() {
+    invalidations.incrementAndGet();
+    synchronized (entries) {
+      entries.clear();
+      size = 0;
+    }
+  }
+
+  /**
+   * Total size of the encoded results held in the cache.
+   */
+  public long size() {
+    synchronized (entries) {
+      return size;
+    }
+  }
+
+  /**
+   * Number of results held in the cache.
+   */
+  public int count() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Number of results written from the cache.
+   */
+  public long hits() {
+    return hits.get();
+  }
+
+  /**
+   * Number of results executed and encoded, as they were not in the cache.
+   */
+  public long misses() {
+    return misses.get();
+  }
+
+  /**
+   * Number of misses which were not executed and encoded, but waited for and
+   * shared the encoding of a concurrent miss of the same result.
+   */
+  public long coalesced() {
+    return coalesced.get();
+  }
+
+  /**
+   * Normalizes the whitespace of a query: runs of whitespace outside of quoted
+   * strings are replaced by a single space, and leading and trailing whitespace
+   * is removed.
+   */
+  static String normalize(String query) {
+    StringBuilder normalized = new StringBuilder(query.length());
+    char quote = 0;
+    boolean space = false;
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (quote != 0) {
+        normalized.append(c);
+        if (c == quote) quote = 0;
+      } else if (Character.isWhitespace(c)) {
+        space = true;
+      } else {
+        if (space && !normalized.isEmpty()) normalized.append(' ');
+        space = false;
+        if (c == '\'' || c == '"' || c == '`') quote = c;
+        normalized.append(c);
+      }
+    }
+    return normalized.toString();
+  }
+
+  private Entry get(String             query,
+                    Object             arguments,
+                    Configuration      params,
+                    Collection<String> tables,
+                    Supplier<Result>   execute) {
+    if (params.get(ResultEncoder.DIGEST, null) != null) {
+      throw new IllegalArgumentException(ResultEncoder.DIGEST + " is not supported by the cache, "
+                                       + "whose entity tags are returned by etag()");
+    }
+    Configuration encoding = encodingParameters(params);
+    Key key = new Key(normalize(query), contents(arguments), keyParameters(encoding));
+    Entry entry = cached(key);
+    if (entry != null) {
+      hits.incrementAndGet();
+      return entry;
+    }
+
+    /*
+     * Single flight: only the first of concurrent misses for the same key
+     * executes and encodes the query, the others wait for its result.
+     */
+    CompletableFuture<Entry> loading = new CompletableFuture<>();
+    CompletableFuture<Entry> existing = inflight.putIfAbsent(key, loading);
+    if (existing != null) {
+      coalesced.incrementAndGet();
+      try {
+        return existing.join();
+      } catch (CompletionException e) {
+        throw e.getCause() instanceof RuntimeException re ? re : e;
+      }
+    }
+    misses.incrementAndGet();
+    try {
+      long invalidated = invalidations.get();
+      entry = load(key, encoding, tables, execute);
+      if (invalidations.get() == invalidated) {
+        put(entry);
+      }
+      loading.complete(entry);
+      return entry;
+    } catch (RuntimeException e) {
+      loading.completeExceptionally(e);
+      throw e;
+    } finally {
+      inflight.remove(key);
+    }
+  }
+
+  private Entry load(Key                key,
+                     Configuration      params,
+                     Collection<String> tables,
+                     Supplier<Result>   execute) {
+    try (Result result = execute.get();
+         EncodeBuffer buffer = EncodeBufferPool.acquire(EncodeBufferPool.estimate(null, 0))) {
+      encoder.encode(result, buffer, params);
+      /*
+       * size() settles the end of the content (and may grow the buffer), so it
+       * is called before the buffer array is read.
+       */
+      int length = buffer.size();
+      String etag = EncodeDigest.etag(buffer.buf, 0, length);
+      byte[] data;
+      if (compress) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, buffer.size() / 4));
+        try (OutputStream gzip = gzip(compressed)) {
+          buffer.writeTo(gzip);
+        }
+        data = compressed.toByteArray();
+      } else {
+        data = buffer.toByteArray();
+      }
+      return new Entry(key,
+                       data,
+                       etag,
+                       compress,
+                       tables == null ? Set.of() : Set.copyOf(tables),
+                       System.nanoTime() + ttlNanos);
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+  }
+
+  private Entry cached(Key key) {
+    synchronized (entries) {
+      Entry entry = entries.get(key);
+      if (entry != null && System.nanoTime() - entry.expires > 0) {
+        entries.remove(key);
+        size -= entry.data.length;
+        entry = null;
+      }
+      return entry;
+    }
+  }
+
+  private void put(Entry entry) {
+    if (entry.data.length > maxBytes) return;
+    synchronized (entries) {
+      Entry previous = entries.put(entry.key, entry);
+      if (previous != null) size -= previous.data.length;
+      size += entry.data.length;
+
+      /*
+       * Evict least recently used entries until under the size limit.
+       */
+      for (Iterator<Entry> i = entries.values().iterator(); size > maxBytes && i.hasNext(); ) {
+        Entry eldest = i.next();
+        i.remove();
+        size -= eldest.data.length;
+      }
+    }
+  }
+
+  /**
+   * The parameters to encode results with: a copy of the parameters of the call
+   * without the {@link #PER_CALL_PARAMETERS}.
+   */
+  private static Configuration encodingParameters(Configuration params) {
+    Configuration encoding = new Configuration();
+    encoding.putAll(params);
+    encoding.keySet().removeAll(PER_CALL_PARAMETERS);
+    return encoding;
+  }
+
+  /**
+   * The values of the encoding parameters which are set, by name, for the key
+   * of a result. Parameters are compared by equality (arrays by content), so
+   * that values without equality, such as encoder-specific objects, are only
+   * equal to themselves.
+   */
+  private static Map<String, Object> keyParameters(Configuration encoding) {
+    Map<String, Object> values = new HashMap<>();
+    for (Map.Entry<String, Object> e: encoding.entrySet()) {
+      if (e.getValue() != null) values.put(e.getKey(), contents(e.getValue()));
+    }
+    return values;
+  }
+
+  /**
+   * The value, or the list of its elements if it is an array, to be compared
+   * by content.
+   */
+  private static Object contents(Object value) {
+    return value instanceof Object[] array ? Arrays.asList(array) : value;
+  }
+
+  /**
+   * A gzip stream favouring speed over compression ratio.
+   */
+  private static OutputStream gzip(OutputStream out) throws IOException {
+    return new GZIPOutputStream(out, 8192) {{ def.setLevel(Deflater.BEST_SPEED); }};
+  }
+
+  /**
+   * Key of an encoded result.
+   */
+  private record Key(String query, Object arguments, Map<String, Object> params) {}
+
+  /**
+   * The per-call hooks among the encoding parameters, which are neither part
+   * of the key of a result nor passed to the encoder, so that they neither
+   * prevent hits nor are kept by the cache. All other parameters, including
+   * those of custom encoders, are part of the key.
+   */
+  public static final Set<String> PER_CALL_PARAMETERS = Set.of(
+      ResultEncoder.DIGEST,
+      ResultEncoder.CANCELLATION,
+      ResultEncoder.DEADLINE,
+      ResultEncoder.CANCELLATION_CHECK_INTERVAL,
+      ResultEncoder.METRICS_LISTENER);
+
+  /**
+   * An encoded result in the cache.
+   */
+  private record Entry(Key key,
+                       byte[] data,
+                       String etag,
+                       boolean compressed,
+                       Set<String> tables,
+                       long expires) {}
+
+  private final ResultEncoder encoder;
+
+  private final long maxBytes;
+
+  private final long ttlNanos;
+
+  private final boolean compress;
+
+  /**
+   * Cached entries in least to most recently used order.
+   */
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+  /**
+   * Total size of the cached entries.
+   */
+  private long size;
+
+  /**
+   * Results being encoded, by key.
+   */
+  private final Map<Key, CompletableFuture<Entry>> inflight = new ConcurrentHashMap<>();
+
+  /**
+   * Number of invalidations so far, to avoid caching results being encoded
+   * while an invalidation takes place.
+   */
+  private final AtomicLong invalidations = new AtomicLong();
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong coalesced = new AtomicLong();
+}
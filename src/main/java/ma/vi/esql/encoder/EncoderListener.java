@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+/**
+ * Listener notified at the end of every encode call with the measurements
+ * collected during that call. Listeners can be registered globally through
+ * {@link EncoderMetrics#addListener(EncoderListener)} or for specific calls by
+ * setting the {@link ResultEncoder#METRICS_LISTENER} parameter, and are used to
+ * export encoding metrics to monitoring systems.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+@FunctionalInterface
+public interface EncoderListener {
+  /**
+   * Called after an encode call has completed (successfully or not). This is
+   * called on the encoding thread and should return quickly.
+   * @param stats The measurements of the encode call.
+   */
+  void encoded(EncodeStats stats);
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import jdk.jfr.EventType;
+import ma.vi.base.config.Configuration;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static ma.vi.esql.encoder.ResultEncoder.METRICS_LISTENER;
+
+/**
+ * Entry point for the instrumentation of encoders. Metrics are only collected
+ * when they will be used, i.e. when a JFR recording has enabled the
+ * {@link EncodeEvent}, a global listener has been registered or a listener is
+ * passed in the encoding parameters; otherwise {@link #start} returns null and
+ * encoders skip all measurements, making the overhead negligible.
+ *
+ * <p>The time spent in each phase of an encoding (header, rows and expression
+ * translation) needs more frequent clock reads and is therefore only measured
+ * on a sample of the calls, 1 in {@link #sampleRate()} by default.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class EncoderMetrics {
+  private EncoderMetrics() {}
+
+  /**
+   * Registers a listener to be notified of the measurements of every encode call.
+   */
+  public static void addListener(EncoderListener listener) {
+    listeners.add(listener);
+  }
+
+  public static void removeListener(EncoderListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Phase timings are measured for 1 in every sampleRate encode calls. 1 measures
+   * phase timings for all calls while 0 disables them.
+   */
+  public static int sampleRate() {
+    return sampleRate;
+  }
+
+  public static void sampleRate(int rate) {
+    if (rate < 0) {
+      throw new IllegalArgumentException("Sample rate must be 0 or positive: " + rate);
+    }
+    sampleRate = rate;
+  }
+
+  /**
+   * Starts collecting the measurements of an encode call, returning null if no
+   * metrics are needed.
+   */
+  static EncodeStats start(ResultEncoder encoder,
+                           String        kind,
+                           Configuration params) {
+    EncoderListener listener = params.get(METRICS_LISTENER, NO_LISTENER);
+    if (listener == NO_LISTENER
+     && listeners.isEmpty()
+     && !ENCODE_EVENT.isEnabled()) {
+      return null;
+    }
+    int rate = sampleRate;
+    EncodeStats stats = new EncodeStats(encoder.getClass().getSimpleName(), kind,
+                                        rate == 1 || (rate > 1 && ThreadLocalRandom.current().nextInt(rate) == 0));
+    stats.listener = listener;
+    if (ENCODE_EVENT.isEnabled()) {
+      stats.event = new EncodeEvent();
+      stats.event.begin();
+    }
+    stats.previous = CURRENT.get();
+    CURRENT.set(stats);
+    return stats;
+  }
+
+  /**
+   * Completes the measurements of an encode call, commits the corresponding
+   * JFR event and notifies the listeners.
+   */
+  static void finish(EncodeStats stats) {
+    stats.elapsedNanos = System.nanoTime() - stats.start;
+    if (stats.previous == null) CURRENT.remove();
+    else                        CURRENT.set(stats.previous);
+
+    EncodeEvent event = stats.event;
+    if (event != null && event.shouldCommit()) {
+      event.encoder         = stats.encoder;
+      event.kind            = stats.kind;
+      event.rows            = stats.rows;
+      event.columns         = stats.columns;
+      event.bytes           = stats.bytes;
+      event.sinkWait        = stats.sinkWaitNanos;
+      event.sampled         = stats.sampled;
+      event.headerTime      = stats.headerNanos;
+      event.rowsTime        = stats.rowsNanos;
+      event.translationTime = stats.translationNanos;
+      event.commit();
+    }
+    if (stats.listener != NO_LISTENER) {
+      stats.listener.encoded(stats);
+    }
+    for (EncoderListener listener: listeners) {
+      listener.encoded(stats);
+    }
+  }
+
+  /**
+   * The stats of the encoding running on the current thread if it is being
+   * sampled; used to time expression translation which happens deep in the
+   * value encoding.
+   */
+  static EncodeStats sampling() {
+    EncodeStats stats = CURRENT.get();
+    return stats != null && stats.sampled ? stats : null;
+  }
+
+  /**
+   * Sentinel for the absence of a listener in the encoding parameters.
+   */
+  static final EncoderListener NO_LISTENER = stats -> {};
+
+  private static final EventType ENCODE_EVENT = EventType.getEventType(EncodeEvent.class);
+
+  private static final ThreadLocal<EncodeStats> CURRENT = new ThreadLocal<>();
+
+  private static final List<EncoderListener> listeners = new CopyOnWriteArrayList<>();
+
+  private static volatile int sampleRate = 16;
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static ma.vi.esql.encoder.FramedOutput.END;
+import static ma.vi.esql.encoder.FramedOutput.ERROR;
+import static ma.vi.esql.encoder.FramedOutput.HEADER_SIZE;
+
+/**
+ * Reads the frames written by a {@link FramedOutput} from an input stream, one
+ * at a time with {@link #next()}, or reassembling the streams they belong to
+ * with {@link #readAll(Listener)}, which passes each stream to a listener as
+ * soon as its last frame is read, so that small results written after large
+ * ones can be decoded before the large ones are complete.
+ *
+ * <pre>
+ *   new FrameReader(socket.getInputStream()).readAll((stream, content) -&gt; {
+ *     ResultCursor cursor = new JsonResultDecoder().decode(content);
+ *     ...
+ *   });
+ * </pre>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class FrameReader implements Closeable {
+  /**
+   * Creates a reader of frames of at most 16MB of payload.
+   */
+  public FrameReader(InputStream in) {
+    this(in, DEFAULT_MAX_FRAME_SIZE);
+  }
+
+  /**
+   * Creates a reader of frames of at most maxFrameSize bytes of payload, larger
+   * frames being rejected as malformed input before their payload is read.
+   */
+  public FrameReader(InputStream in, int maxFrameSize) {
+    if (maxFrameSize <= 0) {
+      throw new IllegalArgumentException("Maximum frame size must be positive: " + maxFrameSize);
+    }
+    this.in = in;
+    this.maxFrameSize = maxFrameSize;
+  }
+
+  /**
+   * Reads the next frame, or returns null at the end of the input.
+   * @throws IllegalArgumentException if the input ends part way through a frame
+   *                                  or has a frame larger than the maximum size.
+   */
+  public Frame next() {
+    try {
+      int read = in.readNBytes(header, 0, HEADER_SIZE);
+      if (read == 0) {
+        return null;
+      } else if (read < HEADER_SIZE) {
+        throw new IllegalArgumentException("Malformed framed input: truncated frame header");
+      }
+      int stream = (header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16
+                 | (header[2] & 0xFF) << 8  | (header[3] & 0xFF);
+      int flags = header[4] & 0xFF;
+      int length = (header[5] & 0xFF) << 24 | (header[6] & 0xFF) << 16
+                 | (header[7] & 0xFF) << 8  | (header[8] & 0xFF);
+      if (length < 0) {
+        throw new IllegalArgumentException("Malformed framed input: negative length "
+                                         + length + " of frame of stream " + stream);
+      } else if (length > maxFrameSize) {
+        throw new IllegalArgumentException("Malformed framed input: frame of stream " + stream
+                                         + " of " + length + " bytes exceeds the maximum of "
+                                         + maxFrameSize);
+      }
+      byte[] payload = in.readNBytes(length);
+      if (payload.length < length) {
+        throw new IllegalArgumentException("Malformed framed input: frame of stream "
+                                         + stream + " truncated at " + payload.length
+                                         + " of " + length + " bytes");
+      }
+      return new Frame(stream, flags, payload);
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+  }
+
+  /**
+   * Reads the frames to the end of the input, reassembling the content of each
+   * stream and passing it to the listener when the last frame of the stream is
+   * read. The content of a stream is held only until the stream ends, after
+   * which its id can be reused.
+   * @throws IllegalArgumentException if the input ends part way through a frame
+   *                                  or with streams which have not ended.
+   */
+  public void readAll(Listener listener) {
+    Map<Integer, EncodeBuffer> open = new HashMap<>();
+    try {
+      for (Frame frame = next(); frame != null; frame = next()) {
+        if (frame.isError()) {
+          EncodeBuffer content = open.remove(frame.stream());
+          if (content != null) content.close();
+          listener.failed(frame.stream(), new String(frame.payload(), UTF_8));
+        } else {
+          EncodeBuffer content = open.get(frame.stream());
+          if (frame.isEnd() && content == null) {
+            listener.completed(frame.stream(), frame.payload());
+          } else {
+            if (content == null) {
+              content = EncodeBufferPool.acquire(frame.payload().length * 2);
+              open.put(frame.stream(), content);
+            }
+            content.write(frame.payload(), 0, frame.payload().length);
+            if (frame.isEnd()) {
+              open.remove(frame.stream());
+              try {
+                listener.completed(frame.stream(), content.toByteArray());
+              } finally {
+                content.close();
+              }
+            }
+          }
+        }
+      }
+      if (!open.isEmpty()) {
+        throw new IllegalArgumentException("Malformed framed input: streams "
+                                         + open.keySet() + " did not end");
+      }
+    } finally {
+      for (EncodeBuffer content: open.values()) content.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      in.close();
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+  }
+
+  /**
+   * A frame of a stream.
+   * @param stream Id of the stream which the frame is part of.
+   * @param flags Flags of the frame ({@link FramedOutput#END}, {@link FramedOutput#ERROR}).
+   * @param payload Content of the frame.
+   */
+  public record Frame(int stream, int flags, byte[] payload) {
+    /**
+     * Whether this is the last frame of its stream.
+     */
+    public boolean isEnd() {
+      return (flags & END) != 0;
+    }
+
+    /**
+     * Whether the stream was aborted, the payload holding the reason.
+     */
+    public boolean isError() {
+      return (flags & ERROR) != 0;
+    }
+  }
+
+  /**
+   * Receives the streams reassembled by {@link #readAll(Listener)}.
+   */
+  @FunctionalInterface
+  public interface Listener {
+    /**
+     * Called with the full content of a stream once its last frame is read.
+     */
+    void completed(int stream, byte[] content);
+
+    /**
+     * Called when a stream is aborted, with the reason; the content received
+     * for the stream is discarded. Does nothing by default.
+     */
+    default void failed(int stream, String reason) {}
+  }
+
+  private final InputStream in;
+
+  /**
+   * Maximum payload of frames, so that a corrupt or hostile length does not
+   * make the reader allocate up to 2GB.
+   */
+  private final int maxFrameSize;
+
+  private final byte[] header = new byte[HEADER_SIZE];
+
+  private static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Multiplexes several encoded results (or relations) over one output stream,
+ * such as a long-lived connection, by writing them in frames, each holding a
+ * chunk of the encoding of one result behind a header identifying the stream it
+ * belongs to. Frames of different results are interleaved as they are encoded, so
+ * that small results are not held behind large ones; {@link FrameReader} reads
+ * the frames back and reassembles the results.
+ *
+ * <p>Each frame starts with a 9-byte header, in big-endian order:</p>
+ * <pre>
+ *   stream id: 4 bytes
+ *   flags:     1 byte  ({@link #END} on the last frame of a stream,
+ *                       {@link #ERROR} if the stream was aborted)
+ *   length:    4 bytes (of the payload following the header)
+ * </pre>
+ *
+ * Each result is written to its own {@link Stream}, opened with {@link #open(int)}
+ * and closed when the result is fully written. Streams cut their content into
+ * frames of at most the frame size (16KB by default), writing a frame when it is
+ * full, when the stream is flushed and when it is closed. Frames are written whole
+ * to the output under a fair lock, so that streams encoded concurrently on
+ * different threads take turns on the output frame by frame.
+ *
+ * <pre>
+ *   FramedOutput framed = new FramedOutput(socket.getOutputStream());
+ *   // on each thread serving a request:
+ *   encoder.encodeFramed(result, framed, requestId, params);
+ * </pre>
+ *
+ * A framed output is thread-safe; each of its streams must be written by one
+ * thread at a time.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class FramedOutput implements Closeable {
+  /**
+   * Creates a framed output with frames of at most 16KB of payload.
+   */
+  public FramedOutput(OutputStream out) {
+    this(out, DEFAULT_FRAME_SIZE);
+  }
+
+  /**
+   * Creates a framed output with frames of at most frameSize bytes of payload.
+   */
+  public FramedOutput(OutputStream out, int frameSize) {
+    if (frameSize <= 0) {
+      throw new IllegalArgumentException("Frame size must be positive: " + frameSize);
+    }
+    this.out = out;
+    this.frameSize = frameSize;
+  }
+
+  /**
+   * Opens a stream to write a result to in frames with the stream id.
+   */
+  public Stream open(int id) {
+    return new Stream(id);
+  }
+
+  /**
+   * Writes to a stream with the encoding, closing the stream once done or
+   * aborting it if the encoding fails.
+   */
+  void write(int id, Consumer<Writer> encoding) {
+    Stream stream = open(id);
+    try {
+      encoding.accept(stream);
+    } catch (RuntimeException | Error e) {
+      try {
+        stream.abort(e.toString());
+      } catch (IOException abortFailure) {
+        e.addSuppressed(abortFailure);
+      }
+      throw e;
+    }
+    try {
+      stream.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Writes a frame whole to the output.
+   */
+  void writeFrame(int stream, int flags, byte[] payload, int off, int len) throws IOException {
+    byte[] header = {(byte)(stream >>> 24), (byte)(stream >>> 16), (byte)(stream >>> 8), (byte)stream,
+                     (byte)flags,
+                     (byte)(len >>> 24), (byte)(len >>> 16), (byte)(len >>> 8), (byte)len};
+    lock.lock();
+    try {
+      out.write(header);
+      if (len > 0) out.write(payload, off, len);
+      out.flush();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Closes the underlying output.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      out.close();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * A writer of one result to the framed output, cutting its UTF-8 encoding into
+   * frames. Bytes can also be written, such as by binary encoders, with
+   * {@link #write(byte[], int, int)} or through {@link #outputStream()}.
+   */
+  public final class Stream extends Writer {
+    private Stream(int id) {
+      this.id = id;
+      this.staging = EncodeBufferPool.acquire(frameSize);
+    }
+
+    /**
+     * The id of the stream.
+     */
+    public int id() {
+      return id;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      staging().write(c);
+      sendFull();
+    }
+
+    @Override
+    public void write(char[] chars, int off, int len) throws IOException {
+      while (len > 0) {
+        int n = Math.min(len, frameSize);
+        staging().write(chars, off, n);
+        sendFull();
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      while (len > 0) {
+        int n = Math.min(len, frameSize);
+        staging().write(str, off, n);
+        sendFull();
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void write(String str) throws IOException {
+      write(str, 0, str.length());
+    }
+
+    @Override
+    public Stream append(CharSequence csq) throws IOException {
+      String s = String.valueOf(csq);
+      write(s, 0, s.length());
+      return this;
+    }
+
+    @Override
+    public Stream append(char c) throws IOException {
+      write(c);
+      return this;
+    }
+
+    /**
+     * Writes raw bytes to the stream.
+     */
+    public void write(byte[] bytes, int off, int len) throws IOException {
+      staging();
+      while (len > 0) {
+        int n = Math.min(len, frameSize - staging.count);
+        staging.write(bytes, off, n);
+        sendFull();
+        off += n;
+        len -= n;
+      }
+    }
+
+    /**
+     * An output stream writing raw bytes to this stream.
+     */
+    public OutputStream outputStream() {
+      return new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          Stream.this.write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) throws IOException {
+          Stream.this.write(bytes, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+          Stream.this.flush();
+        }
+      };
+    }
+
+    /**
+     * Writes the content written so far in a frame, so that it is not held
+     * waiting for the frame to fill.
+     */
+    @Override
+    public void flush() throws IOException {
+      EncodeBuffer staging = staging();
+      staging.size();
+      if (staging.count > 0) send(0, staging.count, 0);
+    }
+
+    /**
+     * Writes the rest of the stream in its last frame, flagged {@link #END}.
+     * Closing a closed or aborted stream has no effect.
+     */
+    @Override
+    public void close() throws IOException {
+      if (staging != null) {
+        try {
+          staging.size();
+          send(0, staging.count, END);
+        } finally {
+          release();
+        }
+      }
+    }
+
+    /**
+     * Ends the stream with a frame flagged {@link #ERROR} and {@link #END},
+     * holding the reason, such as when encoding fails part way, discarding what
+     * has been written but not yet sent. Aborting a closed stream has no effect.
+     */
+    public void abort(String reason) throws IOException {
+      if (staging != null) {
+        try {
+          byte[] message = String.valueOf(reason).getBytes(UTF_8);
+          writeFrame(id, ERROR | END, message, 0, message.length);
+        } finally {
+          release();
+        }
+      }
+    }
+
+    private EncodeBuffer staging() {
+      if (staging == null) {
+        throw new IllegalStateException("Stream " + id + " has been closed");
+      }
+      return staging;
+    }
+
+    /**
+     * Sends the full frames in the staging buffer, keeping the rest.
+     */
+    private void sendFull() throws IOException {
+      if (staging.count >= frameSize) {
+        int sent = 0;
+        while (staging.count - sent >= frameSize) {
+          writeFrame(id, 0, staging.buf, sent, frameSize);
+          sent += frameSize;
+        }
+        System.arraycopy(staging.buf, sent, staging.buf, 0, staging.count - sent);
+        staging.count -= sent;
+      }
+    }
+
+    private void send(int off, int len, int flags) throws IOException {
+      writeFrame(id, flags, staging.buf, off, len);
+      staging.count = 0;
+    }
+
+    private void release() {
+      staging.close();
+      staging = null;
+    }
+
+    private final int id;
+
+    /**
+     * Buffer in which the content of the next frame is encoded; null once
+     * the stream is closed.
+     */
+    private EncodeBuffer staging;
+  }
+
+  /**
+   * Flag of the last frame of a stream.
+   */
+  public static final int END = 0x01;
+
+  /**
+   * Flag of a frame ending a stream whose encoding failed, holding the reason
+   * as UTF-8 text.
+   */
+  public static final int ERROR = 0x02;
+
+  /**
+   * Size of frame headers, in bytes.
+   */
+  public static final int HEADER_SIZE = 9;
+
+  private final OutputStream out;
+
+  private final int frameSize;
+
+  /**
+   * Fair lock on the output, so that streams waiting to write frames take
+   * turns in order.
+   */
+  private final ReentrantLock lock = new ReentrantLock(true);
+
+  private static final int DEFAULT_FRAME_SIZE = 16 * 1024;
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.exec.ColumnMapping;
+import ma.vi.esql.exec.Result;
+
+import java.util.*;
+
+import static ma.vi.esql.encoder.ResultEncoder.GROUP_BY;
+import static ma.vi.esql.encoder.ResultEncoder.GROUP_CHILD_KEY;
+import static ma.vi.esql.encoder.ResultEncoder.GROUP_COLUMNS;
+
+/**
+ * The grouping of the rows of a result into parents with nested children,
+ * resolved from the {@link ResultEncoder#GROUP_BY} and {@link ResultEncoder#GROUP_COLUMNS}
+ * parameters once per encode call. The projected columns are split into the
+ * parent columns (the key columns and the other columns of the parent), which
+ * are encoded once per group, followed by the child columns, encoded for each
+ * row of the group.
+ *
+ * <p>Consecutive rows with the same key values form a group, so the result must
+ * be ordered by the key columns for each parent to be encoded once; groups are
+ * encoded as their rows are read, without buffering the result.</p>
+ *
+ * <p>Rows of parents without children, as in outer joins, are told apart by a
+ * null in the child key column ({@link ResultEncoder#GROUP_CHILD_KEY}, or else
+ * the <code>_id</code> of the children if it is a child column); without such a
+ * column, every row adds a child, even if all its child columns are null.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class Grouping {
+  private Grouping(Projection projection, int keys, int parents, int childKey) {
+    this.projection = projection;
+    this.keys = keys;
+    this.parents = parents;
+    this.childKey = childKey;
+  }
+
+  /**
+   * The grouping in the parameters of the projected columns of the result, or
+   * null if the result is not grouped.
+   * @throws IllegalArgumentException if a key or parent column is not projected,
+   *                                  or the child key column is not in the result.
+   */
+  static Grouping of(Result rs, Projection projection, Configuration params) {
+    Object keySpec = params.get(GROUP_BY, null);
+    if (keySpec == null) {
+      return null;
+    }
+    Map<String, Integer> positions = new HashMap<>();
+    List<ColumnMapping> columns = rs.columns();
+    for (int i = 0; i < projection.size(); i++) {
+      positions.putIfAbsent(columns.get(projection.column(i) - 1).column().name(), i);
+    }
+
+    Set<String> keyNames = Projection.names(keySpec);
+    if (keyNames.isEmpty()) {
+      throw new IllegalArgumentException("No key columns to group the result by");
+    }
+    Set<String> parentNames = new LinkedHashSet<>(keyNames);
+    Object parentSpec = params.get(GROUP_COLUMNS, null);
+    if (parentSpec != null) parentNames.addAll(Projection.names(parentSpec));
+
+    /*
+     * Parent columns first, followed by the remaining (child) columns in their
+     * projected order.
+     */
+    int[] order = new int[projection.size()];
+    boolean[] isParent = new boolean[projection.size()];
+    int i = 0;
+    for (String name: parentNames) {
+      Integer position = positions.get(name);
+      if (position == null) {
+        throw new IllegalArgumentException("Group column " + name
+                                         + " is not in the encoded columns "
+                                         + positions.keySet());
+      }
+      isParent[position] = true;
+      order[i++] = position;
+    }
+    int parents = i;
+    for (int p = 0; p < isParent.length; p++) {
+      if (!isParent[p]) order[i++] = p;
+    }
+
+    Projection grouped = projection.reorder(order);
+    return new Grouping(grouped, keyNames.size(), parents, childKey(columns, grouped, parents, params));
+  }
+
+  /**
+   * The index in the result (from 1) of the child key column, looked up first
+   * among the child columns, then among the columns of the result which are not
+   * encoded; 0 if there is no child key column.
+   */
+  private static int childKey(List<ColumnMapping> columns,
+                              Projection          grouped,
+                              int                 parents,
+                              Configuration       params) {
+    Object spec = params.get(GROUP_CHILD_KEY, null);
+    String name = spec == null ? ID : spec.toString().trim();
+    for (int i = parents; i < grouped.size(); i++) {
+      if (columns.get(grouped.column(i) - 1).column().name().equals(name)) {
+        return grouped.column(i);
+      }
+    }
+    if (spec == null) {
+      return 0;
+    }
+    Set<Integer> encoded = new HashSet<>();
+    for (int i = 0; i < grouped.size(); i++) encoded.add(grouped.column(i));
+    for (int i = 1; i <= columns.size(); i++) {
+      if (!encoded.contains(i) && columns.get(i - 1).column().name().equals(name)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Child key column " + name
+                                     + " is not a child column of the result");
+  }
+
+  /**
+   * Whether the row at the current position of the result starts a new group,
+   * i.e. its key values differ from the previous row's, which are kept in the
+   * key array and replaced by those of the current row.
+   */
+  boolean startsGroup(Result rs, Object[] previousKey, boolean first) {
+    boolean changed = first;
+    for (int k = 0; k < keys; k++) {
+      Object value = rs.get(projection.column(k)).value();
+      if (!changed && !Objects.deepEquals(value, previousKey[k])) {
+        changed = true;
+      }
+      previousKey[k] = value;
+    }
+    return changed;
+  }
+
+  /**
+   * Whether the row at the current position of the result has no child, i.e.
+   * its child key is null, as for a parent without children in an outer join.
+   */
+  boolean childless(Result rs) {
+    return childKey != 0 && rs.get(childKey).value() == null;
+  }
+
+  /**
+   * The projected columns, parent columns first.
+   */
+  final Projection projection;
+
+  /**
+   * Number of key columns, at the start of the grouped projection.
+   */
+  final int keys;
+
+  /**
+   * Number of parent columns, at the start of the grouped projection.
+   */
+  final int parents;
+
+  /**
+   * Index in the result of the child key column, or 0 if none.
+   */
+  private final int childKey;
+
+  private static final String ID = "_id";
+}
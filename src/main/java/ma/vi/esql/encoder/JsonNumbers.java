@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.CharBuffer;
+
+/**
+ * Writes numbers as JSON directly to the output, without creating a String or
+ * a buffer per value, their characters being laid out in a scratch array reused
+ * by each thread. Integers are written digit by digit; doubles and floats are written in
+ * their shortest representation which parses back to the same value, computed
+ * with the Ryu algorithm (Ulf Adams, 2018), and laid out as JavaScript does
+ * (plain notation when the decimal exponent is between -7 and 21, scientific
+ * notation otherwise). BigDecimals are written in plain notation unless their
+ * exponent is very large.
+ *
+ * <p>NaN and infinities, which are not valid JSON, are written according to the
+ * {@link NonFinite} policy of the encoding.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class JsonNumbers {
+  private JsonNumbers() {}
+
+  /**
+   * How to encode NaN and infinite values.
+   */
+  public enum NonFinite {
+    /**
+     * Write null.
+     */
+    NULL,
+
+    /**
+     * Write as the strings "NaN", "Infinity" and "-Infinity".
+     */
+    STRING,
+
+    /**
+     * Fail the encoding with an {@link IllegalArgumentException}.
+     */
+    ERROR
+  }
+
+  /**
+   * Writes the number as JSON.
+   */
+  public static void write(Number n, NonFinite nonFinite, Appendable out) throws IOException {
+    if (n instanceof Integer
+     || n instanceof Long
+     || n instanceof Short
+     || n instanceof Byte) {
+      write(n.longValue(), out);
+    } else if (n instanceof Double d) {
+      write(d.doubleValue(), nonFinite, out);
+    } else if (n instanceof Float f) {
+      write(f.floatValue(), nonFinite, out);
+    } else if (n instanceof BigDecimal d) {
+      out.append(Math.abs((long)d.scale()) <= MAX_PLAIN_SCALE ? d.toPlainString() : d.toString());
+    } else {
+      out.append(n.toString());
+    }
+  }
+
+  /**
+   * Writes the digits of the integer.
+   */
+  public static void write(long v, Appendable out) throws IOException {
+    char[] buf = SCRATCH.get();
+    int len = digits(v, buf, 0);
+    append(buf, len, out);
+  }
+
+  public static void write(double v, NonFinite nonFinite, Appendable out) throws IOException {
+    if (!Double.isFinite(v)) {
+      nonFinite(Double.isNaN(v), v > 0, nonFinite, out);
+    } else {
+      char[] buf = SCRATCH.get();
+      append(buf, shortest(v, buf), out);
+    }
+  }
+
+  public static void write(float v, NonFinite nonFinite, Appendable out) throws IOException {
+    if (!Float.isFinite(v)) {
+      nonFinite(Float.isNaN(v), v > 0, nonFinite, out);
+    } else {
+      char[] buf = SCRATCH.get();
+      append(buf, shortest(v, buf), out);
+    }
+  }
+
+  /**
+   * The shortest JSON representation of the double, which must be finite.
+   */
+  public static String toString(double v) {
+    char[] buf = new char[32];
+    return new String(buf, 0, shortest(v, buf));
+  }
+
+  /**
+   * The shortest JSON representation of the float, which must be finite.
+   */
+  public static String toString(float v) {
+    char[] buf = new char[32];
+    return new String(buf, 0, shortest(v, buf));
+  }
+
+  private static void nonFinite(boolean   nan,
+                                boolean   positive,
+                                NonFinite nonFinite,
+                                Appendable out) throws IOException {
+    String name = nan ? "NaN" : positive ? "Infinity" : "-Infinity";
+    switch (nonFinite) {
+      case NULL   -> out.append("null");
+      case STRING -> out.append('"').append(name).append('"');
+      default     -> throw new IllegalArgumentException(name + " cannot be encoded as a JSON number");
+    }
+  }
+
+  private static void append(char[] buf, int len, Appendable out) throws IOException {
+    if      (out instanceof Writer w)        w.write(buf, 0, len);
+    else if (out instanceof StringBuilder s) s.append(buf, 0, len);
+    else                                     out.append(CharBuffer.wrap(buf, 0, len));
+  }
+
+  /**
+   * Writes the decimal digits of v into buf from pos, returning the position
+   * after the last digit.
+   */
+  static int digits(long v, char[] buf, int pos) {
+    if (v == Long.MIN_VALUE) {
+      String min = "-9223372036854775808";
+      min.getChars(0, min.length(), buf, pos);
+      return pos + min.length();
+    }
+    if (v < 0) {
+      buf[pos++] = '-';
+      v = -v;
+    }
+    int end = pos + decimalLength(v);
+    int i = end;
+    do {
+      buf[--i] = (char)('0' + v % 10);
+      v /= 10;
+    } while (v != 0);
+    return end;
+  }
+
+  private static int decimalLength(long v) {
+    int len = 1;
+    while (v >= 10) {
+      v /= 10;
+      len++;
+    }
+    return len;
+  }
+
+  /**
+   * Writes the shortest representation of the finite double into buf, returning
+   * its length.
+   */
+  static int shortest(double v, char[] buf) {
+    if (v == (long)v && Math.abs(v) < 0x1p53) {
+      /*
+       * Integers are written as such (including -0.0 as 0, as in JavaScript).
+       */
+      return digits((long)v, buf, 0);
+    }
+    long bits = Double.doubleToRawLongBits(v);
+    long ieeeMantissa = bits & ((1L << DOUBLE_MANTISSA_BITS) - 1);
+    int ieeeExponent = (int)((bits >>> DOUBLE_MANTISSA_BITS) & 0x7FF);
+    long m2;
+    int e2;
+    if (ieeeExponent == 0) {
+      m2 = ieeeMantissa;
+      e2 = 1 - DOUBLE_BIAS - DOUBLE_MANTISSA_BITS - 2;
+    } else {
+      m2 = (1L << DOUBLE_MANTISSA_BITS) | ieeeMantissa;
+      e2 = ieeeExponent - DOUBLE_BIAS - DOUBLE_MANTISSA_BITS - 2;
+    }
+    boolean mmShift = ieeeMantissa != 0 || ieeeExponent <= 1;
+    return format(bits < 0, m2, e2, mmShift, buf);
+  }
+
+  /**
+   * Writes the shortest representation of the finite float into buf, returning
+   * its length. This uses the same (more precise than needed) tables as doubles.
+   */
+  static int shortest(float v, char[] buf) {
+    if (v == (long)v && Math.abs(v) < 0x1p24f) {
+      return digits((long)v, buf, 0);
+    }
+    int bits = Float.floatToRawIntBits(v);
+    int ieeeMantissa = bits & ((1 << FLOAT_MANTISSA_BITS) - 1);
+    int ieeeExponent = (bits >>> FLOAT_MANTISSA_BITS) & 0xFF;
+    long m2;
+    int e2;
+    if (ieeeExponent == 0) {
+      m2 = ieeeMantissa;
+      e2 = 1 - FLOAT_BIAS - FLOAT_MANTISSA_BITS - 2;
+    } else {
+      m2 = (1L << FLOAT_MANTISSA_BITS) | ieeeMantissa;
+      e2 = ieeeExponent - FLOAT_BIAS - FLOAT_MANTISSA_BITS - 2;
+    }
+    boolean mmShift = ieeeMantissa != 0 || ieeeExponent <= 1;
+    return format(bits < 0, m2, e2, mmShift, buf);
+  }
+
+  /**
+   * Computes the shortest decimal in the rounding interval of m2 * 2^(e2 + 2)
+   * (Ryu, steps 2 to 4) and lays it out in buf.
+   */
+  private static int format(boolean sign,
+                            long    m2,
+                            int     e2,
+                            boolean mmShift,
+                            char[]  buf) {
+    boolean acceptBounds = (m2 & 1) == 0;
+
+    /*
+     * Step 2: the interval of values rounding to the number is [mm, mp], with
+     * mv the number itself, all multiplied by 4.
+     */
+    long mv = 4 * m2;
+    long mp = 4 * m2 + 2;
+    long mm = 4 * m2 - 1 - (mmShift ? 1 : 0);
+
+    /*
+     * Step 3: convert to a decimal power base.
+     */
+    long vr, vp, vm;
+    int e10;
+    boolean vmIsTrailingZeros = false;
+    boolean vrIsTrailingZeros = false;
+    if (e2 >= 0) {
+      int q = log10Pow2(e2) - (e2 > 3 ? 1 : 0);
+      e10 = q;
+      int k = POW5_INV_BITCOUNT + pow5bits(q) - 1;
+      int i = -e2 + q + k;
+      vr = mulShift(mv, POW5_INV_SPLIT[q], i);
+      vp = mulShift(mp, POW5_INV_SPLIT[q], i);
+      vm = mulShift(mm, POW5_INV_SPLIT[q], i);
+      if (q <= 21) {
+        /*
+         * Only one of mp, mv, and mm can be a multiple of 5, if any.
+         */
+        if (mv % 5 == 0) {
+          vrIsTrailingZeros = multipleOfPowerOf5(mv, q);
+        } else if (acceptBounds) {
+          vmIsTrailingZeros = multipleOfPowerOf5(mm, q);
+        } else if (multipleOfPowerOf5(mp, q)) {
+          vp--;
+        }
+      }
+    } else {
+      int q = log10Pow5(-e2) - (-e2 > 1 ? 1 : 0);
+      e10 = q + e2;
+      int i = -e2 - q;
+      int k = pow5bits(i) - POW5_BITCOUNT;
+      int j = q - k;
+      vr = mulShift(mv, POW5_SPLIT[i], j);
+      vp = mulShift(mp, POW5_SPLIT[i], j);
+      vm = mulShift(mm, POW5_SPLIT[i], j);
+      if (q <= 1) {
+        /*
+         * mv has at least q trailing 0 bits (it is a multiple of 4).
+         */
+        vrIsTrailingZeros = true;
+        if (acceptBounds) {
+          vmIsTrailingZeros = mmShift;
+        } else {
+          vp--;
+        }
+      } else if (q < 63) {
+        vrIsTrailingZeros = (mv & ((1L << q) - 1)) == 0;
+      }
+    }
+
+    /*
+     * Step 4: find the shortest decimal representation in the interval.
+     */
+    int removed = 0;
+    int lastRemovedDigit = 0;
+    long output;
+    if (vmIsTrailingZeros || vrIsTrailingZeros) {
+      while (vp / 10 > vm / 10) {
+        vmIsTrailingZeros &= vm % 10 == 0;
+        vrIsTrailingZeros &= lastRemovedDigit == 0;
+        lastRemovedDigit = (int)(vr % 10);
+        vr /= 10;
+        vp /= 10;
+        vm /= 10;
+        removed++;
+      }
+      if (vmIsTrailingZeros) {
+        while (vm % 10 == 0) {
+          vrIsTrailingZeros &= lastRemovedDigit == 0;
+          lastRemovedDigit = (int)(vr % 10);
+          vr /= 10;
+          vp /= 10;
+          vm /= 10;
+          removed++;
+        }
+      }
+      if (vrIsTrailingZeros && lastRemovedDigit == 5 && vr % 2 == 0) {
+        /*
+         * Round even if the exact number is .....50..0.
+         */
+        lastRemovedDigit = 4;
+      }
+      output = vr + ((vr == vm && (!acceptBounds || !vmIsTrailingZeros)) || lastRemovedDigit >= 5 ? 1 : 0);
+    } else {
+      boolean roundUp = false;
+      while (vp / 10 > vm / 10) {
+        roundUp = vr % 10 >= 5;
+        vr /= 10;
+        vp /= 10;
+        vm /= 10;
+        removed++;
+      }
+      output = vr + (vr == vm || roundUp ? 1 : 0);
+    }
+    return layout(sign, output, e10 + removed, buf);
+  }
+
+  /**
+   * Lays out the number (-1)^sign * digits * 10^exponent as JavaScript does.
+   */
+  private static int layout(boolean sign, long digits, int exponent, char[] buf) {
+    int pos = 0;
+    if (sign) buf[pos++] = '-';
+    int length = decimalLength(digits);
+    int point = exponent + length;  // position of the decimal point from the first digit
+
+    if (length <= point && point <= 21) {
+      /*
+       * Integer: digits followed by zeros.
+       */
+      pos = digits(digits, buf, pos);
+      for (int i = length; i < point; i++) buf[pos++] = '0';
+
+    } else if (0 < point && point <= 21) {
+      /*
+       * Decimal point within the digits.
+       */
+      int end = digits(digits, buf, pos);
+      System.arraycopy(buf, pos + point, buf, pos + point + 1, length - point);
+      buf[pos + point] = '.';
+      pos = end + 1;
+
+    } else if (-6 < point && point <= 0) {
+      /*
+       * Leading zeros: 0.000ddd
+       */
+      buf[pos++] = '0';
+      buf[pos++] = '.';
+      for (int i = point; i < 0; i++) buf[pos++] = '0';
+      pos = digits(digits, buf, pos);
+
+    } else {
+      /*
+       * Scientific notation: d.ddde+x
+       */
+      int end = digits(digits, buf, pos + 1);
+      buf[pos] = buf[pos + 1];
+      if (length > 1) {
+        buf[pos + 1] = '.';
+        pos = end;
+      } else {
+        pos++;
+      }
+      int e = point - 1;
+      buf[pos++] = 'e';
+      buf[pos++] = e < 0 ? '-' : '+';
+      pos = digits(Math.abs(e), buf, pos);
+    }
+    return pos;
+  }
+
+  /**
+   * (m * mul) >> j where mul is a 128-bit number split in [low, high] and
+   * 64 < j < 128.
+   */
+  private static long mulShift(long m, long[] mul, int j) {
+    long high1 = unsignedMultiplyHigh(m, mul[1]);
+    long low1 = m * mul[1];
+    long high0 = unsignedMultiplyHigh(m, mul[0]);
+    long sum = high0 + low1;
+    if (Long.compareUnsigned(sum, high0) < 0) {
+      high1++;
+    }
+    int dist = j - 64;
+    return (high1 << (64 - dist)) | (sum >>> dist);
+  }
+
+  private static long unsignedMultiplyHigh(long a, long b) {
+    return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+  }
+
+  private static boolean multipleOfPowerOf5(long value, int p) {
+    int count = 0;
+    while (value > 0 && value % 5 == 0) {
+      value /= 5;
+      count++;
+    }
+    return count >= p;
+  }
+
+  /**
+   * ceil(log2(5^e)), or 1 when e is 0.
+   */
+  private static int pow5bits(int e) {
+    return ((e * 1217359) >>> 19) + 1;
+  }
+
+  /**
+   * floor(log10(2^e)).
+   */
+  private static int log10Pow2(int e) {
+    return (e * 78913) >>> 18;
+  }
+
+  /**
+   * floor(log10(5^e)).
+   */
+  private static int log10Pow5(int e) {
+    return (e * 732923) >>> 20;
+  }
+
+  private static final int DOUBLE_MANTISSA_BITS = 52;
+  private static final int DOUBLE_BIAS = 1023;
+  private static final int FLOAT_MANTISSA_BITS = 23;
+  private static final int FLOAT_BIAS = 127;
+
+  private static final int POW5_BITCOUNT = 125;
+  private static final int POW5_INV_BITCOUNT = 125;
+
+  /**
+   * BigDecimals with a scale larger than this (in absolute value) are written
+   * in scientific notation instead of plain, to avoid very long outputs.
+   */
+  private static final int MAX_PLAIN_SCALE = 64;
+
+  /**
+   * Characters of the number being written, reused by each thread so that
+   * writing a number allocates nothing; the characters are copied to the output
+   * before the next number is written on the thread.
+   */
+  private static final ThreadLocal<char[]> SCRATCH = ThreadLocal.withInitial(() -> new char[32]);
+
+  /**
+   * 5^i normalized to 125 bits, as [low, high] 64-bit halves.
+   */
+  private static final long[][] POW5_SPLIT = new long[326][];
+
+  /**
+   * floor(2^(bitlength(5^i) - 1 + 125) / 5^i) + 1, as [low, high] 64-bit halves.
+   */
+  private static final long[][] POW5_INV_SPLIT = new long[342][];
+
+  static {
+    BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    BigInteger five = BigInteger.valueOf(5);
+    for (int i = 0; i < POW5_INV_SPLIT.length; i++) {
+      BigInteger pow = five.pow(i);
+      int length = pow.bitLength();
+      if (i < POW5_SPLIT.length) {
+        BigInteger normalized = length > POW5_BITCOUNT
+                              ? pow.shiftRight(length - POW5_BITCOUNT)
+                              : pow.shiftLeft(POW5_BITCOUNT - length);
+        POW5_SPLIT[i] = new long[]{normalized.and(mask).longValue(),
+                                   normalized.shiftRight(64).longValue()};
+      }
+      BigInteger inverse = BigInteger.ONE.shiftLeft(length - 1 + POW5_INV_BITCOUNT)
+                                         .divide(pow)
+                                         .add(BigInteger.ONE);
+      POW5_INV_SPLIT[i] = new long[]{inverse.and(mask).longValue(),
+                                     inverse.shiftRight(64).longValue()};
+    }
+  }
+}
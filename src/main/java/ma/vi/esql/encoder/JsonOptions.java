@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.encoder.JsonNumbers.NonFinite;
+
+import static ma.vi.esql.encoder.ResultEncoder.*;
+
+/**
+ * Options controlling the encoding of values by {@link JsonResultEncoder},
+ * read once per encode call from its parameters.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class JsonOptions {
+  private JsonOptions(boolean            rawJson,
+                      boolean            validateJson,
+                      boolean            binaryAsBase64,
+                      long               maxLobSize,
+                      NonFinite          nonFinite,
+                      boolean            sortKeys,
+                      AttributeSelection selection,
+                      boolean            memoize) {
+    this.rawJson = rawJson;
+    this.validateJson = validateJson;
+    this.binaryAsBase64 = binaryAsBase64;
+    this.maxLobSize = maxLobSize;
+    this.nonFinite = nonFinite;
+    this.sortKeys = sortKeys;
+    this.selection = selection;
+    this.memoize = memoize;
+  }
+
+  static JsonOptions of(Configuration params) {
+    return new JsonOptions(params.get(RAW_JSON, true),
+                           params.get(VALIDATE_JSON, true),
+                           !params.get(BINARY, BINARY_BASE64).equals(BINARY_ARRAY),
+                           params.get(MAX_LOB_SIZE, NO_LIMIT).longValue(),
+                           nonFinite(params.get(NON_FINITE, NonFinite.NULL)),
+                           params.get(SORT_ATTRIBUTES, false),
+                           null,
+                           false);
+  }
+
+  /**
+   * Options for encoding the attributes of results, relations and columns in
+   * their headers: the defaults, apart from the ordering of keys, the encoding
+   * of NaN and infinite numbers (as in rows) and the selection of attributes and
+   * of their language, memoizing the evaluation and translation of the
+   * expressions of the attributes.
+   */
+  static JsonOptions header(Configuration params) {
+    boolean sortKeys = params.get(SORT_ATTRIBUTES, false);
+    NonFinite nonFinite = nonFinite(params.get(NON_FINITE, NonFinite.NULL));
+    AttributeSelection selection = AttributeSelection.of(params);
+    return selection != null
+        || nonFinite != NonFinite.NULL ? new JsonOptions(true, true, true, -1, nonFinite, sortKeys, selection, true)
+         : sortKeys                    ? SORTED_HEADER
+         :                               HEADER;
+  }
+
+  /**
+   * Options for encoding the metadata of rows: these (header) options, without
+   * memoizing expressions, as the metadata values are computed for each row.
+   */
+  JsonOptions rowMetadata() {
+    return !memoize ? this
+         : new JsonOptions(rawJson, validateJson, binaryAsBase64, maxLobSize,
+                           nonFinite, sortKeys, selection, false);
+  }
+
+  /**
+   * Whether the attribute is to be encoded.
+   */
+  boolean includes(String attribute) {
+    return selection == null || selection.includes(attribute);
+  }
+
+  private static NonFinite nonFinite(Object policy) {
+    return policy instanceof NonFinite n
+         ? n
+         : NonFinite.valueOf(policy.toString().trim().toUpperCase());
+  }
+
+  /**
+   * Copy the text of JSON columns as is.
+   */
+  final boolean rawJson;
+
+  /**
+   * Check that the text of JSON columns is well-formed before copying it.
+   */
+  final boolean validateJson;
+
+  /**
+   * Encode binary values as base64 strings (true) or arrays of numbers (false).
+   */
+  final boolean binaryAsBase64;
+
+  /**
+   * Maximum size in bytes (for binary values) or characters (for text objects)
+   * of a single row value; -1 for no limit.
+   */
+  final long maxLobSize;
+
+  /**
+   * How NaN and infinite numbers are encoded.
+   */
+  final NonFinite nonFinite;
+
+  /**
+   * Write the keys of objects (maps and JSON objects) in sorted order.
+   */
+  final boolean sortKeys;
+
+  /**
+   * The attributes to encode and the language of their multi-language values;
+   * null to encode all attributes as they are.
+   */
+  final AttributeSelection selection;
+
+  /**
+   * Memoize the evaluation of literals and the translation of expressions in
+   * values per target ({@link TranslationCache}). Only set for the attributes
+   * of relations and columns, whose expressions are constants of structures
+   * encoded repeatedly; the expressions of other values are not kept.
+   */
+  final boolean memoize;
+
+  private static final Number NO_LIMIT = -1L;
+
+  static final JsonOptions DEFAULT = new JsonOptions(true, true, true, -1, NonFinite.NULL, false, null, false);
+
+  private static final JsonOptions HEADER = new JsonOptions(true, true, true, -1, NonFinite.NULL, false, null, true);
+
+  private static final JsonOptions SORTED_HEADER = new JsonOptions(true, true, true, -1, NonFinite.NULL, true, null, true);
+}
@@ -0,0 +1,730 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Decodes results encoded by {@link JsonResultEncoder}, incrementally. The
+ * members of the result object before its rows (<code>$s</code>, <code>$m</code>
+ * and <code>columns</code>) are read when decoding starts; the rows are then read
+ * one at a time into a buffer where only the boundaries of their values are
+ * found, each value being decoded when it is requested. The buffer only holds the
+ * current row (and whatever has been read ahead of it), so results of any size
+ * are decoded in constant memory.
+ *
+ * <p>Results encoded with {@link ResultEncoder#ROWS_ONLY} (a JSON array of rows)
+ * are also decoded, with an empty header.</p>
+ *
+ * <p>Rows encoded sparsely (with {@link ResultEncoder#SPARSE_ROWS}) are expanded
+ * to all their values, the values left out being null.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class JsonResultDecoder implements ResultDecoder {
+  @Override
+  public ResultCursor decode(InputStream in, Configuration params) {
+    return new Cursor(in, params.get(BUFFER_SIZE, DEFAULT_BUFFER_SIZE));
+  }
+
+  /**
+   * Cursor reading the rows of a JSON-encoded result from an input stream.
+   */
+  static final class Cursor implements ResultCursor {
+    Cursor(InputStream in, int bufferSize) {
+      this.in = in;
+      this.buf = new byte[Math.max(bufferSize, 64)];
+      try {
+        readHeader();
+      } catch (IOException ioe) {
+        close();
+        throw new RuntimeException(ioe);
+      } catch (RuntimeException e) {
+        close();
+        throw e;
+      }
+    }
+
+    @Override
+    public String structure() {
+      return structure;
+    }
+
+    @Override
+    public JSONObject metadata() {
+      return metadata;
+    }
+
+    @Override
+    public List<String> columns() {
+      return columns;
+    }
+
+    @Override
+    public JSONObject column(String name) {
+      JSONObject column = columnAttributes.optJSONObject(name);
+      return column == null ? new JSONObject() : column;
+    }
+
+    @Override
+    public boolean next() {
+      try {
+        mark = -1;
+        count = 0;
+        if (done) return false;
+        int c = skipWhitespace();
+        if (c == ',') {
+          pos++;
+          c = skipWhitespace();
+        }
+        if (c == ']') {
+          pos++;
+          done = true;
+          return false;
+        }
+        if (c == '{') {
+          readSparseRow();
+          return true;
+        }
+        if (c != '[') throw malformed("expected a row");
+
+        /*
+         * Find the boundaries of the values of the row, relative to its start
+         * (the buffer may be compacted while reading it).
+         */
+        mark = pos++;
+        c = skipWhitespace();
+        if (c == ']') {
+          pos++;
+          return true;
+        }
+        while (true) {
+          skipWhitespace();
+          if (count == starts.length) grow(count + 1);
+          starts[count] = pos - mark;
+          skipValue();
+          ends[count] = pos - mark;
+          count++;
+          c = skipWhitespace();
+          if (c == ',') {
+            pos++;
+          } else if (c == ']') {
+            pos++;
+            return true;
+          } else {
+            throw malformed("expected , or ] after row value");
+          }
+        }
+      } catch (IOException ioe) {
+        throw new RuntimeException(ioe);
+      }
+    }
+
+    /**
+     * Reads a row in its sparse form, an object of the non-null values of the
+     * row by their position (from 0), the other values being null. The row has
+     * as many values as the result has columns or, without a header, up to its
+     * last non-null value.
+     */
+    private void readSparseRow() throws IOException {
+      mark = pos++;
+      count = columns.size();
+      if (count > starts.length) grow(count);
+      Arrays.fill(starts, 0, count, -1);
+      while (true) {
+        int c = skipWhitespace();
+        if (c == '}') {
+          pos++;
+          return;
+        }
+        String name = readName();
+        int index;
+        try {
+          index = Integer.parseInt(name);
+        } catch (NumberFormatException nfe) {
+          throw malformed("expected position of value in sparse row");
+        }
+        if (index < 0) throw malformed("expected position of value in sparse row");
+        if (index >= count) {
+          if (index >= starts.length) grow(index + 1);
+          Arrays.fill(starts, count, index + 1, -1);
+          count = index + 1;
+        }
+        skipWhitespace();
+        starts[index] = pos - mark;
+        skipValue();
+        ends[index] = pos - mark;
+        c = skipWhitespace();
+        if (c == ',') {
+          pos++;
+        } else if (c != '}') {
+          throw malformed("expected , or } after row value");
+        }
+      }
+    }
+
+    /**
+     * Grows the arrays of value boundaries to hold at least size values.
+     */
+    private void grow(int size) {
+      int capacity = Math.max(size, starts.length * 2);
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+    }
+
+    @Override
+    public int size() {
+      return count;
+    }
+
+    @Override
+    public int indexOf(String column) {
+      Integer index = indices.get(column);
+      if (index == null) {
+        throw new IllegalArgumentException("Column " + column + " is not in the result; columns are " + columns);
+      }
+      return index;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+      locate(column);
+      return isNull();
+    }
+
+    @Override
+    public String getString(int column) {
+      locate(column);
+      return isNull()          ? null
+           : buf[start] == '"' ? decodeString(start, end)
+           :                     new String(buf, start, end - start, UTF_8);
+    }
+
+    @Override
+    public long getLong(int column) {
+      locate(column);
+      if (isNull()) return 0;
+      if (buf[start] == '"') return Long.parseLong(decodeString(start, end));
+      long value = parseLong(start, end);
+      return value != NOT_A_LONG ? value : new BigDecimal(ascii(start, end)).longValue();
+    }
+
+    @Override
+    public int getInt(int column) {
+      return (int)getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+      locate(column);
+      if (isNull()) return 0;
+      if (buf[start] == '"') return Double.parseDouble(decodeString(start, end));
+      long value = parseLong(start, end);
+      return value != NOT_A_LONG ? value : Double.parseDouble(ascii(start, end));
+    }
+
+    @Override
+    public boolean getBoolean(int column) {
+      locate(column);
+      return start >= 0
+          && (buf[start] == 't'
+           || (buf[start] == '"' && Boolean.parseBoolean(decodeString(start, end))));
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int column) {
+      locate(column);
+      return isNull()          ? null
+           : buf[start] == '"' ? new BigDecimal(decodeString(start, end))
+           :                     new BigDecimal(ascii(start, end));
+    }
+
+    @Override
+    public Object getObject(int column) {
+      locate(column);
+      if (isNull()) {
+        return null;
+      }
+      byte b = buf[start];
+      if (b == '"') {
+        return decodeString(start, end);
+      } else if (b == 't' || b == 'f') {
+        return b == 't';
+      } else if (b == '{') {
+        return new JSONObject(new String(buf, start, end - start, UTF_8));
+      } else if (b == '[') {
+        return new JSONArray(new String(buf, start, end - start, UTF_8));
+      } else if (b == '-' || (b >= '0' && b <= '9')) {
+        long value = parseLong(start, end);
+        if (value != NOT_A_LONG) return value;
+        String number = ascii(start, end);
+        return number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0
+             ? (Object)Double.parseDouble(number)
+             : new BigInteger(number);
+      } else {
+        return new String(buf, start, end - start, UTF_8);
+      }
+    }
+
+    @Override
+    public String getRaw(int column) {
+      locate(column);
+      return start < 0 ? "null" : new String(buf, start, end - start, UTF_8);
+    }
+
+    @Override
+    public JSONObject getMetadata(int column) {
+      locate(column);
+      if (metadataStart < 0) return null;
+      return new JSONObject(new String(buf, metadataStart, metadataEnd - metadataStart, UTF_8));
+    }
+
+    @Override
+    public void close() {
+      try {
+        in.close();
+      } catch (IOException ioe) {
+        throw new RuntimeException(ioe);
+      }
+    }
+
+    /**
+     * Current size of the read buffer.
+     */
+    int bufferSize() {
+      return buf.length;
+    }
+
+    /**
+     * Reads the members of the result before its rows.
+     */
+    private void readHeader() throws IOException {
+      int c = skipWhitespace();
+      if (c == '[') {
+        /*
+         * Rows only.
+         */
+        pos++;
+        return;
+      } else if (c < 0) {
+        /*
+         * Rows only, without any row.
+         */
+        done = true;
+        return;
+      }
+      if (c != '{') throw malformed("expected a result object or array of rows");
+      pos++;
+      while (true) {
+        c = skipWhitespace();
+        if (c == '}' || c < 0) {
+          done = true;
+          return;
+        }
+        String name = readName();
+        c = skipWhitespace();
+        if (name.equals("rows")) {
+          if (c != '[') throw malformed("expected array of rows");
+          pos++;
+          return;
+        }
+        mark = pos;
+        if (name.equals("columns")) {
+          readColumnNames();
+        } else {
+          skipValue();
+        }
+        switch (name) {
+          case "$s"      -> structure = decodeString(mark, pos);
+          case "$m"      -> metadata = new JSONObject(new String(buf, mark, pos - mark, UTF_8));
+          case "columns" -> columnAttributes = new JSONObject(new String(buf, mark, pos - mark, UTF_8));
+        }
+        mark = -1;
+        if (skipWhitespace() == ',') pos++;
+      }
+    }
+
+    /**
+     * Reads the names of the columns, in order, from the columns object.
+     */
+    private void readColumnNames() throws IOException {
+      if (skipWhitespace() != '{') throw malformed("expected columns object");
+      pos++;
+      List<String> names = new ArrayList<>();
+      while (true) {
+        int c = skipWhitespace();
+        if (c == '}') {
+          pos++;
+          break;
+        } else if (c == ',') {
+          pos++;
+          continue;
+        }
+        String name = readName();
+        skipWhitespace();
+        skipValue();
+        indices.put(name, names.size() + 1);
+        names.add(name);
+      }
+      columns = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Reads a member name and the colon following it.
+     */
+    private String readName() throws IOException {
+      if (skipWhitespace() != '"') throw malformed("expected member name");
+      int nameStart = pos;
+      int previous = mark;
+      if (mark < 0) mark = pos;
+      int offset = nameStart - mark;
+      skipString();
+      nameStart = mark + offset;
+      String name = decodeString(nameStart, pos);
+      if (previous < 0) mark = -1;
+      if (skipWhitespace() != ':') throw malformed("expected :");
+      pos++;
+      return name;
+    }
+
+    /**
+     * Finds the value of the column in the current row, and the value and
+     * metadata within it if it is encoded as {$v: value} or {$v: value, $m:
+     * metadata} (with no other members).
+     */
+    private void locate(int column) {
+      if (mark < 0) {
+        throw new IllegalStateException("No current row");
+      }
+      if (column < 1 || column > count) {
+        throw new IndexOutOfBoundsException("Column " + column + " is not in the current row of " + count + " values");
+      }
+      metadataStart = -1;
+      if (starts[column - 1] < 0) {
+        /*
+         * Null value left out of a sparse row.
+         */
+        start = end = -1;
+        return;
+      }
+      start = mark + starts[column - 1];
+      end = mark + ends[column - 1];
+      if (buf[start] == '{') {
+        int i = skip(start + 1);
+        if (matches(i, V)) {
+          i = skip(i + V.length);
+          if (buf[i] == ':') {
+            int valueStart = skip(i + 1);
+            int valueEnd = valueEnd(valueStart);
+            int metaStart = -1;
+            int metaEnd = -1;
+            i = skip(valueEnd);
+            if (buf[i] == ',') {
+              i = skip(i + 1);
+              if (matches(i, M)) {
+                i = skip(i + M.length);
+                if (buf[i] == ':') {
+                  metaStart = skip(i + 1);
+                  metaEnd = valueEnd(metaStart);
+                  i = skip(metaEnd);
+                }
+              }
+            }
+            /*
+             * Only {$v: value} and {$v: value, $m: metadata} are unwrapped; any
+             * other object with a $v member is the value itself.
+             */
+            if (i == end - 1 && buf[i] == '}') {
+              metadataStart = metaStart;
+              metadataEnd = metaEnd;
+              start = valueStart;
+              end = valueEnd;
+            }
+          }
+        }
+      }
+    }
+
+    private boolean isNull() {
+      return start < 0
+          || end - start == 4
+          && buf[start] == 'n' && buf[start + 1] == 'u' && buf[start + 2] == 'l' && buf[start + 3] == 'l';
+    }
+
+    private boolean matches(int i, byte[] token) {
+      if (i + token.length > end) return false;
+      for (int j = 0; j < token.length; j++) {
+        if (buf[i + j] != token[j]) return false;
+      }
+      return true;
+    }
+
+    /**
+     * Skips whitespace in the current row, returning the next position.
+     */
+    private int skip(int i) {
+      while (i < end && isWhitespace(buf[i])) i++;
+      return i;
+    }
+
+    /**
+     * End of the value starting at i within the current row.
+     */
+    private int valueEnd(int i) {
+      byte b = buf[i];
+      if (b == '"') {
+        i++;
+        while (buf[i] != '"') i += buf[i] == '\\' ? 2 : 1;
+        return i + 1;
+      } else if (b == '{' || b == '[') {
+        int depth = 0;
+        do {
+          b = buf[i++];
+          if (b == '"') {
+            while (buf[i] != '"') i += buf[i] == '\\' ? 2 : 1;
+            i++;
+          } else if (b == '{' || b == '[') {
+            depth++;
+          } else if (b == '}' || b == ']') {
+            depth--;
+          }
+        } while (depth > 0);
+        return i;
+      } else {
+        while (i < end && !isDelimiter(buf[i])) i++;
+        return i;
+      }
+    }
+
+    /**
+     * Parses an integer without sign or exponent, returning {@link #NOT_A_LONG}
+     * if the text is not one or may overflow.
+     */
+    private long parseLong(int from, int to) {
+      boolean negative = buf[from] == '-';
+      int i = negative ? from + 1 : from;
+      if (i == to || to - i > 18) return NOT_A_LONG;
+      long value = 0;
+      for (; i < to; i++) {
+        int d = buf[i] - '0';
+        if (d < 0 || d > 9) return NOT_A_LONG;
+        value = value * 10 + d;
+      }
+      return negative ? -value : value;
+    }
+
+    private String ascii(int from, int to) {
+      return new String(buf, from, to - from, ISO_8859_1);
+    }
+
+    /**
+     * Decodes the JSON string between from (the opening quote) and to (after
+     * the closing quote).
+     */
+    private String decodeString(int from, int to) {
+      int first = from + 1;
+      int last = to - 1;
+      int escape = first;
+      while (escape < last && buf[escape] != '\\') escape++;
+      if (escape == last) {
+        return new String(buf, first, last - first, UTF_8);
+      }
+      StringBuilder s = new StringBuilder(last - first);
+      int i = first;
+      while (i < last) {
+        if (buf[i] != '\\') {
+          int run = i;
+          while (run < last && buf[run] != '\\') run++;
+          s.append(new String(buf, i, run - i, UTF_8));
+          i = run;
+        } else {
+          byte e = buf[i + 1];
+          switch (e) {
+            case 'b' -> s.append('\b');
+            case 'f' -> s.append('\f');
+            case 'n' -> s.append('\n');
+            case 'r' -> s.append('\r');
+            case 't' -> s.append('\t');
+            case 'u' -> {
+              s.append((char)Integer.parseInt(ascii(i + 2, i + 6), 16));
+              i += 4;
+            }
+            default  -> s.append((char)e);
+          }
+          i += 2;
+        }
+      }
+      return s.toString();
+    }
+
+    /*
+     * Reading from the input
+     * ----------------------
+     */
+
+    /**
+     * Skips a value in the input.
+     */
+    private void skipValue() throws IOException {
+      int c = peek();
+      if (c == '"') {
+        skipString();
+      } else if (c == '{' || c == '[') {
+        int depth = 0;
+        do {
+          c = peek();
+          if (c < 0) throw malformed("unexpected end of input");
+          if (c == '"') {
+            skipString();
+          } else {
+            pos++;
+            if      (c == '{' || c == '[') depth++;
+            else if (c == '}' || c == ']') depth--;
+          }
+        } while (depth > 0);
+      } else if (c < 0) {
+        throw malformed("unexpected end of input");
+      } else {
+        while ((c = peek()) >= 0 && !isDelimiter((byte)c)) pos++;
+      }
+    }
+
+    /**
+     * Skips the string starting at the current position.
+     */
+    private void skipString() throws IOException {
+      pos++;
+      while (true) {
+        if (pos >= limit && !fill()) throw malformed("unterminated string");
+        byte b = buf[pos++];
+        if (b == '"') {
+          return;
+        } else if (b == '\\') {
+          if (pos >= limit && !fill()) throw malformed("unterminated string");
+          pos++;
+        }
+      }
+    }
+
+    private int skipWhitespace() throws IOException {
+      int c;
+      while ((c = peek()) >= 0 && isWhitespace((byte)c)) pos++;
+      return c;
+    }
+
+    private int peek() throws IOException {
+      return pos < limit || fill() ? buf[pos] & 0xFF : -1;
+    }
+
+    /**
+     * Reads more of the input into the buffer, keeping the bytes from the mark
+     * (or the current position if not set) which are moved to the start of the
+     * buffer. The buffer is grown only if these bytes fill it. Returns false at
+     * the end of the input.
+     */
+    private boolean fill() throws IOException {
+      if (eof) return false;
+      int keep = mark >= 0 ? mark : pos;
+      if (keep > 0) {
+        System.arraycopy(buf, keep, buf, 0, limit - keep);
+        limit -= keep;
+        pos -= keep;
+        if (mark >= 0) mark = 0;
+      }
+      if (limit == buf.length) {
+        buf = Arrays.copyOf(buf, buf.length * 2);
+      }
+      int n;
+      do {
+        n = in.read(buf, limit, buf.length - limit);
+      } while (n == 0);
+      if (n < 0) {
+        eof = true;
+        return false;
+      }
+      limit += n;
+      return true;
+    }
+
+    private IllegalArgumentException malformed(String message) {
+      return new IllegalArgumentException("Malformed encoded result: " + message);
+    }
+
+    private static boolean isWhitespace(byte b) {
+      return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isDelimiter(byte b) {
+      return b == ',' || b == ']' || b == '}' || isWhitespace(b);
+    }
+
+    private final InputStream in;
+
+    private byte[] buf;
+
+    /**
+     * Position of the next byte to read, and end of the bytes read, in the buffer.
+     */
+    private int pos, limit;
+
+    /**
+     * Start of the bytes to keep in the buffer when reading more of the input
+     * (the start of the current row), or -1.
+     */
+    private int mark = -1;
+
+    private boolean eof;
+
+    /**
+     * Whether all the rows have been read.
+     */
+    private boolean done;
+
+    /**
+     * Boundaries of the values of the current row, relative to its start; -1
+     * for the null values left out of sparse rows.
+     */
+    private int[] starts = new int[16], ends = new int[16];
+
+    /**
+     * Number of values in the current row.
+     */
+    private int count;
+
+    /**
+     * Boundaries of the value and metadata last located.
+     */
+    private int start, end, metadataStart, metadataEnd;
+
+    private String structure;
+
+    private JSONObject metadata = new JSONObject();
+
+    private JSONObject columnAttributes = new JSONObject();
+
+    private List<String> columns = List.of();
+
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    private static final long NOT_A_LONG = Long.MIN_VALUE;
+
+    private static final byte[] V = "\"$v\"".getBytes(ISO_8859_1);
+
+    private static final byte[] M = "\"$m\"".getBytes(ISO_8859_1);
+  }
+
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+}
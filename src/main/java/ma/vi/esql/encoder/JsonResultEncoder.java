@@ -23,9 +23,13 @@ import org.json.JSONObject;
 import org.pcollections.HashPMap;
 import org.pcollections.IntTreePMap;
 
-import java.io.IOException;
-import java.io.Writer;
+import java.io.*;
 import java.lang.reflect.Array;
+import java.nio.CharBuffer;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -34,16 +38,16 @@ import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.stream.Collectors;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.util.Collections.emptyList;
-import static java.util.Collections.emptyMap;
 import static ma.vi.esql.builder.Attributes.TYPE;
 import static ma.vi.esql.database.Database.NULL_DB;
 import static ma.vi.esql.database.EsqlConnection.NULL_CONNECTION;
+import static ma.vi.esql.encoder.EncodeCancelledException.Reason.WRITE_FAILED;
 import static ma.vi.esql.translation.Translatable.Target;
 import static ma.vi.esql.translation.Translatable.Target.ESQL;
 import static ma.vi.esql.translation.Translatable.Target.JAVASCRIPT;
 import static org.apache.commons.lang3.StringUtils.repeat;
-import static org.json.JSONObject.quote;
 
 /**
  * Encodes a result as JSON in the following format and send through the provided
@@ -93,6 +97,37 @@ import static org.json.JSONObject.quote;
  *   ]
  * </pre>
  *
+ * With the {@link ResultEncoder#KNOWN_STRUCTURES} parameter, the result starts
+ * with the fingerprint of its header, <code>$s</code>, and the header (<code>$m</code>
+ * and <code>columns</code>) is omitted if the client already has it:
+ *
+ * <pre>
+ *   {$s: "pX3a0Yb1xkOb9_NFXtqXoQ", rows: [...]}
+ * </pre>
+ *
+ * With the {@link ResultEncoder#GROUP_BY} parameter, the parent columns come
+ * first in <code>columns</code>, <code>$g</code> is their number, and each row
+ * holds the values of the parent columns followed by the array of its children,
+ * each an array of the values of the other columns. E.g., grouping by
+ * <code>_id</code> with <code>name</code> as the other parent column:
+ *
+ * <pre>
+ *   $g: 2,
+ *   rows: [
+ *     [id1, "First", [[1, "x"], [2, "y"]]],
+ *     [id2, "Second", []]
+ *   ]
+ * </pre>
+ *
+ * Rows with a null child key (see {@link ResultEncoder#GROUP_CHILD_KEY}), such
+ * as the rows of parents without children in outer joins, do not add children.
+ *
+ * <p>With the {@link ResultEncoder#SPARSE_ROWS} parameter, rows with a ratio
+ * of null values above it are written as an object of their non-null values by
+ * their position in the row (from 0), e.g. <code>{"0": 1, "7": "abc"}</code>
+ * for a row with nulls in the other columns. Such rows are expanded back to all
+ * their values by {@link JsonResultDecoder}.</p>
+ *
  * @author Vikash Madhow (vikash.madhow@gmail.com)
  */
 public class JsonResultEncoder implements ResultEncoder {
@@ -100,163 +135,473 @@ public class JsonResultEncoder implements ResultEncoder {
   public void encode(Result        rs,
                      Writer        out,
                      Configuration params) {
+    SinkWriter sink = new SinkWriter(out);
+    out = sink;
+    EncodeStats stats = EncoderMetrics.start(this, "result", params);
+    if (stats != null) out = stats.meter(out);
+    EncodeCancellation cancellation = EncodeCancellation.of(params);
+    EncodeDigest digest = params.get(DIGEST, null);
+    EncodeDigest.DigestWriter hashed = digest == null ? null : digest.start(out);
+    if (hashed != null) out = hashed;
+    long emitted = 0;
     try {
+      long phase = stats != null && stats.sampled ? System.nanoTime() : 0;
       int indent = params.get(INDENT, 2);
+      JsonOptions options = JsonOptions.of(params);
+      JsonOptions headerOptions = JsonOptions.header(params);
+      JsonOptions metadataOptions = headerOptions.rowMetadata();
       boolean rowsOnly = params.get(ROWS_ONLY, false);
       boolean outputStructure = !rowsOnly;
       boolean outputRows = !params.get(STRUCTURE_ONLY, false);
+      Projection projection = Projection.of(rs, params);
+      Grouping grouping = Grouping.of(rs, projection, params);
+      if (grouping != null) projection = grouping.projection;
 
       if (!rowsOnly) out.write("{\n");
       boolean hasPrevious = false;
       List<ColumnMapping> columns = rs.columns();
       if (outputStructure) {
-        Map<String, Object> attributes = new HashMap<>(rs.query.resultAttributes() != null
-                                                     ? rs.query.resultAttributes()
-                                                     : emptyMap());
-        if (!attributes.containsKey(TYPE)
-         && rs.query.query() != null) {
-          SingleTableExpr table = rs.query.query().tables() != null
-                                ? rs.query.query().tables().find(SingleTableExpr.class)
-                                : null;
-          if (table != null) attributes.put(TYPE, table.tableName());
-        }
-        if (!attributes.isEmpty()) {
+        Object known = params.get(KNOWN_STRUCTURES, null);
+        if (known == null) {
+          hasPrevious = writeHeader(rs, projection, indent, headerOptions, out);
+        } else {
           /*
-           * Output result metadata. E.g.:
-           *    $m: {
-           *      type: "a.A",
-           *      unique: [["_id"], ["a", "b"]]
-           *    }
+           * Identify the header by its fingerprint, omitting it if the client
+           * already has it.
            */
-          out.write("\"$m\":{\n");
-          boolean first = true;
-          for (Map.Entry<String, Object> a: attributes.entrySet()) {
-            if (first) first = false;
-            else       out.write(",\n");
-            out.write(repeat(' ', indent)
-                    + '"' + a.getKey() + "\":"
-                    + toJson(a.getValue(), indent));
+          try (EncodeBuffer header = EncodeBufferPool.acquire(EncodeBufferPool.estimate(null, projection.size()))) {
+            boolean hasHeader = writeHeader(rs, projection, indent, headerOptions, header);
+            String fingerprint = Structures.register(header);
+            out.write("\"$s\":\"" + fingerprint + '"');
+            if (hasHeader && !Structures.isKnown(fingerprint, known)) {
+              out.write(",\n");
+              header.writeTo(out);
+            }
           }
-          out.write("\n}");
           hasPrevious = true;
         }
-
-        columns = columns == null ? emptyList() : columns;
-        if (!columns.isEmpty()) {
+        if (grouping != null) {
           /*
-           * columns in their loaded order (the same order that the rows are
-           * outputted) along with their base metadata. E.g:
-           *    columns: {
-           *      _id: {
-           *        type: "uuid",
-           *        required: false,
-           *        readonly: true,
-           *        label: "Id"
-           *      },
-           *  ...
+           * Number of parent columns in grouped rows.
            */
           if (hasPrevious) out.write(",\n");
-          out.write("\"columns\":{");
-          boolean first = true;
-          for (ColumnMapping c: columns) {
+          out.write("\"$g\":" + grouping.parents);
+          hasPrevious = true;
+        }
+      }
+      if (phase != 0) {
+        long now = System.nanoTime();
+        stats.headerNanos = now - phase;
+        phase = now;
+      }
+
+      if (outputRows) {
+        boolean first = true;
+        int columnCount = projection.size();
+        if (stats != null) stats.columns = columnCount;
+
+        /*
+         * Text values of JSON columns are copied as is (when well-formed) instead
+         * of being quoted.
+         */
+        boolean[] rawJson = new boolean[columnCount];
+        if (options.rawJson && columns != null) {
+          for (int i = 0; i < columnCount; i++) {
+            rawJson[i] = isJson(columns.get(projection.column(i) - 1));
+          }
+        }
+
+        int checkInterval = Math.max(1, params.get(CANCELLATION_CHECK_INTERVAL, 64));
+        Object[] key = grouping == null ? null : new Object[grouping.keys];
+
+        /*
+         * Cells of the current row, read before writing it to choose between
+         * the dense and sparse forms.
+         */
+        Number sparse = params.get(SPARSE_ROWS, null);
+        double sparseRatio = sparse == null ? 1 : sparse.doubleValue();
+        ResultColumn<?>[] cells = sparse != null && grouping == null ? new ResultColumn<?>[columnCount] : null;
+        boolean hasChildren = false;
+        for (;;) {
+          /*
+           * Check for cancellation before fetching every few rows, so that no
+           * more rows are fetched once cancelled.
+           */
+          if (cancellation != null && emitted % checkInterval == 0) cancellation.check(emitted);
+          if (!rs.toNext()) break;
+          if (stats != null) stats.rows++;
+          boolean newRow = grouping == null || grouping.startsGroup(rs, key, first);
+          if (newRow) {
             if (first) {
-              out.write("\n");
+              if (hasPrevious) out.write(",\n");
+              if (!rowsOnly)   out.write("\"rows\":");
+              out.write("[\n");
               first = false;
             } else {
+              if (grouping != null) out.write("]]");
               out.write(",\n");
             }
-            out.write(repeat(' ', indent)
-                    + '"' + c.column().name() + "\":{\n");
-
-            if (c.attributes() != null
-            && !c.attributes().isEmpty()) {
-              boolean firstIndex = true;
-              for (Map.Entry<String, Object> e: c.attributes().entrySet()) {
-                if (!e.getKey().equals("_id")) {
-                  if (firstIndex) firstIndex = false;
-                  else            out.write(",\n");
-                  out.write(repeat(' ', indent * 2)
-                          + '"' + e.getKey() + "\":" + toJson(e.getValue(), indent));
-                }
-              }
+            out.write(repeat(' ', indent));
+          }
+          if (grouping == null) {
+            if (cells == null) {
+              out.write('[');
+              writeCells(rs, 0, columnCount, projection, rawJson, options, metadataOptions, stats, indent, out);
+              out.write(']');
+            } else {
+              writeRow(rs, cells, sparseRatio, projection, rawJson, options, metadataOptions, stats, indent, out);
+            }
+          } else {
+            /*
+             * Parent columns once per group, followed by the array of children,
+             * to which each row of the group with a child is added.
+             */
+            if (newRow) {
+              out.write('[');
+              writeCells(rs, 0, grouping.parents, projection, rawJson, options, metadataOptions, stats, indent, out);
+              out.write(", [");
+              hasChildren = false;
+            }
+            if (!grouping.childless(rs)) {
+              if (hasChildren) out.write(", ");
+              out.write('[');
+              writeCells(rs, grouping.parents, columnCount, projection, rawJson, options, metadataOptions, stats, indent, out);
+              out.write(']');
+              hasChildren = true;
             }
-            out.write('\n' + repeat(' ', indent) + "}");
           }
-          out.write("\n}");
+          emitted++;
+        }
+        if (!first) {
+          if (grouping != null) out.write("]]");
+          out.write("\n]\n");
           hasPrevious = true;
         }
       }
+      if (phase != 0) stats.rowsNanos = System.nanoTime() - phase;
+      if (!rowsOnly) {
+        if (hashed != null && params.get(DIGEST_TRAILER, false)) {
+          /*
+           * Trailer holding the hash of the output preceding it.
+           */
+          hashed.finish();
+          if (hasPrevious) out.write(",\n");
+          out.write("\"$h\":\"" + digest.hash() + "\"\n");
+        }
+        out.write("}");
+      }
+      if (hashed != null) hashed.finish();
+      out.flush();
+    } catch (EncodeCancelledException e) {
+      release(rs, e);
+      throw e;
+    } catch (IOException ioe) {
+      if (ioe != sink.failure) {
+        /*
+         * Failure reading a value (such as a blob or clob), not the output.
+         */
+        throw new RuntimeException(ioe);
+      }
+      /*
+       * The output can't be written to (e.g. the client has disconnected):
+       * stop reading the result as when cancelled.
+       */
+      EncodeCancelledException e = new EncodeCancelledException(emitted, WRITE_FAILED, ioe);
+      release(rs, e);
+      throw e;
+    } finally {
+      if (hashed != null) hashed.discard();
+      if (stats != null) EncoderMetrics.finish(stats);
+    }
+  }
+
+  /**
+   * Writes the values, from the position from (inclusive) to the position to
+   * (exclusive) in the projection, of the columns of the current row of the
+   * result, separated by commas.
+   */
+  private static void writeCells(Result      rs,
+                                 int         from,
+                                 int         to,
+                                 Projection  projection,
+                                 boolean[]   rawJson,
+                                 JsonOptions options,
+                                 JsonOptions metadataOptions,
+                                 EncodeStats stats,
+                                 int         indent,
+                                 Writer      out) throws IOException {
+    List<ColumnMapping> columns = rs.columns();
+    for (int i = from; i < to; i++) {
+      if (i > from) out.write(", ");
+      int c = projection.column(i);
+      ResultColumn<?> col = rs.get(c);
+      if (stats != null) stats.count(col.value());
+      writeCell(col, columns.get(c-1), i, projection, rawJson[i], options, metadataOptions, indent, out);
+    }
+  }
+
+  /**
+   * Writes the current row of the result in its dense form, an array of all
+   * its values, or, if the ratio of its null values (without metadata) to its
+   * values exceeds the sparse ratio, in its sparse form, an object of its other
+   * values by their position in the row (from 0). E.g.:
+   * <pre>
+   *   {"0": 1, "7": "abc"}
+   * </pre>
+   * @param cells Array to read the columns of the row in.
+   */
+  private static void writeRow(Result            rs,
+                               ResultColumn<?>[] cells,
+                               double            sparseRatio,
+                               Projection        projection,
+                               boolean[]         rawJson,
+                               JsonOptions       options,
+                               JsonOptions       metadataOptions,
+                               EncodeStats       stats,
+                               int               indent,
+                               Writer            out) throws IOException {
+    List<ColumnMapping> columns = rs.columns();
+    int empty = 0;
+    for (int i = 0; i < cells.length; i++) {
+      ResultColumn<?> col = rs.get(projection.column(i));
+      cells[i] = col;
+      if (stats != null) stats.count(col.value());
+      if (isEmpty(col, columns.get(projection.column(i) - 1))) empty++;
+    }
+    boolean sparse = empty > sparseRatio * cells.length;
+    out.write(sparse ? '{' : '[');
+    boolean first = true;
+    for (int i = 0; i < cells.length; i++) {
+      ColumnMapping colMap = columns.get(projection.column(i) - 1);
+      if (!sparse || !isEmpty(cells[i], colMap)) {
+        if (first) first = false;
+        else       out.write(", ");
+        if (sparse) out.write("\"" + i + "\":");
+        writeCell(cells[i], colMap, i, projection, rawJson[i], options, metadataOptions, indent, out);
+      }
+      cells[i] = null;
+    }
+    out.write(sparse ? '}' : ']');
+  }
 
-      if (outputRows) {
-        boolean first = true;
-        int columnCount = rs.columnsCount();
-        while (rs.toNext()) {
-          if (first) {
-            if (hasPrevious) out.write(",\n");
-            if (!rowsOnly)   out.write("\"rows\":");
-            out.write("[\n");
-            first = false;
-          } else {
-            out.write(",\n");
-          }
-          out.write(repeat(' ', indent) + '[');
-          for (int c = 1; c <= columnCount; c++) {
-            if (c > 1) out.write(", ");
-            ResultColumn<?> col = rs.get(c);
-            ColumnMapping colMap = columns.get(c-1);
-            if (colMap.attributeIndices().isEmpty()) {
-              /*
-               * No computed metadata: output row value only.
-               */
-              out.write(toJson(col.value(), indent));
-            } else {
-              /*
-               * Only output metadata not already included in column header.
-               */
-              Set<String> keys = col.metadata().keySet().stream()
-                                    .filter(k -> !colMap.attributes().containsKey(k))
-                                    .collect(Collectors.toSet());
-              if (keys.isEmpty()) {
-                out.write(toJson(col.value(), indent));
-
-              } else {
-                out.write("{\"$v\":" + toJson(col.value(), indent)
-                        + ", \"$m\":{"
-                        + keys.stream()
-                              .map(k -> '"' + k + "\":"
-                                      + toJson(col.metadata().get(k), indent))
-                              .collect(Collectors.joining(", "))
-                        + "}}");
-              }
+  /**
+   * Whether the cell is written as null: a null value without metadata.
+   */
+  private static boolean isEmpty(ResultColumn<?> col, ColumnMapping colMap) {
+    return col.value() == null
+        && colMap.attributeIndices().isEmpty();
+  }
+
+  /**
+   * Writes the value of a column of the current row, with its metadata not
+   * already in the header, if any, as {$v: value, $m: metadata}.
+   * @param position Position of the column in the projection.
+   */
+  private static void writeCell(ResultColumn<?> col,
+                                ColumnMapping   colMap,
+                                int             position,
+                                Projection      projection,
+                                boolean         rawJson,
+                                JsonOptions     options,
+                                JsonOptions     metadataOptions,
+                                int             indent,
+                                Writer          out) throws IOException {
+    if (colMap.attributeIndices().isEmpty()) {
+      /*
+       * No computed metadata: output row value only.
+       */
+      writeValue(col.value(), rawJson, options, indent, out);
+    } else {
+      /*
+       * Only output metadata not already included in column header.
+       */
+      Set<String> keys = col.metadata().keySet().stream()
+                            .filter(k -> !colMap.attributes().containsKey(k)
+                                      && projection.includes(position, k)
+                                      && metadataOptions.includes(k))
+                            .collect(Collectors.toSet());
+      if (options.sortKeys) keys = new TreeSet<>(keys);
+      if (keys.isEmpty()) {
+        writeValue(col.value(), rawJson, options, indent, out);
+
+      } else {
+        out.write("{\"$v\":");
+        writeValue(col.value(), rawJson, options, indent, out);
+        out.write(", \"$m\":{");
+        boolean firstKey = true;
+        for (String k: keys) {
+          if (firstKey) firstKey = false;
+          else          out.write(", ");
+          out.write('"' + k + "\":");
+          write(col.metadata().get(k), indent, JAVASCRIPT, metadataOptions, out);
+        }
+        out.write("}}");
+      }
+    }
+  }
+
+  /**
+   * Closes a result whose encoding was stopped before its end.
+   */
+  private static void release(Result rs, EncodeCancelledException cancelled) {
+    try {
+      rs.close();
+    } catch (RuntimeException e) {
+      cancelled.addSuppressed(e);
+    }
+  }
+
+  /**
+   * The entries of the map, ordered by key when sorting (for a deterministic
+   * output), or else in the iteration order of the map.
+   */
+  private static <K, V> Iterable<Map.Entry<K, V>> entries(Map<K, V> map, boolean sorted) {
+    if (!sorted || map instanceof SortedMap<?, ?>) {
+      return map.entrySet();
+    }
+    List<Map.Entry<K, V>> entries = new ArrayList<>(map.entrySet());
+    entries.sort(Comparator.comparing(e -> String.valueOf(e.getKey())));
+    return entries;
+  }
+
+  /**
+   * Writes the header of the result (its metadata and columns), returning true
+   * if anything was written.
+   */
+  private static boolean writeHeader(Result      rs,
+                                     Projection  projection,
+                                     int         indent,
+                                     JsonOptions options,
+                                     Writer      out) throws IOException {
+    boolean hasPrevious = false;
+    List<ColumnMapping> columns = rs.columns();
+    Map<String, Object> attributes = options.sortKeys ? new TreeMap<>() : new HashMap<>();
+    if (rs.query.resultAttributes() != null) {
+      attributes.putAll(rs.query.resultAttributes());
+    }
+    if (!attributes.containsKey(TYPE)
+     && rs.query.query() != null) {
+      SingleTableExpr table = rs.query.query().tables() != null
+                            ? rs.query.query().tables().find(SingleTableExpr.class)
+                            : null;
+      if (table != null) attributes.put(TYPE, table.tableName());
+    }
+    attributes.keySet().removeIf(a -> !options.includes(a));
+    if (!attributes.isEmpty()) {
+      /*
+       * Output result metadata. E.g.:
+       *    $m: {
+       *      type: "a.A",
+       *      unique: [["_id"], ["a", "b"]]
+       *    }
+       */
+      out.write("\"$m\":{\n");
+      boolean first = true;
+      for (Map.Entry<String, Object> a: attributes.entrySet()) {
+        if (first) first = false;
+        else       out.write(",\n");
+        out.write(repeat(' ', indent)
+                + '"' + a.getKey() + "\":"
+                + toJson(a.getValue(), indent, JAVASCRIPT, options));
+      }
+      out.write("\n}");
+      hasPrevious = true;
+    }
+
+    columns = columns == null ? emptyList() : columns;
+    if (!columns.isEmpty() && projection.size() > 0) {
+      /*
+       * columns in their loaded order (the same order that the rows are
+       * outputted) along with their base metadata. E.g:
+       *    columns: {
+       *      _id: {
+       *        type: "uuid",
+       *        required: false,
+       *        readonly: true,
+       *        label: "Id"
+       *      },
+       *  ...
+       */
+      if (hasPrevious) out.write(",\n");
+      out.write("\"columns\":{");
+      boolean first = true;
+      for (int i = 0; i < projection.size(); i++) {
+        ColumnMapping c = columns.get(projection.column(i) - 1);
+        if (first) {
+          out.write("\n");
+          first = false;
+        } else {
+          out.write(",\n");
+        }
+        out.write(repeat(' ', indent)
+                + '"' + c.column().name() + "\":{\n");
+
+        if (c.attributes() != null
+        && !c.attributes().isEmpty()) {
+          boolean firstIndex = true;
+          for (Map.Entry<String, Object> e: entries(c.attributes(), options.sortKeys)) {
+            if (!e.getKey().equals("_id")
+             && projection.includes(i, e.getKey())
+             && options.includes(e.getKey())) {
+              if (firstIndex) firstIndex = false;
+              else            out.write(",\n");
+              out.write(repeat(' ', indent * 2)
+                      + '"' + e.getKey() + "\":" + toJson(e.getValue(), indent, JAVASCRIPT, options));
             }
           }
-          out.write(']');
         }
-        if (!first) out.write("\n]\n");
+        out.write('\n' + repeat(' ', indent) + "}");
       }
-      if (!rowsOnly) out.write("}");
-      out.flush();
-    } catch (IOException ioe) {
-      throw new RuntimeException(ioe);
+      out.write("\n}");
+      hasPrevious = true;
     }
+    return hasPrevious;
+  }
+
+  /**
+   * A batch of results is encoded as a JSON array of the encoded results.
+   */
+  @Override
+  public void beginBatch(int size, Writer out, Configuration params) throws IOException {
+    out.write("[\n");
+  }
+
+  @Override
+  public void separateBatch(Writer out, Configuration params) throws IOException {
+    out.write(",\n");
+  }
+
+  @Override
+  public void endBatch(Writer out, Configuration params) throws IOException {
+    out.write("\n]");
   }
 
   @Override
   public void encode(Relation      relation,
                      Writer        out,
                      Configuration params) {
+    EncodeStats stats = EncoderMetrics.start(this, "relation", params);
+    if (stats != null) out = stats.meter(out);
+    EncodeDigest digest = params.get(DIGEST, null);
+    EncodeDigest.DigestWriter hashed = digest == null ? null : digest.start(out);
+    if (hashed != null) out = hashed;
     try {
+      long phase = stats != null && stats.sampled ? System.nanoTime() : 0;
       int indent = params.get(INDENT, 2);
       Target target = params.get(TARGET, JAVASCRIPT);
+      JsonOptions options = JsonOptions.header(params);
+      boolean sortKeys = options.sortKeys;
 
       out.write("{\n");
       List<T2<Relation, Column>> columns = relation.columns();
-      Map<String, Attribute> attributes = new HashMap<>(relation.attributes() != null
-                                                      ? relation.attributes()
-                                                      : emptyMap());
+      Map<String, Attribute> attributes = sortKeys ? new TreeMap<>() : new HashMap<>();
+      if (relation.attributes() != null) {
+        attributes.putAll(relation.attributes());
+      }
       if (!attributes.containsKey(TYPE)) {
         attributes.put(TYPE, Attribute.from(null, TYPE, relation.name()));
       }
+      attributes.keySet().removeIf(a -> !options.includes(a));
       /*
        * Output relation metadata. E.g.:
        *    $m: {
@@ -271,11 +616,12 @@ public class JsonResultEncoder implements ResultEncoder {
         else       out.write(",\n");
         out.write(repeat(' ', indent));
         out.write('"' + a.getKey() + "\":");
-        out.write(toJson(a.getValue().attributeValue(), indent, target));
+        out.write(toJson(a.getValue().attributeValue(), indent, target, options));
       }
       out.write("\n}");
 
       columns = columns == null ? emptyList() : columns;
+      if (stats != null) stats.columns = columns.size();
       if (!columns.isEmpty()) {
         /*
          * columns in their loaded order (the same order that the rows are
@@ -307,7 +653,7 @@ public class JsonResultEncoder implements ResultEncoder {
             if (c.derived()) {
               out.write('\n' + repeat(' ', indent * 2));
               out.write("\"derived_expression\": ");
-              out.write(toJson(c.expression(), 0, target));
+              out.write(toJson(c.expression(), 0, target, options));
               firstIndex = false;
             }
 
@@ -315,12 +661,13 @@ public class JsonResultEncoder implements ResultEncoder {
             &&  c.metadata().attributes() != null
             && !c.metadata().attributes().isEmpty()) {
               if (firstIndex) out.write('\n');
-              for (Attribute a: c.metadata().attributes().values()) {
-                if (!a.name().equals("_id")) {
+              for (Map.Entry<String, Attribute> e: entries(c.metadata().attributes(), sortKeys)) {
+                Attribute a = e.getValue();
+                if (!a.name().equals("_id") && options.includes(a.name())) {
                   if (firstIndex) firstIndex = false;
                   else            out.write(",\n");
                   out.write(repeat(' ', indent * 2)
-                          + '"' + a.name() + "\":" + toJson(a.attributeValue(), indent, target));
+                          + '"' + a.name() + "\":" + toJson(a.attributeValue(), indent, target, options));
                 }
               }
               out.write('\n' + repeat(' ', indent));
@@ -331,12 +678,47 @@ public class JsonResultEncoder implements ResultEncoder {
         out.write("\n}");
       }
       out.write("}");
+      if (phase != 0) stats.headerNanos = System.nanoTime() - phase;
+      if (hashed != null) hashed.finish();
       out.flush();
     } catch (IOException ioe) {
       throw new RuntimeException(ioe);
+    } finally {
+      if (hashed != null) hashed.discard();
+      if (stats != null) EncoderMetrics.finish(stats);
+    }
+  }
+
+  /**
+   * Writes a row value, copying the text of JSON columns as is when well-formed.
+   */
+  private static void writeValue(Object      value,
+                                 boolean     json,
+                                 JsonOptions options,
+                                 int         indent,
+                                 Writer      out) throws IOException {
+    if (json
+     && value instanceof String text
+     && (!options.validateJson || JsonValidator.isValid(text))) {
+      out.write(text);
+    } else {
+      write(value, indent, JAVASCRIPT, options, out);
     }
   }
 
+  /**
+   * Whether the column holds JSON values, from its type attribute.
+   */
+  private static boolean isJson(ColumnMapping column) {
+    Object type = column.attributes() != null ? column.attributes().get(TYPE) : null;
+    if (type instanceof Literal<?> || type instanceof Expression<?,?>) {
+      type = translate(type, ESQL, true);
+    }
+    return type != null
+        && (type.toString().equalsIgnoreCase("json")
+         || type.toString().equalsIgnoreCase("jsonb"));
+  }
+
   /**
    * Encode the (database) value as a JSON value.
    * @param value The value to encode.
@@ -345,121 +727,485 @@ public class JsonResultEncoder implements ResultEncoder {
    * @return The encoded value.
    */
   public static String toJson(Object value, int indent, Target target) {
-    if (value instanceof Literal<?> l) {
-      if (value instanceof UncomputedExpression u) {
-        try                { value = u.translate(target); }
-        catch(Exception x) { value = u.translate(ESQL);   }
+    return toJson(value, indent, target, JsonOptions.DEFAULT);
+  }
+
+  private static String toJson(Object value, int indent, Target target, JsonOptions options) {
+    StringBuilder st = new StringBuilder();
+    try {
+      write(value, indent, target, options, st);
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+    return st.toString();
+  }
+
+  /**
+   * Encode the (database) value as a JSON value, writing it to the output as it
+   * is produced, without building intermediate strings for collections and arrays.
+   * @param value The value to encode.
+   * @param indent The number of spaces to use for indentation of JSON elements
+   *               in the encoded output.
+   * @param target The target to translate expressions to.
+   * @param out The output to write the encoded value to.
+   */
+  public static void toJson(Object     value,
+                            int        indent,
+                            Target     target,
+                            Appendable out) throws IOException {
+    write(value, indent, target, JsonOptions.DEFAULT, out);
+  }
+
+  /**
+   * Encodes the value as JSON, applying the options of the current encode call.
+   */
+  static void write(Object      value,
+                    int         indent,
+                    Target      target,
+                    JsonOptions options,
+                    Appendable  out) throws IOException {
+    if (value instanceof Literal<?>
+     || value instanceof Expression<?,?>) {
+      EncodeStats stats = EncoderMetrics.sampling();
+      if (stats != null) {
+        long start = System.nanoTime();
+        value = translate(value, target, options.memoize);
+        stats.translationNanos += System.nanoTime() - start;
       } else {
-        try {
-          value = l.exec(target,
-                         NULL_CONNECTION,
-                         new EsqlPath(l),
-                         HashPMap.empty(IntTreePMap.empty()),
-                         NULL_DB.structure());
-        } catch(Exception x) {
-          value = l.exec(ESQL,
-                         NULL_CONNECTION,
-                         new EsqlPath(l),
-                         HashPMap.empty(IntTreePMap.empty()),
-                         NULL_DB.structure());
-        }
+        value = translate(value, target, options.memoize);
       }
-    } else if (value instanceof Expression<?,?> e) {
-      try                { value = "$(" + e.translate(target) + ')'; }
-      catch(Exception x) { value = "$(" + e.translate(ESQL) + ')';   }
+    }
+    if (options.selection != null) {
+      value = options.selection.localize(value);
     }
 
     if (value == null) {
-      return "null";
+      out.append("null");
 
     } else if (value instanceof String str) {
-      return quote(str);
+      JsonStrings.quote(str, out);
 
-    } else if (value instanceof Number
-            || value instanceof Boolean) {
-      return value.toString();
+    } else if (value instanceof Number n) {
+      JsonNumbers.write(n, options.nonFinite, out);
+
+    } else if (value instanceof Boolean) {
+      out.append(value.toString());
 
     } else if (value instanceof Character c) {
-      return "\"" + (c == '"' ? '\\' + c : c) + '"';
+      out.append("\"" + (c == '"' ? '\\' + c : c) + '"');
 
     } else if (value instanceof JSONArray json) {
-      return json.toString(0);
+      if (options.sortKeys || options.selection != null) write(json.toList(), indent, JAVASCRIPT, options, out);
+      else                                               out.append(json.toString(0));
 
     } else if (value instanceof JSONObject json) {
-      return json.toString(indent);
+      if (options.sortKeys || options.selection != null) write(json.toMap(), indent, JAVASCRIPT, options, out);
+      else                                               out.append(json.toString(indent));
 
     } else if (value instanceof Map<?, ?> map) {
       /*
        * Output map as JSON object.
        */
-      StringBuilder st = new StringBuilder("{");
+      out.append('{');
       boolean first = true;
-      for (Map.Entry<?, ?> e: map.entrySet()) {
+      for (Map.Entry<?, ?> e: entries(map, options.sortKeys)) {
         if (first) {
-          st.append(indent > 0 ? "\n" : "");
+          out.append(indent > 0 ? "\n" : "");
           first = false;
         } else {
-          st.append(",\n");
+          out.append(",\n");
         }
-        st.append(repeat(' ', indent))
-          .append(quote(e.getKey().toString())).append(':')
-          .append(toJson(e.getValue(), indent + 1));
+        out.append(repeat(' ', indent));
+        JsonStrings.quote(e.getKey().toString(), out);
+        out.append(':');
+        write(e.getValue(), indent + 1, JAVASCRIPT, options, out);
       }
-      st.append('}');
-      return st.toString();
+      out.append('}');
 
     } else if (value instanceof Collection<?> col) {
       /*
        * Output collections as JSON array.
        */
-      StringBuilder st = new StringBuilder("[");
+      out.append('[');
       boolean first = true;
       for (Object e: col) {
         if (first) first = false;
-        else       st.append(",\n");
-        st.append(toJson(e, indent + 1));
+        else       out.append(",\n");
+        write(e, indent + 1, JAVASCRIPT, options, out);
+      }
+      out.append(']');
+
+    } else if (value instanceof byte[] bytes && options.binaryAsBase64) {
+      checkSize(bytes.length, options);
+      writeBase64(new ByteArrayInputStream(bytes), -1, out);
+
+    } else if (value instanceof Blob blob) {
+      try {
+        try {
+          checkSize(blob.length(), options);
+          try (InputStream in = blob.getBinaryStream()) {
+            writeBase64(in, options.maxLobSize, out);
+          }
+        } finally {
+          blob.free();
+        }
+      } catch (SQLException sqle) {
+        throw new RuntimeException(sqle);
       }
-      st.append(']');
-      return st.toString();
+
+    } else if (value instanceof Clob clob) {
+      try {
+        try {
+          checkSize(clob.length(), options);
+          try (Reader in = clob.getCharacterStream()) {
+            writeText(in, options.maxLobSize, out);
+          }
+        } finally {
+          clob.free();
+        }
+      } catch (SQLException sqle) {
+        throw new RuntimeException(sqle);
+      }
+
+    } else if (value instanceof InputStream in) {
+      try (in) {
+        writeBase64(in, options.maxLobSize, out);
+      }
+
+    } else if (value instanceof Reader in) {
+      try (in) {
+        writeText(in, options.maxLobSize, out);
+      }
+
+    } else if (value instanceof int[]     a) { writeArray(a, out);
+    } else if (value instanceof long[]    a) { writeArray(a, out);
+    } else if (value instanceof double[]  a) { writeArray(a, options, out);
+    } else if (value instanceof float[]   a) { writeArray(a, options, out);
+    } else if (value instanceof short[]   a) { writeArray(a, out);
+    } else if (value instanceof boolean[] a) { writeArray(a, out);
+
+    } else if (value instanceof Object[] array) {
+      /*
+       * Arrays of objects (such as the String[] and Integer[] values of ESQL
+       * array columns) are iterated directly, without reflection.
+       */
+      out.append('[');
+      for (int i = 0; i < array.length; i++) {
+        if (i > 0) out.append(", ");
+        write(array[i], indent, JAVASCRIPT, options, out);
+      }
+      out.append(']');
+
+    } else if (value instanceof java.sql.Array array) {
+      writeArray(array, indent, options, out);
 
     } else if (value.getClass().isArray()) {
       /*
-       * Output array as JSON array.
+       * Output other arrays of primitives as JSON array.
        */
-      StringBuilder st = new StringBuilder("[");
+      out.append('[');
       int len = Array.getLength(value);
       for (int i = 0; i < len; i++) {
-        st.append(i > 0 ? ", " : "")
-          .append(toJson(Array.get(value, i), indent));
+        if (i > 0) out.append(", ");
+        write(Array.get(value, i), indent, JAVASCRIPT, options, out);
       }
-      st.append(']');
-      return st.toString();
+      out.append(']');
 
     } else if (value instanceof Date d) {
-      return '"' + TO_JAVASCRIPT_DATE.format(d) + '"';
+      out.append('"').append(JAVASCRIPT_DATE.get().format(d)).append('"');
 
     } else if (value instanceof LocalDate d) {
-      return '"' + DateTimeFormatter.ISO_LOCAL_DATE.format(d) + '"';
+      out.append('"').append(DateTimeFormatter.ISO_LOCAL_DATE.format(d)).append('"');
 
     } else if (value instanceof LocalTime d) {
-      return '"' + DateTimeFormatter.ISO_LOCAL_TIME.format(d) + '"';
+      out.append('"').append(DateTimeFormatter.ISO_LOCAL_TIME.format(d)).append('"');
 
     } else if (value instanceof LocalDateTime d) {
-      return '"' + DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(d).replace('T', ' ') + '"';
+      out.append('"').append(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(d).replace('T', ' ')).append('"');
 
     } else if (value instanceof StringForm sf) {
       StringBuilder st = new StringBuilder();
       sf._toString(st, 0, indent);
-      return quote(st.toString());
+      JsonStrings.quote(st, out);
 
     } else {
       /*
        * quote unsupported json types and expressions
        */
-      return quote(value.toString());
+      JsonStrings.quote(value.toString(), out);
+    }
+  }
+
+  private static void writeArray(int[] array, Appendable out) throws IOException {
+    out.append('[');
+    for (int i = 0; i < array.length; i++) {
+      if (i > 0) out.append(", ");
+      JsonNumbers.write(array[i], out);
+    }
+    out.append(']');
+  }
+
+  private static void writeArray(long[] array, Appendable out) throws IOException {
+    out.append('[');
+    for (int i = 0; i < array.length; i++) {
+      if (i > 0) out.append(", ");
+      JsonNumbers.write(array[i], out);
+    }
+    out.append(']');
+  }
+
+  private static void writeArray(double[] array, JsonOptions options, Appendable out) throws IOException {
+    out.append('[');
+    for (int i = 0; i < array.length; i++) {
+      if (i > 0) out.append(", ");
+      JsonNumbers.write(array[i], options.nonFinite, out);
+    }
+    out.append(']');
+  }
+
+  private static void writeArray(float[] array, JsonOptions options, Appendable out) throws IOException {
+    out.append('[');
+    for (int i = 0; i < array.length; i++) {
+      if (i > 0) out.append(", ");
+      JsonNumbers.write(array[i], options.nonFinite, out);
+    }
+    out.append(']');
+  }
+
+  private static void writeArray(short[] array, Appendable out) throws IOException {
+    out.append('[');
+    for (int i = 0; i < array.length; i++) {
+      if (i > 0) out.append(", ");
+      JsonNumbers.write(array[i], out);
+    }
+    out.append(']');
+  }
+
+  private static void writeArray(boolean[] array, Appendable out) throws IOException {
+    out.append('[');
+    for (int i = 0; i < array.length; i++) {
+      if (i > 0) out.append(", ");
+      out.append(array[i] ? "true" : "false");
+    }
+    out.append(']');
+  }
+
+  /**
+   * Streams the elements of an SQL array from its result set, so that large
+   * arrays are not materialized, releasing the array at the end (even if
+   * writing it fails).
+   */
+  private static void writeArray(java.sql.Array array,
+                                 int            indent,
+                                 JsonOptions    options,
+                                 Appendable     out) throws IOException {
+    try {
+      try {
+        out.append('[');
+        try (ResultSet elements = array.getResultSet()) {
+          boolean first = true;
+          while (elements.next()) {
+            if (first) first = false;
+            else       out.append(", ");
+            write(elements.getObject(2), indent, JAVASCRIPT, options, out);
+          }
+        }
+        out.append(']');
+      } finally {
+        array.free();
+      }
+    } catch (SQLException sqle) {
+      throw new RuntimeException(sqle);
+    }
+  }
+
+  /**
+   * Writes the bytes read from the stream as a base64 string, encoding them in
+   * chunks as they are read so that large binary values are never fully held
+   * in memory.
+   * @param max The maximum number of bytes to read, or -1 for no limit.
+   */
+  private static void writeBase64(InputStream in,
+                                  long        max,
+                                  Appendable  out) throws IOException {
+    out.append('"');
+    try (OutputStream base64 = Base64.getEncoder().wrap(new AsciiOutputStream(out))) {
+      byte[] chunk = new byte[CHUNK_SIZE];
+      long total = 0;
+      int read;
+      while ((read = in.read(chunk)) != -1) {
+        total += read;
+        if (max >= 0 && total > max) {
+          throw new IllegalArgumentException("Binary value exceeds the maximum size of " + max + " bytes");
+        }
+        base64.write(chunk, 0, read);
+      }
+    }
+    out.append('"');
+  }
+
+  /**
+   * Writes the characters read from the reader as a JSON string, escaping them
+   * in chunks as they are read.
+   * @param max The maximum number of characters to read, or -1 for no limit.
+   */
+  private static void writeText(Reader     in,
+                                long       max,
+                                Appendable out) throws IOException {
+    out.append('"');
+    char[] chunk = new char[CHUNK_SIZE];
+    char previous = '\0';
+    long total = 0;
+    int read;
+    while ((read = in.read(chunk)) != -1) {
+      total += read;
+      if (max >= 0 && total > max) {
+        throw new IllegalArgumentException("Text value exceeds the maximum size of " + max + " characters");
+      }
+      previous = JsonStrings.escape(CharBuffer.wrap(chunk, 0, read), 0, read, previous, out);
+    }
+    out.append('"');
+  }
+
+  private static void checkSize(long size, JsonOptions options) {
+    if (options.maxLobSize >= 0 && size > options.maxLobSize) {
+      throw new IllegalArgumentException("Value of size " + size + " exceeds the maximum of "
+                                       + options.maxLobSize);
     }
   }
 
+  /**
+   * Writer to the output of an encode call, keeping the failure of the output,
+   * so that it can be told apart from failures reading values.
+   */
+  private static final class SinkWriter extends Writer {
+    SinkWriter(Writer out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      try {
+        out.write(c);
+      } catch (IOException e) {
+        throw failure = e;
+      }
+    }
+
+    @Override
+    public void write(char[] chars, int off, int len) throws IOException {
+      try {
+        out.write(chars, off, len);
+      } catch (IOException e) {
+        throw failure = e;
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      try {
+        out.write(str, off, len);
+      } catch (IOException e) {
+        throw failure = e;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      try {
+        out.flush();
+      } catch (IOException e) {
+        throw failure = e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        out.close();
+      } catch (IOException e) {
+        throw failure = e;
+      }
+    }
+
+    private final Writer out;
+
+    /**
+     * The last failure of the output, if any.
+     */
+    private IOException failure;
+  }
+
+  /**
+   * Output stream writing the (ASCII) bytes written to it as characters to an
+   * appendable; used to stream base64 output. Closing it does not close the
+   * appendable.
+   */
+  private static class AsciiOutputStream extends OutputStream {
+    AsciiOutputStream(Appendable out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.append((char)(b & 0xFF));
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.append(new String(b, off, len, ISO_8859_1));
+    }
+
+    private final Appendable out;
+  }
+
+  /**
+   * Translates expressions to the target language, and evaluates literals, for
+   * encoding. Literals holding a number or boolean are written directly without
+   * running the evaluator. When memoized, other literals and expressions are
+   * evaluated or translated once per target; this is only requested for the
+   * attributes of relations and columns, which are constants of structures
+   * encoded repeatedly, and whose expressions are kept (weakly) by identity.
+   */
+  static Object translate(Object value, Target target, boolean memoize) {
+    if (value instanceof Literal<?> l
+    && !(value instanceof UncomputedExpression)) {
+      Object v = l.value();
+      if (v instanceof Number || v instanceof Boolean) {
+        return v;
+      }
+    }
+    return memoize ? TranslationCache.computeIfAbsent(value, target, JsonResultEncoder::evaluate)
+                   : evaluate(value, target);
+  }
+
+  private static Object evaluate(Object value, Target target) {
+    if (value instanceof Literal<?> l) {
+      if (value instanceof UncomputedExpression u) {
+        try                { value = u.translate(target); }
+        catch(Exception x) { value = u.translate(ESQL);   }
+      } else {
+        try {
+          value = l.exec(target,
+                         NULL_CONNECTION,
+                         new EsqlPath(l),
+                         HashPMap.empty(IntTreePMap.empty()),
+                         NULL_DB.structure());
+        } catch(Exception x) {
+          value = l.exec(ESQL,
+                         NULL_CONNECTION,
+                         new EsqlPath(l),
+                         HashPMap.empty(IntTreePMap.empty()),
+                         NULL_DB.structure());
+        }
+      }
+    } else if (value instanceof Expression<?,?> e) {
+      try                { value = "$(" + e.translate(target) + ')'; }
+      catch(Exception x) { value = "$(" + e.translate(ESQL) + ')';   }
+    }
+    return value;
+  }
+
   public static String toJson(Object value, int indent) {
     return toJson(value, indent, JAVASCRIPT);
   }
@@ -473,10 +1219,28 @@ public class JsonResultEncoder implements ResultEncoder {
     return toJson(value, 0);
   }
 
+  /**
+   * Size of the chunks in which large binary and text values are streamed.
+   */
+  private static final int CHUNK_SIZE = 8192;
+
   /**
    * To send data to a Javascript client, ignore time zone as this is not kept
    * in the database.
    */
   public static final SimpleDateFormat TO_JAVASCRIPT_DATE =
       new SimpleDateFormat("yyyy-MM-d H:m:s.S");
+
+  /**
+   * Copies of {@link #TO_JAVASCRIPT_DATE} for each thread encoding dates, as
+   * {@link SimpleDateFormat} is not thread-safe. Clones keep the time zone,
+   * symbols and leniency set on it by the application, as of the first date
+   * encoded by the thread.
+   */
+  private static final ThreadLocal<SimpleDateFormat> JAVASCRIPT_DATE =
+      ThreadLocal.withInitial(() -> {
+        synchronized (TO_JAVASCRIPT_DATE) {
+          return (SimpleDateFormat)TO_JAVASCRIPT_DATE.clone();
+        }
+      });
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Escaping of strings for JSON, producing the same output as
+ * {@link org.json.JSONObject#quote(String)} but writing directly to the output,
+ * and able to escape text in chunks (such as when streaming large character
+ * objects) without quoting each chunk.
+ *
+ * <p>Strings are scanned in bulk for the characters needing escapes, with a
+ * table lookup per character, and the runs of characters between them (the
+ * whole string, in the common case of strings needing no escapes) are written
+ * to the output in one call; when the output is a {@link Writer} (such as an
+ * {@link EncodeBuffer}, which encodes the run straight to UTF-8 bytes) runs are
+ * written without creating substrings.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class JsonStrings {
+  private JsonStrings() {}
+
+  /**
+   * Writes the string quoted and escaped for JSON.
+   */
+  public static void quote(CharSequence s, Appendable out) throws IOException {
+    out.append('"');
+    escape(s, 0, s.length(), '\0', out);
+    out.append('"');
+  }
+
+  /**
+   * The string quoted and escaped for JSON.
+   */
+  public static String quote(String s) {
+    int first = scan(s, 0, s.length());
+    if (first == s.length()) {
+      return '"' + s + '"';
+    }
+    StringBuilder st = new StringBuilder(s.length() + 16);
+    try {
+      st.append('"').append(s, 0, first);
+      escape(s, first, s.length(), first > 0 ? s.charAt(first - 1) : '\0', st);
+      st.append('"');
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+    return st.toString();
+  }
+
+  /**
+   * Escapes the characters of s from start (inclusive) to end (exclusive) for
+   * inclusion in a JSON string, without the surrounding quotes.
+   * @param previous The character preceding start, if escaping a chunk of a
+   *                 larger text, or '\0'. This is needed as '/' is escaped
+   *                 when following '&lt;'.
+   * @return The last character escaped (to pass as previous to the next chunk).
+   */
+  public static char escape(CharSequence s,
+                            int          start,
+                            int          end,
+                            char         previous,
+                            Appendable   out) throws IOException {
+    int run = start;
+    for (int i = scan(s, start, end); i < end; i = scan(s, i + 1, end)) {
+      char c = s.charAt(i);
+      if (c != '/' || (i > start ? s.charAt(i - 1) : previous) == '<') {
+        if (run < i) append(s, run, i, out);
+        writeEscape(c, out);
+        run = i + 1;
+      }
+    }
+    if (run < end) append(s, run, end, out);
+    return end > start ? s.charAt(end - 1) : previous;
+  }
+
+  /**
+   * Index of the first character from start which may need escaping ('/' only
+   * needs escaping after '&lt;'), or end if there is none.
+   */
+  private static int scan(CharSequence s, int start, int end) {
+    if (s instanceof String str) {
+      return scan(str, start, end);
+    }
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c < 0x100 ? ESCAPED[c] : (c & 0xFF00) == 0x2000) return i;
+    }
+    return end;
+  }
+
+  /**
+   * Scan specialized for strings, the common case.
+   */
+  private static int scan(String s, int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c < 0x100 ? ESCAPED[c] : (c & 0xFF00) == 0x2000) return i;
+    }
+    return end;
+  }
+
+  /**
+   * Writes a run of characters needing no escapes.
+   */
+  private static void append(CharSequence s, int start, int end, Appendable out) throws IOException {
+    if (out instanceof Writer w && s instanceof String str) {
+      w.write(str, start, end - start);
+    } else {
+      out.append(s, start, end);
+    }
+  }
+
+  private static void writeEscape(char c, Appendable out) throws IOException {
+    switch (c) {
+      case '\\' -> out.append('\\').append('\\');
+      case '"'  -> out.append('\\').append('"');
+      case '/'  -> out.append('\\').append('/');
+      case '\b' -> out.append('\\').append('b');
+      case '\t' -> out.append('\\').append('t');
+      case '\n' -> out.append('\\').append('n');
+      case '\f' -> out.append('\\').append('f');
+      case '\r' -> out.append('\\').append('r');
+      default   -> out.append('\\').append('u')
+                      .append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF])
+                      .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+    }
+  }
+
+  private static boolean needsUnicodeEscape(char c) {
+    return c < ' '
+       || (c >= 0x80 && c < 0xA0)
+       || (c >= 0x2000 && c < 0x2100);
+  }
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  /**
+   * Characters below 0x100 which may need escaping.
+   */
+  private static final boolean[] ESCAPED = new boolean[0x100];
+  static {
+    for (char c = 0; c < 0x100; c++) {
+      ESCAPED[c] = c == '\\' || c == '"' || c == '/' || needsUnicodeEscape(c);
+    }
+  }
+}
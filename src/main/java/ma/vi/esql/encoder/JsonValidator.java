@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import java.util.Arrays;
+
+/**
+ * Checks that a text is a single well-formed JSON value without building any
+ * object tree, so that the text of JSON columns can be copied as is into the
+ * encoded output. The check is iterative (deeply nested documents do not
+ * overflow the stack) and does not allocate beyond a small nesting stack.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class JsonValidator {
+  private JsonValidator() {}
+
+  /**
+   * Returns true if the text is a well-formed JSON value, optionally surrounded
+   * by whitespace.
+   */
+  public static boolean isValid(CharSequence s) {
+    int n = s.length();
+    byte[] stack = new byte[16];
+    int depth = 0;
+    boolean expectValue = true;
+    int i = 0;
+    while (true) {
+      i = whitespace(s, i);
+      if (expectValue) {
+        if (i >= n) return false;
+        char c = s.charAt(i);
+        if (c == '{' || c == '[') {
+          if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+          stack[depth++] = c == '{' ? OBJECT : ARRAY;
+          i = whitespace(s, i + 1);
+          if (i < n && s.charAt(i) == (c == '{' ? '}' : ']')) {
+            /*
+             * Empty object or array.
+             */
+            depth--;
+            i++;
+            expectValue = false;
+          } else if (c == '{') {
+            i = key(s, i);
+            if (i < 0) return false;
+          }
+          continue;
+        }
+        if      (c == '"')                     i = string(s, i);
+        else if (c == 't')                     i = literal(s, i, "true");
+        else if (c == 'f')                     i = literal(s, i, "false");
+        else if (c == 'n')                     i = literal(s, i, "null");
+        else if (c == '-' || isDigit(c))       i = number(s, i);
+        else                                   return false;
+        if (i < 0) return false;
+        expectValue = false;
+
+      } else {
+        if (depth == 0) return i == n;
+        if (i >= n) return false;
+        char c = s.charAt(i);
+        byte container = stack[depth - 1];
+        if (c == ',') {
+          i++;
+          if (container == OBJECT) {
+            i = key(s, whitespace(s, i));
+            if (i < 0) return false;
+          }
+          expectValue = true;
+        } else if ((c == '}' && container == OBJECT)
+                || (c == ']' && container == ARRAY)) {
+          depth--;
+          i++;
+        } else {
+          return false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Parses a member name and the following colon, returning the position after
+   * the colon or -1 if malformed.
+   */
+  private static int key(CharSequence s, int i) {
+    i = string(s, i);
+    if (i < 0) return -1;
+    i = whitespace(s, i);
+    return i < s.length() && s.charAt(i) == ':' ? i + 1 : -1;
+  }
+
+  private static int string(CharSequence s, int i) {
+    int n = s.length();
+    if (i >= n || s.charAt(i) != '"') return -1;
+    i++;
+    while (i < n) {
+      char c = s.charAt(i++);
+      if (c == '"') {
+        return i;
+      } else if (c == '\\') {
+        if (i >= n) return -1;
+        char e = s.charAt(i++);
+        if (e == 'u') {
+          if (i + 4 > n) return -1;
+          for (int j = 0; j < 4; j++) {
+            if (Character.digit(s.charAt(i++), 16) < 0) return -1;
+          }
+        } else if ("\"\\/bfnrt".indexOf(e) < 0) {
+          return -1;
+        }
+      } else if (c < 0x20) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  private static int number(CharSequence s, int i) {
+    int n = s.length();
+    if (s.charAt(i) == '-') i++;
+    if (i >= n) return -1;
+    if (s.charAt(i) == '0') {
+      i++;
+    } else if (isDigit(s.charAt(i))) {
+      while (i < n && isDigit(s.charAt(i))) i++;
+    } else {
+      return -1;
+    }
+    if (i < n && s.charAt(i) == '.') {
+      i++;
+      if (i >= n || !isDigit(s.charAt(i))) return -1;
+      while (i < n && isDigit(s.charAt(i))) i++;
+    }
+    if (i < n && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+      i++;
+      if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) i++;
+      if (i >= n || !isDigit(s.charAt(i))) return -1;
+      while (i < n && isDigit(s.charAt(i))) i++;
+    }
+    return i;
+  }
+
+  private static int literal(CharSequence s, int i, String literal) {
+    int len = literal.length();
+    if (i + len > s.length()) return -1;
+    for (int j = 0; j < len; j++) {
+      if (s.charAt(i + j) != literal.charAt(j)) return -1;
+    }
+    return i + len;
+  }
+
+  private static int whitespace(CharSequence s, int i) {
+    int n = s.length();
+    while (i < n) {
+      char c = s.charAt(i);
+      if (c != ' ' && c != '\n' && c != '\r' && c != '\t') break;
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static final byte OBJECT = 1;
+  private static final byte ARRAY  = 2;
+}
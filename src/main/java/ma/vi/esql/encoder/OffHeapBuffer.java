@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A writer which encodes the characters written to it as UTF-8 into a chain of
+ * fixed-size direct (off-heap) byte buffers, for buffering very large encoded
+ * results (to retry sending them, compute their length, cache them, etc.)
+ * without allocating large arrays on the Java heap. Characters are encoded
+ * through a small on-heap {@link EncodeBuffer} which is drained into the
+ * segments as it fills.
+ *
+ * <p>Once written, the content can be read as a stream ({@link #inputStream()})
+ * or channel ({@link #channel()}), obtained as read-only buffers for gathering
+ * writes ({@link #segments()}) or written to a stream or channel. Closing the
+ * buffer releases its segments deterministically: segments of the default size
+ * are returned to a bounded pool shared by all buffers, from which new buffers
+ * take their segments, so that the off-heap memory of a closed buffer is reused
+ * straight away instead of waiting for the garbage collector.</p>
+ *
+ * <pre>
+ *   try (OffHeapBuffer buffer = new OffHeapBuffer()) {
+ *     encoder.encode(result, buffer, params);
+ *     response.setContentLength(buffer.size());
+ *     buffer.writeTo(response.getOutputStream());
+ *   }
+ * </pre>
+ *
+ * Buffers are not thread-safe.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class OffHeapBuffer extends Writer {
+  /**
+   * Creates a buffer with segments of the default size (64KB).
+   */
+  public OffHeapBuffer() {
+    this(DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * Creates a buffer with segments of the specified size.
+   */
+  public OffHeapBuffer(int segmentSize) {
+    if (segmentSize <= 0) {
+      throw new IllegalArgumentException("Segment size must be positive: " + segmentSize);
+    }
+    this.segmentSize = segmentSize;
+    this.staging = EncodeBufferPool.acquire(STAGING_SIZE);
+  }
+
+  @Override
+  public void write(int c) {
+    staging().write(c);
+    drainIfFull();
+  }
+
+  @Override
+  public void write(char[] chars, int off, int len) {
+    while (len > 0) {
+      int n = Math.min(len, STAGING_SIZE);
+      staging().write(chars, off, n);
+      drainIfFull();
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) {
+    while (len > 0) {
+      int n = Math.min(len, STAGING_SIZE);
+      staging().write(str, off, n);
+      drainIfFull();
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void write(String str) {
+    write(str, 0, str.length());
+  }
+
+  @Override
+  public OffHeapBuffer append(CharSequence csq) {
+    String s = String.valueOf(csq);
+    write(s, 0, s.length());
+    return this;
+  }
+
+  @Override
+  public OffHeapBuffer append(char c) {
+    write(c);
+    return this;
+  }
+
+  /**
+   * Appends raw bytes to the buffer.
+   */
+  public void write(byte[] bytes, int off, int len) {
+    drain(true);
+    put(bytes, off, len);
+  }
+
+  /**
+   * A stream writing raw bytes into this buffer.
+   */
+  public OutputStream outputStream() {
+    return new OutputStream() {
+      @Override
+      public void write(int b) {
+        OffHeapBuffer.this.write(new byte[]{(byte)b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] bytes, int off, int len) {
+        OffHeapBuffer.this.write(bytes, off, len);
+      }
+    };
+  }
+
+  /**
+   * Number of bytes in the buffer.
+   */
+  public long size() {
+    drain(true);
+    return size;
+  }
+
+  /**
+   * The content of the buffer as read-only byte buffers, one per segment,
+   * positioned at their start and limited to their content. They are only valid
+   * until the buffer is written to again or closed.
+   */
+  public ByteBuffer[] segments() {
+    drain(true);
+    ByteBuffer[] views = new ByteBuffer[segments.size()];
+    for (int i = 0; i < views.length; i++) {
+      views[i] = segments.get(i).asReadOnlyBuffer().flip();
+    }
+    return views;
+  }
+
+  /**
+   * A stream reading the content of the buffer, which is only valid until the
+   * buffer is written to again or closed.
+   */
+  public InputStream inputStream() {
+    ByteBuffer[] views = segments();
+    return new InputStream() {
+      @Override
+      public int read() {
+        ByteBuffer segment = current();
+        return segment == null ? -1 : segment.get() & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) {
+        if (len == 0) return 0;
+        ByteBuffer segment = current();
+        if (segment == null) return -1;
+        int n = Math.min(len, segment.remaining());
+        segment.get(b, off, n);
+        return n;
+      }
+
+      @Override
+      public int available() {
+        ByteBuffer segment = current();
+        return segment == null ? 0 : segment.remaining();
+      }
+
+      private ByteBuffer current() {
+        while (index < views.length && !views[index].hasRemaining()) index++;
+        return index < views.length ? views[index] : null;
+      }
+
+      private int index;
+    };
+  }
+
+  /**
+   * A channel reading the content of the buffer, which is only valid until the
+   * buffer is written to again or closed.
+   */
+  public ReadableByteChannel channel() {
+    return Channels.newChannel(inputStream());
+  }
+
+  /**
+   * Writes the content of the buffer to the output stream.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    byte[] chunk = new byte[Math.min(segmentSize, STAGING_SIZE)];
+    for (ByteBuffer segment: segments()) {
+      while (segment.hasRemaining()) {
+        int n = Math.min(chunk.length, segment.remaining());
+        segment.get(chunk, 0, n);
+        out.write(chunk, 0, n);
+      }
+    }
+  }
+
+  /**
+   * Writes the content of the buffer to the channel, straight from the
+   * off-heap segments.
+   */
+  public void writeTo(WritableByteChannel out) throws IOException {
+    for (ByteBuffer segment: segments()) {
+      while (segment.hasRemaining()) out.write(segment);
+    }
+  }
+
+  @Override
+  public void flush() {}
+
+  /**
+   * Releases the segments of the buffer, which must not be used afterwards.
+   */
+  @Override
+  public void close() {
+    if (staging != null) {
+      staging.close();
+      staging = null;
+      for (ByteBuffer segment: segments) release(segment);
+      segments.clear();
+      size = 0;
+    }
+  }
+
+  /**
+   * Number of segments of the default size currently pooled.
+   */
+  public static int pooledSegments() {
+    return pooledCount.get();
+  }
+
+  private EncodeBuffer staging() {
+    if (staging == null) {
+      throw new IllegalStateException("Buffer has been closed");
+    }
+    return staging;
+  }
+
+  private void drainIfFull() {
+    if (staging.count >= STAGING_SIZE) drain(false);
+  }
+
+  /**
+   * Moves the bytes in the staging buffer to the segments. A high surrogate
+   * waiting for its low surrogate stays in the staging buffer, unless settling.
+   */
+  private void drain(boolean settle) {
+    EncodeBuffer staging = staging();
+    if (settle) staging.size();
+    if (staging.count > 0) {
+      put(staging.buf, 0, staging.count);
+      staging.count = 0;
+    }
+  }
+
+  private void put(byte[] bytes, int off, int len) {
+    staging();
+    while (len > 0) {
+      ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+      if (segment == null || !segment.hasRemaining()) {
+        segment = allocate();
+        segments.add(segment);
+      }
+      int n = Math.min(len, segment.remaining());
+      segment.put(bytes, off, n);
+      off += n;
+      len -= n;
+      size += n;
+    }
+  }
+
+  private ByteBuffer allocate() {
+    if (segmentSize == DEFAULT_SEGMENT_SIZE) {
+      ByteBuffer segment = pool.poll();
+      if (segment != null) {
+        pooledCount.decrementAndGet();
+        return segment;
+      }
+    }
+    return ByteBuffer.allocateDirect(segmentSize);
+  }
+
+  private static void release(ByteBuffer segment) {
+    if (segment.capacity() == DEFAULT_SEGMENT_SIZE) {
+      if (pooledCount.incrementAndGet() <= MAX_POOLED_SEGMENTS) pool.offer(segment.clear());
+      else pooledCount.decrementAndGet();
+    }
+  }
+
+  private final int segmentSize;
+
+  private final List<ByteBuffer> segments = new ArrayList<>();
+
+  /**
+   * Total number of bytes in the segments.
+   */
+  private long size;
+
+  /**
+   * Buffer into which characters are encoded before being moved to the
+   * segments; null once closed.
+   */
+  private EncodeBuffer staging;
+
+  private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+
+  private static final int STAGING_SIZE = 8 * 1024;
+
+  /**
+   * Maximum number of segments kept in the pool (16MB of default segments).
+   */
+  private static final int MAX_POOLED_SEGMENTS = 256;
+
+  private static final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+  private static final AtomicInteger pooledCount = new AtomicInteger();
+}
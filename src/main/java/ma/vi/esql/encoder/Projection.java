@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.exec.ColumnMapping;
+import ma.vi.esql.exec.Result;
+
+import java.util.*;
+
+import static ma.vi.esql.encoder.ResultEncoder.COLUMNS;
+
+/**
+ * The columns of a result to encode, resolved from the {@link ResultEncoder#COLUMNS}
+ * parameter to result column indices once per encode call, so that excluded
+ * columns are never read, converted or written. The parameter can be:
+ * <ul>
+ *   <li>a comma-separated string of column names;</li>
+ *   <li>a collection or array of column names;</li>
+ *   <li>a map of column names to the attributes of each column to include in
+ *       the header (and row metadata), as a collection, array or comma-separated
+ *       string. A null value includes all attributes of the column.</li>
+ * </ul>
+ * The columns are encoded in the order they are listed in the parameter. All
+ * columns, with all their attributes, are encoded when the parameter is not set.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class Projection {
+  private Projection(int[] columns, Set<String>[] attributes) {
+    this.columns = columns;
+    this.attributes = attributes;
+  }
+
+  /**
+   * Resolves the projection in the parameters against the columns of the result.
+   * @throws IllegalArgumentException if a projected column is not in the result.
+   */
+  public static Projection of(Result rs, Configuration params) {
+    Object spec = params.get(COLUMNS, ALL);
+    if (spec == ALL || spec == null) {
+      int[] columns = new int[rs.columnsCount()];
+      for (int i = 0; i < columns.length; i++) columns[i] = i + 1;
+      return new Projection(columns, null);
+    }
+
+    Map<String, Integer> indices = new HashMap<>();
+    List<ColumnMapping> resultColumns = rs.columns();
+    if (resultColumns != null) {
+      int i = 1;
+      for (ColumnMapping c: resultColumns) {
+        indices.putIfAbsent(c.column().name(), i++);
+      }
+    }
+
+    Map<String, Set<String>> projected = new LinkedHashMap<>();
+    if (spec instanceof Map<?, ?> map) {
+      for (Map.Entry<?, ?> e: map.entrySet()) {
+        projected.put(e.getKey().toString(), e.getValue() == null ? null : names(e.getValue()));
+      }
+    } else {
+      for (String name: names(spec)) projected.put(name, null);
+    }
+
+    int[] columns = new int[projected.size()];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Set<String>[] attributes = new Set[columns.length];
+    boolean hasAttributes = false;
+    int i = 0;
+    for (Map.Entry<String, Set<String>> e: projected.entrySet()) {
+      Integer index = indices.get(e.getKey());
+      if (index == null) {
+        throw new IllegalArgumentException("Projected column " + e.getKey()
+                                         + " is not in the result; columns are "
+                                         + indices.keySet());
+      }
+      columns[i] = index;
+      attributes[i] = e.getValue();
+      hasAttributes |= e.getValue() != null;
+      i++;
+    }
+    return new Projection(columns, hasAttributes ? attributes : null);
+  }
+
+  /**
+   * Number of columns to encode.
+   */
+  public int size() {
+    return columns.length;
+  }
+
+  /**
+   * The index, in the result (starting at 1), of the i<sup>th</sup> column to
+   * encode (starting at 0).
+   */
+  public int column(int i) {
+    return columns[i];
+  }
+
+  /**
+   * Whether the attribute of the i<sup>th</sup> column to encode is to be included.
+   */
+  public boolean includes(int i, String attribute) {
+    return attributes == null
+        || attributes[i] == null
+        || attributes[i].contains(attribute);
+  }
+
+  /**
+   * The projection of the same columns in a different order.
+   * @param order The positions, in this projection, of the columns of the
+   *              reordered projection.
+   */
+  Projection reorder(int[] order) {
+    int[] reordered = new int[order.length];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Set<String>[] reorderedAttributes = attributes == null ? null : new Set[order.length];
+    for (int i = 0; i < order.length; i++) {
+      reordered[i] = columns[order[i]];
+      if (reorderedAttributes != null) reorderedAttributes[i] = attributes[order[i]];
+    }
+    return new Projection(reordered, reorderedAttributes);
+  }
+
+  /**
+   * Names listed in a collection, array or comma-separated string.
+   */
+  static Set<String> names(Object spec) {
+    Set<String> names = new LinkedHashSet<>();
+    if (spec instanceof Collection<?> col) {
+      for (Object n: col) names.add(n.toString().trim());
+    } else if (spec instanceof Object[] array) {
+      for (Object n: array) names.add(n.toString().trim());
+    } else {
+      for (String n: spec.toString().split(",")) {
+        n = n.trim();
+        if (!n.isEmpty()) names.add(n);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Indices in the result of the columns to encode.
+   */
+  private final int[] columns;
+
+  /**
+   * The attributes to encode for each column; null for all attributes of all
+   * columns, or a null element for all the attributes of that column.
+   */
+  private final Set<String>[] attributes;
+
+  private static final Object ALL = new Object();
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Cursor over the rows of a decoded result, obtained from a {@link ResultDecoder}.
+ * The header of the result (its metadata and columns) is available as soon as
+ * the cursor is obtained; rows are read one at a time with {@link #next()} and
+ * their values are only decoded when requested through the typed getters.
+ * Columns are numbered from 1, as in {@link ma.vi.esql.exec.Result}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public interface ResultCursor extends AutoCloseable {
+  /**
+   * The fingerprint of the header of the result (<code>$s</code>), or null if
+   * the result was not encoded with one.
+   */
+  String structure();
+
+  /**
+   * The metadata of the result (<code>$m</code>); empty if none.
+   */
+  JSONObject metadata();
+
+  /**
+   * The names of the columns of the result, in the order of the row values.
+   * Empty if the result was encoded without its header (rows only, or with a
+   * structure known to the client); the header can then be obtained from
+   * {@link Structures#header(String)}.
+   */
+  List<String> columns();
+
+  /**
+   * The attributes of the column; empty if the column has none or the header
+   * was not encoded.
+   */
+  JSONObject column(String name);
+
+  /**
+   * Moves to the next row, returning false if there are no more rows.
+   */
+  boolean next();
+
+  /**
+   * Number of values in the current row.
+   */
+  int size();
+
+  /**
+   * Index (from 1) of the column with the name.
+   * @throws IllegalArgumentException if there is no such column.
+   */
+  int indexOf(String column);
+
+  boolean isNull(int column);
+
+  String getString(int column);
+
+  /**
+   * The value as a long, 0 if null.
+   */
+  long getLong(int column);
+
+  /**
+   * The value as an int, 0 if null.
+   */
+  int getInt(int column);
+
+  /**
+   * The value as a double, 0 if null. Non-finite values encoded as strings
+   * ("NaN", "Infinity" and "-Infinity") are decoded.
+   */
+  double getDouble(int column);
+
+  boolean getBoolean(int column);
+
+  BigDecimal getBigDecimal(int column);
+
+  /**
+   * The value decoded as a String, Number, Boolean, JSONObject or JSONArray,
+   * or null.
+   */
+  Object getObject(int column);
+
+  /**
+   * The JSON text of the value, as encoded.
+   */
+  String getRaw(int column);
+
+  /**
+   * The metadata specific to the value of the column in the current row (encoded
+   * as <code>{$v: value, $m: metadata}</code>), or null if there is none.
+   */
+  JSONObject getMetadata(int column);
+
+  default boolean isNull(String column) {
+    return isNull(indexOf(column));
+  }
+
+  default String getString(String column) {
+    return getString(indexOf(column));
+  }
+
+  default long getLong(String column) {
+    return getLong(indexOf(column));
+  }
+
+  default int getInt(String column) {
+    return getInt(indexOf(column));
+  }
+
+  default double getDouble(String column) {
+    return getDouble(indexOf(column));
+  }
+
+  default boolean getBoolean(String column) {
+    return getBoolean(indexOf(column));
+  }
+
+  default BigDecimal getBigDecimal(String column) {
+    return getBigDecimal(indexOf(column));
+  }
+
+  default Object getObject(String column) {
+    return getObject(indexOf(column));
+  }
+
+  /**
+   * Closes the underlying input.
+   */
+  @Override
+  void close();
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Interface implemented by decoders which read back the representation of a
+ * result produced by the corresponding {@link ResultEncoder}. Decoders read the
+ * header of the result once and then give access to its rows one at a time
+ * through a {@link ResultCursor}, so that results of any size can be read in
+ * constant memory.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public interface ResultDecoder {
+  /**
+   * Starts decoding the encoded result in the input stream, reading its header.
+   * The returned cursor is positioned before the first row, and closes the input
+   * stream when it is closed.
+   * @param in Inputstream to read the encoded result from.
+   * @param params Parameters to control the decoding.
+   * @return A cursor over the rows of the result.
+   */
+  ResultCursor decode(InputStream in, Configuration params);
+
+  /**
+   * Starts decoding the encoded result in the input stream.
+   * @param in Inputstream to read the encoded result from.
+   * @return A cursor over the rows of the result.
+   */
+  default ResultCursor decode(InputStream in) {
+    return decode(in, Configuration.EMPTY);
+  }
+
+  /**
+   * Starts decoding the encoded result in the byte array.
+   * @param encoded The encoded result.
+   * @return A cursor over the rows of the result.
+   */
+  default ResultCursor decode(byte[] encoded) {
+    return decode(new ByteArrayInputStream(encoded), Configuration.EMPTY);
+  }
+
+  /**
+   * Initial size of the buffer into which the input is read; the buffer only
+   * grows beyond this size to hold a row (or header value) larger than it.
+   */
+  String BUFFER_SIZE = "BUFFER_SIZE";
+}
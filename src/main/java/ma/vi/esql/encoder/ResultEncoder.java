@@ -5,10 +5,16 @@ import ma.vi.esql.exec.Result;
 import ma.vi.esql.semantic.type.Relation;
 import org.apache.commons.io.output.WriterOutputStream;
 
+import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -67,8 +73,8 @@ public interface ResultEncoder {
   }
 
   /**
-   * Utility method that uses a {@link StringWriter} to encode the result into
-   * a String.
+   * Utility method that uses a pooled {@link EncodeBuffer} to encode the result
+   * into a String.
    * @param result Result to encode.
    * @return The encoded result as a string.
    */
@@ -77,18 +83,234 @@ public interface ResultEncoder {
   }
 
   /**
-   * Utility method that uses a {@link StringWriter} to encode the result into
-   * a String.
+   * Utility method that uses a pooled {@link EncodeBuffer} to encode the result
+   * into a String.
    * @param result Result to encode.
    * @return The encoded result as a string.
    * @param params Parameters to control the encoding.
    */
   default String encode(Result result, Configuration params) {
-    StringWriter sw = new StringWriter();
-    encode(result, sw, params);
-    return sw.toString();
+    String key = EncodeBufferPool.key(result);
+    try (EncodeBuffer buffer = EncodeBufferPool.acquire(EncodeBufferPool.estimate(key, result.columnsCount()))) {
+      encode(result, buffer, params);
+      EncodeBufferPool.record(key, buffer.size());
+      return buffer.toString();
+    }
   }
 
+  /**
+   * Encodes the query result into an array of bytes (UTF-8 for text encodings),
+   * using a pooled {@link EncodeBuffer} sized from the recent encodings of the
+   * same query, so that the only copy made is into the returned array.
+   * @param result Result to encode.
+   * @param params Parameters to control the encoding.
+   * @return The encoded result as an array of bytes.
+   */
+  default byte[] encodeToBytes(Result result, Configuration params) {
+    String key = EncodeBufferPool.key(result);
+    try (EncodeBuffer buffer = EncodeBufferPool.acquire(EncodeBufferPool.estimate(key, result.columnsCount()))) {
+      encode(result, buffer, params);
+      EncodeBufferPool.record(key, buffer.size());
+      return buffer.toByteArray();
+    }
+  }
+
+  /**
+   * Encodes the query result into an array of bytes.
+   * @param result Result to encode.
+   * @return The encoded result as an array of bytes.
+   */
+  default byte[] encodeToBytes(Result result) {
+    return encodeToBytes(result, Configuration.EMPTY);
+  }
+
+  /**
+   * Encodes the query result into a byte buffer, positioned at 0 and with its
+   * limit at the end of the encoded bytes.
+   * @param result Result to encode.
+   * @param params Parameters to control the encoding.
+   * @return The encoded result in a byte buffer.
+   */
+  default ByteBuffer encodeToByteBuffer(Result result, Configuration params) {
+    return ByteBuffer.wrap(encodeToBytes(result, params));
+  }
+
+  /**
+   * Encodes the result into a stream of the framed output, interleaving its
+   * frames with those of the other streams written concurrently to the output.
+   * The stream is ended when the result is fully encoded, or aborted with the
+   * error if encoding fails.
+   * @param result Result to encode.
+   * @param out Framed output to write the encoded result to.
+   * @param stream Id of the stream to write the result to.
+   * @param params Parameters to control the encoding.
+   * @see FramedOutput
+   */
+  default void encodeFramed(Result        result,
+                            FramedOutput  out,
+                            int           stream,
+                            Configuration params) {
+    out.write(stream, framed -> encode(result, framed, params));
+  }
+
+  /**
+   * Encodes a list of results (such as the results of the statements of a
+   * multi-statement program) into a single envelope written to the writer, with
+   * {@link #beginBatch}, {@link #separateBatch} and {@link #endBatch} producing
+   * the envelope.
+   *
+   * <p>When an executor is provided, the results are encoded in parallel on it,
+   * each into its own pooled {@link EncodeBuffer}, and written to the output in
+   * order as soon as they and all the results before them are ready, so that the
+   * batch takes about as long as its slowest result. The results must then be
+   * readable independently of each other from different threads, such as results
+   * which have been fully fetched or come from different connections. Without an
+   * executor, the results are encoded one after the other straight into the
+   * output.</p>
+   *
+   * <p>A {@link #DIGEST} holds the hash of the whole envelope; it is not passed
+   * to the encodings of the individual results, which then carry no
+   * {@link #DIGEST_TRAILER}.</p>
+   *
+   * @param results Results to encode, in the order they are to be written.
+   * @param out Writer to write the encoded results to.
+   * @param params Parameters to control the encoding of every result.
+   * @param executor Executor to encode the results in parallel on, or null to
+   *                 encode them sequentially.
+   */
+  default void encodeBatch(List<Result> results,
+                           Writer       out,
+                           Configuration params,
+                           Executor     executor) {
+    EncodeDigest digest = params.get(DIGEST, null);
+    EncodeDigest.DigestWriter hashed = null;
+    Configuration resultParams = params;
+    if (digest != null) {
+      hashed = digest.start(out);
+      out = hashed;
+      resultParams = new Configuration();
+      resultParams.putAll(params);
+      resultParams.remove(DIGEST);
+    }
+    try {
+      beginBatch(results.size(), out, params);
+      if (executor == null || results.size() < 2) {
+        boolean first = true;
+        for (Result result: results) {
+          if (first) first = false;
+          else       separateBatch(out, params);
+          encode(result, out, resultParams);
+        }
+      } else {
+        Configuration encodeParams = resultParams;
+        List<CompletableFuture<EncodeBuffer>> encodings = new ArrayList<>(results.size());
+        for (Result result: results) {
+          encodings.add(CompletableFuture.supplyAsync(() -> {
+            String key = EncodeBufferPool.key(result);
+            EncodeBuffer buffer = EncodeBufferPool.acquire(EncodeBufferPool.estimate(key, result.columnsCount()));
+            try {
+              encode(result, buffer, encodeParams);
+            } catch (RuntimeException e) {
+              buffer.close();
+              throw e;
+            }
+            EncodeBufferPool.record(key, buffer.size());
+            return buffer;
+          }, executor));
+        }
+        int written = 0;
+        try {
+          for (CompletableFuture<EncodeBuffer> encoding: encodings) {
+            EncodeBuffer buffer;
+            try {
+              buffer = encoding.join();
+            } catch (CompletionException e) {
+              throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+            try (buffer) {
+              if (written > 0) separateBatch(out, params);
+              buffer.writeTo(out);
+            }
+            written++;
+          }
+        } finally {
+          /*
+           * On failure, return the buffers of the results encoded but not written
+           * to the pool.
+           */
+          for (int i = written + 1; i < encodings.size(); i++) {
+            encodings.get(i).thenAccept(EncodeBuffer::close);
+          }
+        }
+      }
+      endBatch(out, params);
+      if (hashed != null) hashed.finish();
+      out.flush();
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    } finally {
+      if (hashed != null) hashed.discard();
+    }
+  }
+
+  /**
+   * Encodes a list of results sequentially into a single envelope written to
+   * the writer.
+   * @param results Results to encode, in the order they are to be written.
+   * @param out Writer to write the encoded results to.
+   * @param params Parameters to control the encoding of every result.
+   */
+  default void encodeBatch(List<Result>  results,
+                           Writer        out,
+                           Configuration params) {
+    encodeBatch(results, out, params, null);
+  }
+
+  /**
+   * Encodes a list of results into a single envelope written to the output stream.
+   * @see #encodeBatch(List, Writer, Configuration, Executor)
+   */
+  default void encodeBatch(List<Result>  results,
+                           OutputStream  out,
+                           Configuration params,
+                           Executor      executor) {
+    encodeBatch(results, new OutputStreamWriter(out, UTF_8), params, executor);
+  }
+
+  /**
+   * Encodes a list of results into a single envelope returned as a string.
+   * @see #encodeBatch(List, Writer, Configuration, Executor)
+   */
+  default String encodeBatch(List<Result>  results,
+                             Configuration params,
+                             Executor      executor) {
+    int columns = 0;
+    for (Result result: results) columns += result.columnsCount();
+    try (EncodeBuffer buffer = EncodeBufferPool.acquire(EncodeBufferPool.estimate(null, columns))) {
+      encodeBatch(results, buffer, params, executor);
+      return buffer.toString();
+    }
+  }
+
+  /**
+   * Writes the start of the envelope of a batch of results. This writes nothing
+   * by default (the encoded results are concatenated).
+   * @param size The number of results in the batch.
+   * @param out Writer to write the envelope to.
+   * @param params Parameters controlling the encoding.
+   */
+  default void beginBatch(int size, Writer out, Configuration params) throws IOException {}
+
+  /**
+   * Writes the separator between two results of a batch; nothing by default.
+   */
+  default void separateBatch(Writer out, Configuration params) throws IOException {}
+
+  /**
+   * Writes the end of the envelope of a batch of results; nothing by default.
+   */
+  default void endBatch(Writer out, Configuration params) throws IOException {}
+
   /**
    * Encodes the structure of the relation into the outputstream, applying any
    * of the specified parameters.
@@ -138,8 +360,8 @@ public interface ResultEncoder {
   }
 
   /**
-   * Utility method that uses a {@link StringWriter} to encode the relation into
-   * a String.
+   * Utility method that uses a pooled {@link EncodeBuffer} to encode the relation
+   * into a String.
    * @param relation Relation to encode.
    * @return The encoded result as a string.
    */
@@ -148,16 +370,73 @@ public interface ResultEncoder {
   }
 
   /**
-   * Utility method that uses a {@link StringWriter} to encode the relation into
-   * a String.
+   * Utility method that uses a pooled {@link EncodeBuffer} to encode the relation
+   * into a String.
    * @param relation Relation to encode.
    * @return The encoded result as a string.
    * @param params Parameters to control the encoding.
    */
   default String encode(Relation relation, Configuration params) {
-    StringWriter sw = new StringWriter();
-    encode(relation, sw, params);
-    return sw.toString();
+    String key = EncodeBufferPool.key(relation);
+    try (EncodeBuffer buffer = EncodeBufferPool.acquire(EncodeBufferPool.estimate(key, 0))) {
+      encode(relation, buffer, params);
+      EncodeBufferPool.record(key, buffer.size());
+      return buffer.toString();
+    }
+  }
+
+  /**
+   * Encodes the structure of the relation into an array of bytes (UTF-8 for
+   * text encodings) using a pooled {@link EncodeBuffer}.
+   * @param relation Relation to encode.
+   * @param params Parameters to control the encoding.
+   * @return The encoded structure as an array of bytes.
+   */
+  default byte[] encodeToBytes(Relation relation, Configuration params) {
+    String key = EncodeBufferPool.key(relation);
+    try (EncodeBuffer buffer = EncodeBufferPool.acquire(EncodeBufferPool.estimate(key, 0))) {
+      encode(relation, buffer, params);
+      EncodeBufferPool.record(key, buffer.size());
+      return buffer.toByteArray();
+    }
+  }
+
+  /**
+   * Encodes the structure of the relation into an array of bytes.
+   * @param relation Relation to encode.
+   * @return The encoded structure as an array of bytes.
+   */
+  default byte[] encodeToBytes(Relation relation) {
+    return encodeToBytes(relation, Configuration.EMPTY);
+  }
+
+  /**
+   * Encodes the structure of the relation into a byte buffer, positioned at 0
+   * and with its limit at the end of the encoded bytes.
+   * @param relation Relation to encode.
+   * @param params Parameters to control the encoding.
+   * @return The encoded structure in a byte buffer.
+   */
+  default ByteBuffer encodeToByteBuffer(Relation relation, Configuration params) {
+    return ByteBuffer.wrap(encodeToBytes(relation, params));
+  }
+
+  /**
+   * Encodes the structure of the relation into a stream of the framed output,
+   * interleaving its frames with those of the other streams written concurrently
+   * to the output. The stream is ended when the structure is fully encoded, or
+   * aborted with the error if encoding fails.
+   * @param relation Relation to encode.
+   * @param out Framed output to write the encoded structure to.
+   * @param stream Id of the stream to write the structure to.
+   * @param params Parameters to control the encoding.
+   * @see FramedOutput
+   */
+  default void encodeFramed(Relation      relation,
+                            FramedOutput  out,
+                            int           stream,
+                            Configuration params) {
+    out.write(stream, framed -> encode(relation, framed, params));
   }
 
   /**
@@ -179,4 +458,173 @@ public interface ResultEncoder {
    * Only output result rows (no structure) when set to true in config.
    */
   String ROWS_ONLY = "ROWS_ONLY";
+
+  /**
+   * Columns of the result to encode, in order, and optionally the attributes of
+   * each column to include; all columns are encoded when not set. See
+   * {@link Projection} for the accepted forms.
+   */
+  String COLUMNS = "COLUMNS";
+
+  /**
+   * The attributes of results, relations and columns to encode (in headers,
+   * structures and row metadata), as a collection, array or comma-separated
+   * string of attribute names; all attributes are encoded when not set.
+   */
+  String ATTRIBUTES = "ATTRIBUTES";
+
+  /**
+   * The attributes of results, relations and columns not to encode, in the same
+   * forms as {@link #ATTRIBUTES}.
+   */
+  String EXCLUDE_ATTRIBUTES = "EXCLUDE_ATTRIBUTES";
+
+  /**
+   * The locale, as a {@link java.util.Locale} or language tag (e.g. "fr" or
+   * "fr-FR"), to encode multi-language attribute values in: maps of text keyed
+   * by ISO 639-1 language, such as <code>{en: 'Any', fr: 'Une ou plusieurs'}</code>, are
+   * encoded as their value for that locale only. Attribute values are encoded
+   * with all their languages when not set.
+   */
+  String LOCALE = "LOCALE";
+
+  /**
+   * The locale to encode multi-language attribute values in when they have no
+   * value for the {@link #LOCALE}; such values are encoded with all their
+   * languages when not set.
+   */
+  String FALLBACK_LOCALE = "FALLBACK_LOCALE";
+
+  /**
+   * Key columns, as a collection, array or comma-separated string of column
+   * names, by which to group the rows of the result into parents with nested
+   * children: consecutive rows with the same key values are encoded as one row
+   * of the parent columns (see {@link #GROUP_COLUMNS}) followed by the array of
+   * the other columns of each row. The result must be ordered by the key columns.
+   * Rows are not grouped when not set.
+   */
+  String GROUP_BY = "GROUP_BY";
+
+  /**
+   * The other columns of the parent in a result grouped by {@link #GROUP_BY},
+   * in the same forms; only the key columns are parent columns when not set.
+   */
+  String GROUP_COLUMNS = "GROUP_COLUMNS";
+
+  /**
+   * Name of the child column of a result grouped by {@link #GROUP_BY} which is
+   * null only in rows without a child, such as the rows of parents without
+   * children in outer joins; it need not be encoded. The <code>_id</code> of the
+   * children is used when not set and it is a child column; otherwise every row
+   * adds a child.
+   */
+  String GROUP_CHILD_KEY = "GROUP_CHILD_KEY";
+
+  /**
+   * Ratio (from 0 to 1) of null values in a row above which the row is encoded
+   * in a sparse form holding only its non-null values, with their positions in
+   * the row; a ratio of 0.5, for instance, encodes sparsely rows which are more
+   * than half empty. Rows are chosen individually, other rows being encoded as
+   * usual, and null values with row metadata are never left out. All rows are
+   * encoded in full when not set; grouped rows (see {@link #GROUP_BY}) are always
+   * encoded in full.
+   */
+  String SPARSE_ROWS = "SPARSE_ROWS";
+
+  /**
+   * When true (the default), text values of JSON and JSONB columns are copied
+   * as is into the encoded output instead of being encoded as strings.
+   */
+  String RAW_JSON = "RAW_JSON";
+
+  /**
+   * When true (the default), the text of JSON columns is checked to be well-formed
+   * before being copied into the output, and encoded as a string if not. Setting
+   * this to false skips the check for trusted data.
+   */
+  String VALIDATE_JSON = "VALIDATE_JSON";
+
+  /**
+   * How binary values (byte arrays, BLOBs and input streams) are encoded:
+   * {@link #BINARY_BASE64} (the default) writes them as base64 strings, streamed
+   * in chunks, while {@link #BINARY_ARRAY} writes byte arrays as arrays of numbers.
+   */
+  String BINARY = "BINARY";
+
+  String BINARY_BASE64 = "base64";
+
+  String BINARY_ARRAY = "array";
+
+  /**
+   * Maximum size of a single binary (in bytes) or large text (in characters)
+   * value; encoding fails with an {@link IllegalArgumentException} if exceeded.
+   * Not limited by default.
+   */
+  String MAX_LOB_SIZE = "MAX_LOB_SIZE";
+
+  /**
+   * How NaN and infinite numbers, which are not valid JSON, are encoded, in rows
+   * as well as in the attributes of headers and relations: as null (the
+   * default), as the strings "NaN", "Infinity" and "-Infinity", or failing the
+   * encoding. Set to one of the {@link JsonNumbers.NonFinite} values or their
+   * names (case-insensitive).
+   */
+  String NON_FINITE = "NON_FINITE";
+
+  /**
+   * Fingerprints of the result headers (metadata and columns) which the client
+   * already has, as a collection, array or comma-separated string. When set
+   * (even to an empty collection), encoded results carry the fingerprint of their
+   * header as <code>$s</code>, and the header itself is omitted if its fingerprint
+   * is known. Headers can be fetched by fingerprint from {@link Structures}.
+   */
+  String KNOWN_STRUCTURES = "KNOWN_STRUCTURES";
+
+  /**
+   * When true, the attributes of results, relations and columns, and the keys
+   * of map and JSON object values, are written in sorted order instead of the
+   * iteration order of their maps, so that the same result is always encoded
+   * identically (e.g. for its {@link #DIGEST} to be usable as an ETag). False
+   * by default.
+   */
+  String SORT_ATTRIBUTES = "SORT_ATTRIBUTES";
+
+  /**
+   * An {@link EncodeDigest} to compute the hash of the encoded output in, as
+   * it is written.
+   */
+  String DIGEST = "DIGEST";
+
+  /**
+   * When true and a {@link #DIGEST} is set, the hash of the encoded output is
+   * also written at its end, as <code>$h</code>, for streamed outputs (not
+   * written when encoding only rows). The hash then covers the output preceding
+   * the trailer.
+   */
+  String DIGEST_TRAILER = "DIGEST_TRAILER";
+
+  /**
+   * An {@link EncodeCancellation} token through which the encode call can be
+   * cancelled; on cancellation, encoding stops with an {@link EncodeCancelledException}.
+   */
+  String CANCELLATION = "CANCELLATION";
+
+  /**
+   * Deadline of the encode call, as an {@link java.time.Instant}, or as a
+   * {@link java.time.Duration} or number of milliseconds from the start of the
+   * call; encoding stops with an {@link EncodeCancelledException} once passed.
+   * Can be combined with {@link #CANCELLATION}.
+   */
+  String DEADLINE = "DEADLINE";
+
+  /**
+   * Number of rows between checks for cancellation and deadlines (default 64).
+   */
+  String CANCELLATION_CHECK_INTERVAL = "CANCELLATION_CHECK_INTERVAL";
+
+  /**
+   * An {@link EncoderListener} to notify with the measurements of this encode
+   * call, in addition to the listeners registered in {@link EncoderMetrics}.
+   */
+  String METRICS_LISTENER = "METRICS_LISTENER";
 }
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.semantic.type.Relation;
+import ma.vi.esql.semantic.type.Structure;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * A bundle of the encoded structures of many (or all) relations of a database,
+ * for clients to download in one request when starting, instead of requesting
+ * the structure of each relation separately. The relations are encoded in
+ * parallel on an executor and written, in order of their names, in the batch
+ * envelope of the encoder (a JSON array for {@link JsonResultEncoder}).
+ *
+ * <p>The encoding of each relation is kept between builds and the bundle is
+ * rebuilt incrementally: only the relations which have been replaced in the
+ * structure (a different {@link Relation} instance under the same name), added
+ * or explicitly invalidated (with {@link #invalidate(String)}, such as after
+ * their definitions are altered) are encoded again, the others being copied from
+ * their previous encoding. Each change to the bundle increments its version, and
+ * the bundle carries an entity tag for clients to cache it by.</p>
+ *
+ * <p>A bundle builder keeps the encodings of the relations it was last built
+ * with; separate builders should be used for bundles of different sets of
+ * relations. Builders are thread-safe, builds being done one at a time.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class StructureBundle {
+  /**
+   * Creates a bundle builder.
+   * @param encoder The encoder to encode relations with.
+   * @param params Parameters to control the encoding of each relation.
+   * @param executor Executor to encode the relations in parallel on, or null to
+   *                 encode them sequentially.
+   */
+  public StructureBundle(ResultEncoder encoder,
+                         Configuration params,
+                         Executor      executor) {
+    this.encoder = encoder;
+    this.params = params;
+    this.executor = executor;
+  }
+
+  /**
+   * Builds the bundle of all the relations in the structure, re-encoding only
+   * those which have changed since the last build.
+   */
+  public Bundle build(Structure structure) {
+    return build(structure.relations().values());
+  }
+
+  /**
+   * Builds the bundle of the relations, re-encoding only those which have
+   * changed since the last build. Relations of the last build not in this one
+   * are removed from the bundle.
+   */
+  public synchronized Bundle build(Collection<Relation> relations) {
+    SortedMap<String, Relation> sorted = new TreeMap<>();
+    for (Relation relation: relations) sorted.put(relation.name(), relation);
+
+    /*
+     * The parts of the new bundle are collected apart and replace those of the
+     * last build only once all encodings have succeeded, so that a failed build
+     * leaves the builder as it was.
+     */
+    SortedMap<String, Part> built = new TreeMap<>();
+    Map<String, CompletableFuture<byte[]>> encodings = new LinkedHashMap<>();
+    for (Map.Entry<String, Relation> e: sorted.entrySet()) {
+      Part part = parts.get(e.getKey());
+      if (part != null && part.relation == e.getValue()) {
+        built.put(e.getKey(), part);
+      } else {
+        Relation relation = e.getValue();
+        encodings.put(e.getKey(), executor == null
+                                ? CompletableFuture.completedFuture(encoder.encodeToBytes(relation, params))
+                                : CompletableFuture.supplyAsync(() -> encoder.encodeToBytes(relation, params), executor));
+      }
+    }
+    for (Map.Entry<String, CompletableFuture<byte[]>> e: encodings.entrySet()) {
+      byte[] encoded;
+      try {
+        encoded = e.getValue().join();
+      } catch (CompletionException ce) {
+        throw ce.getCause() instanceof RuntimeException re ? re : ce;
+      }
+      built.put(e.getKey(), new Part(sorted.get(e.getKey()), encoded));
+    }
+
+    if (bundle == null || dirty || !encodings.isEmpty() || !built.keySet().equals(parts.keySet())) {
+      Bundle assembled = assemble(built, bundle == null ? 1 : bundle.version + 1);
+      parts = built;
+      bundle = assembled;
+      dirty = false;
+    }
+    return bundle;
+  }
+
+  /**
+   * The last bundle built, or null if none has been built yet.
+   */
+  public synchronized Bundle current() {
+    return bundle;
+  }
+
+  /**
+   * Marks the relation to be encoded again on the next build, when its definition
+   * has changed without it being replaced in the structure.
+   */
+  public synchronized void invalidate(String relation) {
+    if (parts.remove(relation) != null) dirty = true;
+  }
+
+  /**
+   * Marks all relations to be encoded again on the next build.
+   */
+  public synchronized void invalidateAll() {
+    if (!parts.isEmpty()) dirty = true;
+    parts.clear();
+  }
+
+  /**
+   * Writes the encodings of the relations, in order of their names, in the
+   * batch envelope of the encoder.
+   */
+  private Bundle assemble(SortedMap<String, Part> parts, long version) {
+    int size = 0;
+    for (Part part: parts.values()) size += part.encoded.length;
+    try (EncodeBuffer buffer = new EncodeBuffer(size + 16 * (parts.size() + 1))) {
+      encoder.beginBatch(parts.size(), buffer, params);
+      boolean first = true;
+      for (Part part: parts.values()) {
+        if (first) first = false;
+        else       encoder.separateBatch(buffer, params);
+        buffer.write(part.encoded, 0, part.encoded.length);
+      }
+      encoder.endBatch(buffer, params);
+      byte[] data = buffer.toByteArray();
+      return new Bundle(version, EncodeDigest.etag(data, 0, data.length), parts.size(), data);
+    } catch (IOException ioe) {
+      throw new RuntimeException(ioe);
+    }
+  }
+
+  /**
+   * An encoded bundle of relations.
+   */
+  public static final class Bundle {
+    private Bundle(long version, String etag, int relations, byte[] data) {
+      this.version = version;
+      this.etag = etag;
+      this.relations = relations;
+      this.data = data;
+    }
+
+    /**
+     * Version of the bundle, incremented each time the bundle changes.
+     */
+    public long version() {
+      return version;
+    }
+
+    /**
+     * Entity tag of the bundle (as computed by {@link EncodeDigest}), such as
+     * for the HTTP <code>ETag</code> header.
+     */
+    public String etag() {
+      return etag;
+    }
+
+    /**
+     * Number of relations in the bundle.
+     */
+    public int relations() {
+      return relations;
+    }
+
+    /**
+     * Size of the encoded bundle, in bytes.
+     */
+    public int size() {
+      return data.length;
+    }
+
+    /**
+     * A copy of the encoded bundle.
+     */
+    public byte[] toByteArray() {
+      return data.clone();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+      out.write(data);
+    }
+
+    private final long version;
+
+    private final String etag;
+
+    private final int relations;
+
+    private final byte[] data;
+  }
+
+  /**
+   * The encoding of a relation in the bundle.
+   */
+  private record Part(Relation relation, byte[] encoded) {}
+
+  private final ResultEncoder encoder;
+
+  private final Configuration params;
+
+  private final Executor executor;
+
+  /**
+   * Encodings of the relations in the bundle, by name.
+   */
+  private SortedMap<String, Part> parts = new TreeMap<>();
+
+  private Bundle bundle;
+
+  /**
+   * Whether relations of the last bundle have been invalidated since it was
+   * built, so that it must be assembled again even if they are not in the next
+   * build.
+   */
+  private boolean dirty;
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Fingerprints of the headers (result metadata and columns) of encoded results
+ * and the registry of the headers by fingerprint. When encoding with the
+ * {@link ResultEncoder#KNOWN_STRUCTURES} parameter, the header of a result is
+ * identified by its fingerprint (<code>$s</code>) and omitted when the client
+ * already has it; clients which do not can fetch it with {@link #header(String)}.
+ *
+ * <p>The fingerprint is a SHA-256 digest of the encoded header, truncated to 128
+ * bits and written in unpadded URL-safe base64, so it changes whenever any
+ * attribute of the result or its columns does (or the encoding parameters, such
+ * as indentation, which affect the header). The registry keeps the most recently
+ * used headers only.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class Structures {
+  private Structures() {}
+
+  /**
+   * Returns the header with the fingerprint as a JSON object (containing the
+   * <code>$m</code> and <code>columns</code> members of the encoded result), or
+   * null if no header with that fingerprint has been encoded recently.
+   */
+  public static String header(String fingerprint) {
+    byte[] header = structures.get(fingerprint);
+    return header == null ? null : "{\n" + new String(header, UTF_8) + "\n}";
+  }
+
+  /**
+   * Removes all headers from the registry.
+   */
+  public static void clear() {
+    structures.clear();
+  }
+
+  /**
+   * Computes the fingerprint of the encoded header, registering it if new.
+   */
+  static String register(EncodeBuffer header) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update(header.view());
+    String fingerprint = ENCODER.encodeToString(Arrays.copyOf(digest.digest(), FINGERPRINT_BYTES));
+    if (!structures.containsKey(fingerprint)) {
+      structures.put(fingerprint, header.toByteArray());
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Whether the fingerprint is one of the known structures, specified as a
+   * collection, array or comma-separated string of fingerprints.
+   */
+  static boolean isKnown(String fingerprint, Object known) {
+    if (known instanceof Collection<?> col) {
+      return col.contains(fingerprint);
+    } else if (known instanceof Object[] array) {
+      for (Object f: array) {
+        if (fingerprint.equals(f)) return true;
+      }
+      return false;
+    } else {
+      for (String f: known.toString().split(",")) {
+        if (fingerprint.equals(f.trim())) return true;
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Number of bytes of the digest kept in the fingerprint.
+   */
+  private static final int FINGERPRINT_BYTES = 16;
+
+  /**
+   * Maximum number of headers kept in the registry.
+   */
+  private static final int MAX_STRUCTURES = 1024;
+
+  private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+  private static final Map<String, byte[]> structures = Collections.synchronizedMap(
+      new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+          return size() > MAX_STRUCTURES;
+        }
+      });
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+import static ma.vi.esql.translation.Translatable.Target;
+
+/**
+ * Memoizes the values of literals and the translations of expressions encoded
+ * as attribute values, per target, so that encoding the header of a result or
+ * the structure of a relation repeatedly only evaluates each of their constant
+ * attributes once. Expressions are keyed by identity and weakly referenced, so
+ * that the entries of structures no longer in use are dropped.
+ *
+ * <p>Only the attributes (and derived column expressions) of relations and
+ * columns are memoized, through {@link JsonOptions#memoize}: their expressions
+ * belong to the structure and are replaced, not changed, when it is altered, so
+ * an expression object always has the same value. Other values, such as those
+ * of rows, are evaluated on each encoding.</p>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class TranslationCache {
+  private TranslationCache() {}
+
+  /**
+   * Returns the memoized value of the expression for the target, or
+   * {@link #MISSING} if it has not been evaluated yet.
+   */
+  static Object get(Object expression, Target target) {
+    Object value = cache.get(new Key(expression, target, null));
+    return value == null ? MISSING
+         : value == NULL ? null
+         : value;
+  }
+
+  /**
+   * Returns the memoized value of the expression for the target, evaluating it
+   * and memoizing its value if it has not been evaluated yet.
+   */
+  static Object computeIfAbsent(Object                             expression,
+                                Target                             target,
+                                BiFunction<Object, Target, Object> evaluator) {
+    Object value = get(expression, target);
+    if (value == MISSING) {
+      value = evaluator.apply(expression, target);
+      put(expression, target, value);
+    }
+    return value;
+  }
+
+  static void put(Object expression, Target target, Object value) {
+    purge();
+    cache.put(new Key(expression, target, queue), value == null ? NULL : value);
+  }
+
+  /**
+   * Number of memoized values, after dropping those of expressions which are
+   * no longer reachable.
+   */
+  static int size() {
+    purge();
+    return cache.size();
+  }
+
+  static void clear() {
+    cache.clear();
+  }
+
+  private static void purge() {
+    Reference<?> stale;
+    while ((stale = queue.poll()) != null) {
+      cache.remove(stale);
+    }
+  }
+
+  /**
+   * Weak identity key of an expression and target.
+   */
+  private static final class Key extends WeakReference<Object> {
+    Key(Object expression, Target target, ReferenceQueue<Object> queue) {
+      super(expression, queue);
+      this.target = target;
+      this.hash = System.identityHashCode(expression) * 31 + target.ordinal();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key k) || k.target != target) return false;
+      Object expression = get();
+      return expression != null && expression == k.get();
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    private final Target target;
+    private final int hash;
+  }
+
+  /**
+   * Returned by {@link #get} when there is no memoized value.
+   */
+  static final Object MISSING = new Object();
+
+  /**
+   * Stands for memoized null values.
+   */
+  private static final Object NULL = new Object();
+
+  private static final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+  private static final Map<Key, Object> cache = new ConcurrentHashMap<>();
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the selection of attributes and of the language of multi-language
+ * attribute values by {@link AttributeSelection}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class AttributeSelectionTest {
+  @Test
+  void notSet() {
+    assertNull(AttributeSelection.of(Configuration.EMPTY));
+  }
+
+  @Test
+  void allowAndDeny() {
+    AttributeSelection selection = AttributeSelection.of(Configuration.of(ResultEncoder.ATTRIBUTES, "label, type, values",
+                                                                          ResultEncoder.EXCLUDE_ATTRIBUTES, List.of("values")));
+    assertTrue(selection.includes("label"));
+    assertTrue(selection.includes("type"));
+    assertFalse(selection.includes("values"));
+    assertFalse(selection.includes("description"));
+    assertSame("x", selection.localize("x"));
+
+    selection = AttributeSelection.of(Configuration.of(ResultEncoder.EXCLUDE_ATTRIBUTES, new String[]{"description"}));
+    assertTrue(selection.includes("label"));
+    assertFalse(selection.includes("description"));
+  }
+
+  @Test
+  void localize() {
+    Map<String, Object> label = Map.of("en", "Any", "fr", "Une ou plusieurs", "fr_CA", "Au moins une");
+    assertEquals("Une ou plusieurs", locale("fr").localize(label));
+    assertEquals("Une ou plusieurs", locale("fr-FR").localize(label));
+    assertEquals("Au moins une", locale("fr-CA").localize(label));
+    assertEquals("Any", locale("en_GB").localize(label));
+    assertEquals("Au moins une", locale("fr").localize(Map.of("en", "Any", "fr-CA", "Au moins une")));
+    assertEquals("Any", AttributeSelection.of(Configuration.of(ResultEncoder.LOCALE, Locale.ENGLISH)).localize(label));
+
+    /*
+     * No value for the locale: fallback, or unchanged.
+     */
+    assertSame(label, locale("de").localize(label));
+    assertEquals("Any", AttributeSelection.of(Configuration.of(ResultEncoder.LOCALE, "de",
+                                                               ResultEncoder.FALLBACK_LOCALE, "en")).localize(label));
+
+    /*
+     * Maps not keyed by language are not collapsed.
+     */
+    Map<String, Object> values = Map.of("any", label, "all", Map.of("en", "All", "fr", "Toutes"));
+    assertSame(values, locale("fr").localize(values));
+    Map<String, Object> mixed = Map.of("fr", 1, "max", 2);
+    assertSame(mixed, locale("fr").localize(mixed));
+
+    /*
+     * Maps keyed by language codes which are not multi-language values: ids
+     * ("id" is Indonesian, "to" Tongan), and codes not in ISO 639-1.
+     */
+    Map<String, Object> link = Map.of("id", 42, "to", 43);
+    assertSame(link, locale("id").localize(link));
+    assertSame(link, locale("to").localize(link));
+    Map<String, Object> codes = Map.of("zz", "first", "qq", "second");
+    assertSame(codes, locale("zz").localize(codes));
+    assertEquals("Selamat", locale("id").localize(Map.of("id", "Selamat", "en", "Welcome")));
+    assertSame(Map.of(), locale("fr").localize(Map.of()));
+  }
+
+  @Test
+  void invalidLocale() {
+    assertThrows(IllegalArgumentException.class,
+                 () -> AttributeSelection.of(Configuration.of(ResultEncoder.LOCALE, "*")));
+  }
+
+  private static AttributeSelection locale(String locale) {
+    return AttributeSelection.of(Configuration.of(ResultEncoder.LOCALE, locale));
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class EncodeBufferTest {
+  @Test
+  void encodesAsUtf8() throws Exception {
+    String[] samples = {
+        "",
+        "plain ascii",
+        "accentu\u00e9, \u0395\u03bb\u03bb\u03b7\u03bd\u03b9\u03ba\u03ac, \u4e2d\u6587",
+        "emoji \uD83D\uDE00 pair",
+        "lone \uD83D high",
+        "lone \uDE00 low",
+        "trailing high \uD83D"
+    };
+    for (String s: samples) {
+      try (EncodeBuffer buffer = EncodeBufferPool.acquire(16)) {
+        buffer.write(s);
+        assertArrayEquals(s.getBytes(UTF_8), buffer.toByteArray());
+        assertEquals(new String(s.getBytes(UTF_8), UTF_8), buffer.toString());
+      }
+    }
+  }
+
+  @Test
+  void growsAcrossWrites() throws Exception {
+    Random random = new Random(7);
+    StringBuilder expected = new StringBuilder();
+    try (EncodeBuffer buffer = EncodeBufferPool.acquire(1)) {
+      for (int i = 0; i < 10_000; i++) {
+        char c = (char)(random.nextInt(4) == 0 ? 0x80 + random.nextInt(0xD000) : 0x20 + random.nextInt(0x5F));
+        expected.append(c);
+        if (i % 3 == 0) buffer.write(c);
+        else            buffer.write(new char[]{c}, 0, 1);
+      }
+      assertArrayEquals(expected.toString().getBytes(UTF_8), buffer.toByteArray());
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      buffer.writeTo(out);
+      assertArrayEquals(expected.toString().getBytes(UTF_8), out.toByteArray());
+    }
+  }
+
+  @Test
+  void reusesPooledBuffers() {
+    EncodeBuffer buffer = EncodeBufferPool.acquire(4096);
+    buffer.write("some content");
+    buffer.close();
+
+    try (EncodeBuffer reused = EncodeBufferPool.acquire(4000)) {
+      assertSame(buffer, reused);
+      assertEquals(0, reused.size());
+    }
+  }
+
+  @Test
+  void poolsBuffersUpToLargestClass() {
+    EncodeBuffer largest = EncodeBufferPool.acquire(4 << 20);
+    assertEquals(4 << 20, largest.capacity());
+    largest.close();
+    EncodeBuffer reused = EncodeBufferPool.acquire(4 << 20);
+    assertSame(largest, reused);
+
+    /*
+     * Grown beyond the largest size class: not kept.
+     */
+    reused.write(new byte[(4 << 20) + 1], 0, (4 << 20) + 1);
+    assertTrue(reused.capacity() > 4 << 20);
+    reused.close();
+    try (EncodeBuffer other = EncodeBufferPool.acquire(4 << 20)) {
+      assertNotSame(reused, other);
+      assertEquals(4 << 20, other.capacity());
+    }
+  }
+
+  @Test
+  void estimatesFromRecentSizes() {
+    assertEquals(1024 + 10 * 256, EncodeBufferPool.estimate("a,b,c,", 10));
+    EncodeBufferPool.record("a,b,c,", 80_000);
+    assertTrue(EncodeBufferPool.estimate("a,b,c,", 10) >= 80_000);
+  }
+}
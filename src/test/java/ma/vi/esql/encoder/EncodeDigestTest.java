@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the incremental hashing of encoded output by {@link EncodeDigest}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class EncodeDigestTest {
+  @Test
+  void hashesUtf8AsWritten() throws Exception {
+    /*
+     * Multi-byte characters and surrogate pairs split across writes and across
+     * the staging buffer of the digest.
+     */
+    Random random = new Random(11);
+    String[] parts = {"a", "\u00e9", "\u20ac", "\ud83d\ude00", "[1, \"x\"]", "\n"};
+    StringBuilder text = new StringBuilder();
+    while (text.length() < 50_000) text.append(parts[random.nextInt(parts.length)]);
+    String expected = text.toString();
+
+    EncodeDigest digest = new EncodeDigest();
+    StringWriter out = new StringWriter();
+    EncodeDigest.DigestWriter writer = digest.start(out);
+    for (int i = 0; i < expected.length(); ) {
+      int n = Math.min(expected.length() - i, 1 + random.nextInt(10_000));
+      if (n % 2 == 0) writer.write(expected.charAt(i++));
+      else {
+        writer.write(expected, i, n);
+        i += n;
+      }
+    }
+    assertThrows(IllegalStateException.class, digest::etag);
+    writer.finish();
+    writer.write("not hashed");
+
+    byte[] bytes = expected.getBytes(UTF_8);
+    byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+    assertArrayEquals(hash, digest.value());
+    assertEquals(bytes.length, digest.size());
+    assertEquals(Base64.getUrlEncoder().withoutPadding().encodeToString(hash), digest.hash());
+    assertEquals('"' + digest.hash() + '"', digest.etag());
+    assertEquals(digest.etag(), EncodeDigest.etag(bytes, 0, bytes.length));
+    assertEquals(expected + "not hashed", out.toString());
+  }
+
+  @Test
+  void resetsOnReuse() throws Exception {
+    EncodeDigest digest = new EncodeDigest("MD5");
+    Writer writer = digest.start(new StringWriter());
+    writer.write("first");
+    writer.close();
+    String first = digest.etag();
+
+    EncodeDigest.DigestWriter again = digest.start(new StringWriter());
+    again.write("second");
+    again.finish();
+    assertNotEquals(first, digest.etag());
+    assertEquals(6, digest.size());
+
+    assertThrows(IllegalArgumentException.class, () -> new EncodeDigest("NO-SUCH-HASH"));
+  }
+}
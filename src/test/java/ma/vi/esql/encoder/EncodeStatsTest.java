@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the metering of the output of encodings by {@link EncodeStats}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class EncodeStatsTest {
+  @Test
+  void unsampledTimesFlushesOnly() throws IOException {
+    EncodeStats stats = new EncodeStats("Test", "result", false);
+    StringWriter target = new StringWriter();
+    Writer out = stats.meter(new SlowWriter(target));
+    write(out);
+    assertEquals("[1, \"\u00e9\u20ac\"]x", target.toString());
+    assertEquals(13, stats.bytes());
+    assertEquals(0, stats.sinkWaitNanos());
+
+    out.flush();
+    assertTrue(stats.sinkWaitNanos() >= DELAY);
+  }
+
+  @Test
+  void sampledTimesWrites() throws IOException {
+    EncodeStats stats = new EncodeStats("Test", "result", true);
+    StringWriter target = new StringWriter();
+    Writer out = stats.meter(new SlowWriter(target));
+    write(out);
+    assertEquals("[1, \"\u00e9\u20ac\"]x", target.toString());
+    assertEquals(13, stats.bytes());
+    assertTrue(stats.sinkWaitNanos() >= 3 * DELAY);
+  }
+
+  private static void write(Writer out) throws IOException {
+    out.write("[1, ");
+    out.write(new char[]{'"', '\u00e9', '\u20ac', '"', ']'}, 0, 5);
+    out.write('x');
+  }
+
+  /**
+   * Writer taking at least {@link #DELAY} nanoseconds for each write and flush.
+   */
+  private static class SlowWriter extends Writer {
+    SlowWriter(Writer out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) throws IOException {
+      pause();
+      out.write(buf, off, len);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+      pause();
+      out.write(c);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      pause();
+      out.write(str, off, len);
+    }
+
+    @Override
+    public void flush() {
+      pause();
+    }
+
+    @Override
+    public void close() {}
+
+    private static void pause() {
+      long start = System.nanoTime();
+      while (System.nanoTime() - start < DELAY) Thread.onSpinWait();
+    }
+
+    private final Writer out;
+  }
+
+  private static final long DELAY = 1_000_000;
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.exec.Result;
+import ma.vi.esql.semantic.type.Relation;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests {@link EncodedResultCache} with an encoder counting its encodings.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class EncodedResultCacheTest {
+  @Test
+  void hitsSkipExecutionAndEncoding() {
+    EncodedResultCache cache = new EncodedResultCache(encoder, 1 << 20, Duration.ofMinutes(1), false);
+    assertEquals("[1]", encode(cache, "select a  from\n test.X", List.of(1)));
+    assertEquals("[1]", encode(cache, " select a from test.X ", new Object[]{1}));
+    assertEquals(1, executions.get());
+    assertEquals(1, cache.hits());
+
+    assertEquals("[2]", encode(cache, "select a from test.X", List.of(2)));
+    assertEquals("[3]", encode(cache, "select a from test.X where b='x  y'", null));
+    assertEquals("[4]", encode(cache, "select a from test.X where b='x y'", null));
+    assertEquals(4, cache.misses());
+  }
+
+  @Test
+  void invalidatesByTable() {
+    EncodedResultCache cache = new EncodedResultCache(encoder, 1 << 20, Duration.ofMinutes(1), false);
+    encode(cache, "select a from test.X", null);
+    cache.encode("select b from test.Y", null, Configuration.EMPTY, Set.of("test.Y"), execute, new ByteArrayOutputStream());
+    assertEquals(2, cache.count());
+    cache.invalidate("test.X");
+    assertEquals(1, cache.count());
+    assertEquals("[3]", encode(cache, "select a from test.X", null));
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedAndExpired() throws Exception {
+    EncodedResultCache cache = new EncodedResultCache(encoder, 8, Duration.ofMinutes(1), false);
+    encode(cache, "q1", null);
+    encode(cache, "q2", null);
+    encode(cache, "q1", null);
+    encode(cache, "q3", null);
+    assertEquals(2, cache.count());
+    assertTrue(cache.size() <= 8);
+    assertEquals("[1]", encode(cache, "q1", null));
+    assertEquals("[4]", encode(cache, "q2", null));
+
+    cache = new EncodedResultCache(encoder, 1 << 20, Duration.ofMillis(1), false);
+    encode(cache, "q1", null);
+    Thread.sleep(5);
+    assertEquals("[6]", encode(cache, "q1", null));
+  }
+
+  @Test
+  void compresses() throws IOException {
+    EncodedResultCache cache = new EncodedResultCache(encoder, 1 << 20, Duration.ofMinutes(1), true);
+    assertEquals("[1]", encode(cache, "q", null));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    cache.encodeCompressed("q", null, Configuration.EMPTY, Set.of(), execute, out);
+    try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      assertEquals("[1]", new String(in.readAllBytes(), UTF_8));
+    }
+    assertEquals(1, executions.get());
+  }
+
+  @Test
+  void etags() {
+    EncodedResultCache cache = new EncodedResultCache(encoder, 1 << 20, Duration.ofMinutes(1), true);
+    String etag = cache.etag("q", null, Configuration.EMPTY, Set.of(), execute);
+    assertEquals(EncodeDigest.etag("[1]".getBytes(UTF_8), 0, 3), etag);
+    assertEquals("[1]", encode(cache, "q", null));
+    assertEquals(etag, cache.etag("q", null, Configuration.EMPTY, Set.of(), execute));
+    assertEquals(1, executions.get());
+  }
+
+  @Test
+  void keyedByOutputParameters() {
+    EncodedResultCache cache = new EncodedResultCache(encoder, 1 << 20, Duration.ofMinutes(1), false);
+    encodeWith(cache, "q", Configuration.of(ResultEncoder.COLUMNS, new String[]{"a", "b"},
+                                            ResultEncoder.METRICS_LISTENER, new Object(),
+                                            ResultEncoder.DEADLINE, Duration.ofSeconds(1)));
+
+    /*
+     * Per-call hooks are not part of the key.
+     */
+    assertEquals("[1]", encodeWith(cache, "q", Configuration.of(ResultEncoder.COLUMNS, new String[]{"a", "b"},
+                                                                ResultEncoder.METRICS_LISTENER, new Object(),
+                                                                ResultEncoder.CANCELLATION, new Object())));
+    assertEquals(1, cache.hits());
+
+    /*
+     * Parameters changing the output are.
+     */
+    assertEquals("[2]", encodeWith(cache, "q", Configuration.of(ResultEncoder.COLUMNS, new String[]{"a"})));
+    assertEquals("[3]", encodeWith(cache, "q", Configuration.of(ResultEncoder.COLUMNS, new String[]{"a", "b"},
+                                                                ResultEncoder.INDENT, 0)));
+
+    /*
+     * So are parameters unknown to the cache, such as those of custom encoders.
+     */
+    Object option = new Object();
+    assertEquals("[4]", encodeWith(cache, "q", Configuration.of(ResultEncoder.COLUMNS, new String[]{"a", "b"},
+                                                                "CUSTOM_OPTION", option)));
+    assertEquals("[4]", encodeWith(cache, "q", Configuration.of(ResultEncoder.COLUMNS, new String[]{"a", "b"},
+                                                                "CUSTOM_OPTION", option)));
+    assertEquals("[5]", encodeWith(cache, "q", Configuration.of(ResultEncoder.COLUMNS, new String[]{"a", "b"},
+                                                                "CUSTOM_OPTION", "other")));
+    assertEquals(5, cache.count());
+  }
+
+  @Test
+  void perCallHooksNotPassedToEncoder() {
+    /*
+     * An encoding shared with other calls is not cancelled by the cancellation
+     * of the call running it.
+     */
+    EncodedResultCache cache = new EncodedResultCache(encoder, 1 << 20, Duration.ofMinutes(1), false);
+    EncodeCancellation cancelled = new EncodeCancellation();
+    cancelled.cancel();
+    assertEquals("[1]", encodeWith(cache, "q", Configuration.of(ResultEncoder.INDENT, 0,
+                                                                ResultEncoder.CANCELLATION, cancelled,
+                                                                ResultEncoder.DEADLINE, Duration.ZERO,
+                                                                ResultEncoder.METRICS_LISTENER, new Object())));
+    assertEquals(Configuration.of(ResultEncoder.INDENT, 0), encoded);
+
+    /*
+     * Digests would not be filled on hits.
+     */
+    assertThrows(IllegalArgumentException.class,
+                 () -> encodeWith(cache, "q", Configuration.of(ResultEncoder.DIGEST, new EncodeDigest())));
+    assertEquals(1, executions.get());
+  }
+
+  @Test
+  void encodesConcurrentMissesOnce() throws Exception {
+    EncodedResultCache cache = new EncodedResultCache(encoder, 1 << 20, Duration.ofMinutes(1), false);
+    CountDownLatch release = new CountDownLatch(1);
+    Supplier<Result> slow = () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return execute.get();
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<String>> encodings = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        encodings.add(executor.submit(() -> {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          cache.encode("q", null, Configuration.EMPTY, Set.of(), slow, out);
+          return out.toString(UTF_8);
+        }));
+      }
+      Thread.sleep(50);
+      release.countDown();
+      for (Future<String> f: encodings) assertEquals("[1]", f.get());
+      assertEquals(1, executions.get());
+      assertEquals(1, cache.misses());
+      assertEquals(7, cache.hits() + cache.coalesced());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private String encode(EncodedResultCache cache, String query, Object arguments) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    cache.encode(query, arguments, Configuration.EMPTY, Set.of("test.X"), execute, out);
+    return out.toString(UTF_8);
+  }
+
+  private String encodeWith(EncodedResultCache cache, String query, Configuration params) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    cache.encode(query, null, params, Set.of("test.X"), execute, out);
+    return out.toString(UTF_8);
+  }
+
+  private final AtomicInteger executions = new AtomicInteger();
+
+  /**
+   * Parameters of the last encoding.
+   */
+  private Configuration encoded;
+
+  private final Supplier<Result> execute = () -> {
+    executions.incrementAndGet();
+    return null;
+  };
+
+  /**
+   * Encodes every result as the number of queries executed so far.
+   */
+  private final ResultEncoder encoder = new ResultEncoder() {
+    @Override
+    public void encode(Result result, Writer out, Configuration params) {
+      encoded = params;
+      try {
+        out.write("[" + executions.get() + "]");
+        out.flush();
+      } catch (IOException ioe) {
+        throw new UncheckedIOException(ioe);
+      }
+    }
+
+    @Override
+    public void encode(Relation relation, Writer out, Configuration params) {}
+  };
+}
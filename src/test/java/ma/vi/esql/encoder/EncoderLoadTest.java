@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.database.Database;
+import ma.vi.esql.database.EsqlConnection;
+import ma.vi.esql.exec.Result;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Load test of result encoders: encodes the same results from many threads at
+ * once, as when serving many parallel requests, to measure the throughput and
+ * latency of encoders under contention for their shared state (pools, caches
+ * and formats) and to detect corrupted outputs from thread-safety errors. Run
+ * it with the <code>loadTest</code> Gradle task, passing arguments in the
+ * <code>loadTestArgs</code> property, e.g.:
+ *
+ * <pre>
+ *   ./gradlew loadTest -PloadTestArgs="--threads=64 --virtual --duration=30"
+ * </pre>
+ *
+ * Arguments (all optional):
+ * <ul>
+ *   <li><code>--threads=N</code>: number of threads encoding results (default
+ *       the number of processors);</li>
+ *   <li><code>--virtual</code>: use virtual threads instead of platform threads
+ *       (on Java runtimes supporting them);</li>
+ *   <li><code>--duration=S</code> and <code>--warmup=S</code>: seconds to measure
+ *       for, after warming up for (defaults 10 and 3);</li>
+ *   <li><code>--rows=N</code>: number of rows of the fixture result (default 500);</li>
+ *   <li><code>--database=postgresql|sqlserver</code>: database to read the
+ *       fixture from (default postgresql);</li>
+ *   <li><code>--encoders=class,...</code>: encoders to test (default
+ *       {@link JsonResultEncoder});</li>
+ *   <li><code>--report=file</code>: the JSON report to write (default
+ *       build/reports/load-test/encoder.json).</li>
+ * </ul>
+ *
+ * The fixture is a table of synthetic rows (numbers, strings with characters
+ * needing escapes, booleans, dates, nulls and computed row metadata) created in
+ * the test database. Each thread reads it with its own connection and encodes
+ * it repeatedly; only the encode calls are measured. Each output is compared,
+ * by digest, with the output of a single-threaded encoding of the fixture. The
+ * report has, per encoder, the throughput, the latency percentiles and histogram,
+ * the bytes allocated per encode call and the number of corrupted outputs and
+ * errors. The process exits with status 1 if any output was corrupted or any
+ * encode call failed.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class EncoderLoadTest {
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = options(args);
+    int threads = Integer.parseInt(options.getOrDefault("threads",
+                                                        String.valueOf(Runtime.getRuntime().availableProcessors())));
+    boolean virtual = options.containsKey("virtual");
+    long duration = Long.parseLong(options.getOrDefault("duration", "10")) * 1_000_000_000L;
+    long warmup = Long.parseLong(options.getOrDefault("warmup", "3")) * 1_000_000_000L;
+    int rows = Integer.parseInt(options.getOrDefault("rows", "500"));
+    Database db = options.getOrDefault("database", "postgresql").equalsIgnoreCase("sqlserver")
+                ? Databases.SqlServer()
+                : Databases.Postgresql();
+    Path reportFile = Path.of(options.getOrDefault("report", "build/reports/load-test/encoder.json"));
+
+    createFixture(db, rows);
+    List<Object> results = new ArrayList<>();
+    boolean failed = false;
+    for (String encoderClass: options.getOrDefault("encoders", JsonResultEncoder.class.getName()).split(",")) {
+      ResultEncoder encoder = (ResultEncoder)Class.forName(encoderClass.trim()).getDeclaredConstructor().newInstance();
+      Map<String, Object> result = run(encoder, db, threads, virtual, warmup, duration);
+      result.put("encoder", encoder.getClass().getName());
+      results.add(result);
+      failed |= (Long)result.get("corrupted") > 0 || (Long)result.get("errors") > 0;
+      System.out.println(JsonResultEncoder.toJson(result, 2));
+    }
+
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("database", db.target().toString());
+    report.put("threads", threads);
+    report.put("virtual", virtual);
+    report.put("rows", rows);
+    report.put("durationSeconds", duration / 1_000_000_000L);
+    report.put("java", System.getProperty("java.version"));
+    report.put("processors", Runtime.getRuntime().availableProcessors());
+    report.put("results", results);
+    if (reportFile.getParent() != null) Files.createDirectories(reportFile.getParent());
+    Files.writeString(reportFile, JsonResultEncoder.toJson(report, 2), UTF_8);
+    System.out.println("Report written to " + reportFile.toAbsolutePath());
+    System.exit(failed ? 1 : 0);
+  }
+
+  /**
+   * Encodes the fixture from the threads for the duration, after warming up,
+   * returning the measurements.
+   */
+  private static Map<String, Object> run(ResultEncoder encoder,
+                                         Database      db,
+                                         int           threads,
+                                         boolean       virtual,
+                                         long          warmup,
+                                         long          duration) throws Exception {
+    /*
+     * Reference output, encoded by a single thread.
+     */
+    byte[] reference;
+    try (EsqlConnection con = db.esql(db.pooledConnection())) {
+      Result rs = con.exec(QUERY);
+      try {
+        reference = encoder.encodeToBytes(rs, Configuration.EMPTY);
+      } finally {
+        rs.close();
+      }
+    }
+    String expected = EncodeDigest.etag(reference, 0, reference.length);
+
+    List<Worker> workers = new ArrayList<>();
+    ExecutorService executor = executor(threads, virtual);
+    try {
+      long start = System.nanoTime();
+      long measureFrom = start + warmup;
+      long end = measureFrom + duration;
+      List<Future<?>> running = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        Worker worker = new Worker(encoder, db, expected, measureFrom, end);
+        workers.add(worker);
+        running.add(executor.submit(worker));
+      }
+      for (Future<?> f: running) f.get();
+    } finally {
+      executor.shutdown();
+    }
+
+    /*
+     * Merge the measurements of the workers.
+     */
+    long count = 0, corrupted = 0, errors = 0, allocated = 0, allocationSamples = 0;
+    String firstError = null;
+    for (Worker w: workers) {
+      count += w.count;
+      corrupted += w.corrupted;
+      errors += w.errors;
+      allocated += w.allocated;
+      allocationSamples += w.allocationSamples;
+      if (firstError == null) firstError = w.firstError;
+    }
+    long[] latencies = new long[(int)count];
+    int n = 0;
+    for (Worker w: workers) {
+      System.arraycopy(w.latencies, 0, latencies, n, w.count);
+      n += w.count;
+    }
+    Arrays.sort(latencies);
+
+    double seconds = duration / 1e9;
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("encodes", count);
+    result.put("encodesPerSecond", count / seconds);
+    result.put("megabytesPerSecond", count * reference.length / seconds / (1024 * 1024));
+    result.put("outputBytes", reference.length);
+
+    Map<String, Object> latency = new LinkedHashMap<>();
+    latency.put("p50", percentile(latencies, 0.5) / 1000.0);
+    latency.put("p99", percentile(latencies, 0.99) / 1000.0);
+    latency.put("p999", percentile(latencies, 0.999) / 1000.0);
+    latency.put("max", latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1000.0);
+    latency.put("histogram", histogram(latencies));
+    result.put("latencyMicros", latency);
+
+    result.put("bytesAllocatedPerEncode", allocationSamples == 0 ? null : allocated / allocationSamples);
+    result.put("allocationMegabytesPerSecond", allocationSamples == 0 ? null
+                                             : (double)allocated / allocationSamples * count / seconds / (1024 * 1024));
+    result.put("corrupted", corrupted);
+    result.put("errors", errors);
+    result.put("firstError", firstError);
+    return result;
+  }
+
+  /**
+   * A thread encoding the fixture repeatedly until the end of the test, recording
+   * the measurements of the calls made after the warm-up.
+   */
+  private static class Worker implements Runnable {
+    Worker(ResultEncoder encoder, Database db, String expected, long measureFrom, long end) {
+      this.encoder = encoder;
+      this.db = db;
+      this.expected = expected;
+      this.measureFrom = measureFrom;
+      this.end = end;
+    }
+
+    @Override
+    public void run() {
+      try (EsqlConnection con = db.esql(db.pooledConnection())) {
+        long now;
+        while ((now = System.nanoTime()) < end) {
+          boolean measured = now >= measureFrom;
+          Result rs = null;
+          try {
+            rs = con.exec(QUERY);
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            byte[] encoded = encoder.encodeToBytes(rs, Configuration.EMPTY);
+            long latency = System.nanoTime() - start;
+            long allocatedAfter = allocatedBytes();
+            if (measured) {
+              if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+              latencies[count++] = latency;
+              if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+                allocated += allocatedAfter - allocatedBefore;
+                allocationSamples++;
+              }
+              if (!expected.equals(EncodeDigest.etag(encoded, 0, encoded.length))) {
+                corrupted++;
+              }
+            }
+          } catch (RuntimeException e) {
+            if (measured) error(e);
+          } finally {
+            if (rs != null) rs.close();
+          }
+        }
+      } catch (RuntimeException e) {
+        error(e);
+      }
+    }
+
+    private void error(RuntimeException e) {
+      errors++;
+      if (firstError == null) firstError = e.toString();
+    }
+
+    private final ResultEncoder encoder;
+    private final Database db;
+    private final String expected;
+    private final long measureFrom;
+    private final long end;
+
+    private long[] latencies = new long[1024];
+    private int count;
+    private long corrupted;
+    private long errors;
+    private String firstError;
+    private long allocated;
+    private long allocationSamples;
+  }
+
+  /**
+   * Creates the fixture table and fills it with synthetic rows.
+   */
+  private static void createFixture(Database db, int rows) {
+    try (EsqlConnection con = db.esql(db.pooledConnection())) {
+      con.exec("drop table test.LoadTest");
+      con.exec("""
+             create table test.LoadTest drop undefined(
+               _id uuid not null,
+               a int {
+                 label: 'A',
+                 positive: a > 0
+               },
+               b double,
+               c string,
+               d bool,
+               e datetime,
+               f int,
+               g string,
+               primary key(_id)
+             )""");
+      StringBuilder insert = new StringBuilder();
+      for (int i = 0; i < rows; i++) {
+        if (insert.isEmpty()) {
+          insert.append("insert into test.LoadTest(_id, a, b, c, d, e, f, g) values ");
+        } else {
+          insert.append(", ");
+        }
+        insert.append("(newid(), ").append(i - rows / 2)
+              .append(", ").append(i * 1.25)
+              .append(", 'name \"").append(i).append("\" \u00e9\u00e0 </tag> a\\b\t'")
+              .append(", ").append(i % 2 == 0)
+              .append(", now()")
+              .append(", ").append(i % 3 == 0 ? "null" : String.valueOf(i))
+              .append(", ").append(i % 5 == 0 ? "'" + "x".repeat(200) + "'" : "null")
+              .append(')');
+        if (insert.length() > 16_000 || i == rows - 1) {
+          con.exec(insert.toString());
+          insert.setLength(0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Executor running each worker on its own platform or virtual thread.
+   */
+  private static ExecutorService executor(int threads, boolean virtual) {
+    if (virtual) {
+      try {
+        return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Virtual threads are not supported by Java "
+                                      + System.getProperty("java.version"), e);
+      }
+    }
+    return Executors.newFixedThreadPool(threads);
+  }
+
+  /**
+   * Bytes allocated by the current thread so far, or -1 if not measurable
+   * (such as for virtual threads on some runtimes).
+   */
+  private static long allocatedBytes() {
+    return THREADS instanceof com.sun.management.ThreadMXBean threads
+         ? threads.getCurrentThreadAllocatedBytes()
+         : -1;
+  }
+
+  /**
+   * The latency (in nanoseconds) under which the fraction q of the sorted
+   * latencies fall.
+   */
+  private static long percentile(long[] sorted, double q) {
+    if (sorted.length == 0) return 0;
+    int i = (int)Math.ceil(q * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+  }
+
+  /**
+   * Counts of the sorted latencies in buckets of powers of 2 microseconds, as
+   * a list of {le: upper bound in microseconds, count}, omitting empty buckets.
+   */
+  private static List<Object> histogram(long[] sorted) {
+    List<Object> buckets = new ArrayList<>();
+    long bound = 1;
+    int i = 0;
+    while (i < sorted.length) {
+      int count = 0;
+      while (i < sorted.length && sorted[i] <= bound * 1000) {
+        count++;
+        i++;
+      }
+      if (count > 0) {
+        Map<String, Object> bucket = new LinkedHashMap<>();
+        bucket.put("le", bound);
+        bucket.put("count", count);
+        buckets.add(bucket);
+      }
+      bound *= 2;
+    }
+    return buckets;
+  }
+
+  /**
+   * Arguments of the form --name=value or --name.
+   */
+  private static Map<String, String> options(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    for (String arg: args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("Unknown argument " + arg);
+      }
+      int eq = arg.indexOf('=');
+      if (eq < 0) options.put(arg.substring(2), "true");
+      else        options.put(arg.substring(2, eq), arg.substring(eq + 1));
+    }
+    return options;
+  }
+
+  private static final String QUERY = "select a, b, c, d, e, f, g from test.LoadTest order by a";
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+}
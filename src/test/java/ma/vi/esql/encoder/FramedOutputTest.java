@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the multiplexing of streams by {@link FramedOutput} and their
+ * reassembly by {@link FrameReader}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class FramedOutputTest {
+  @Test
+  void reassemblesInterleavedStreams() throws Exception {
+    /*
+     * Streams of different sizes, with multi-byte characters and surrogate
+     * pairs falling on frame boundaries, written concurrently.
+     */
+    Random random = new Random(11);
+    String[] parts = {"a", "\u00e9", "\u20ac", "\ud83d\ude00", "\"json\"", "\n"};
+    List<String> texts = new ArrayList<>();
+    for (int size: new int[]{10, 100_000, 0, 3000, 50_000, 1}) {
+      StringBuilder text = new StringBuilder();
+      while (text.length() < size) text.append(parts[random.nextInt(parts.length)]);
+      texts.add(text.toString());
+    }
+
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    FramedOutput framed = new FramedOutput(sink, 1000);
+    ExecutorService executor = Executors.newFixedThreadPool(texts.size());
+    try {
+      List<Future<?>> writes = new ArrayList<>();
+      for (int i = 0; i < texts.size(); i++) {
+        int stream = i;
+        writes.add(executor.submit(() -> framed.write(stream, out -> {
+          try {
+            String text = texts.get(stream);
+            for (int pos = 0; pos < text.length(); ) {
+              int n = Math.min(text.length() - pos, 1 + (pos * 31) % 700);
+              if (n % 5 == 0) out.write(text.charAt(pos++));
+              else {
+                out.write(text, pos, n);
+                pos += n;
+              }
+            }
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+        })));
+      }
+      for (Future<?> write: writes) write.get();
+    } finally {
+      executor.shutdown();
+    }
+
+    Map<Integer, String> received = new HashMap<>();
+    FrameReader frames = new FrameReader(new ByteArrayInputStream(sink.toByteArray()));
+    for (FrameReader.Frame frame = frames.next(); frame != null; frame = frames.next()) {
+      assertTrue(frame.payload().length <= 1000);
+      assertFalse(frame.isError());
+    }
+    new FrameReader(new ByteArrayInputStream(sink.toByteArray())).readAll(
+        (stream, content) -> assertNull(received.put(stream, new String(content, UTF_8))));
+
+    assertEquals(texts.size(), received.size());
+    for (int i = 0; i < texts.size(); i++) {
+      assertEquals(texts.get(i), received.get(i));
+    }
+  }
+
+  @Test
+  void smallStreamCompletesBeforeLargeOne() throws Exception {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    FramedOutput framed = new FramedOutput(sink, 16);
+    FramedOutput.Stream large = framed.open(1);
+    large.write("x".repeat(100));
+    try (FramedOutput.Stream small = framed.open(2)) {
+      small.write("small");
+    }
+    large.write("y".repeat(10));
+    large.close();
+
+    List<Integer> completed = new ArrayList<>();
+    new FrameReader(new ByteArrayInputStream(sink.toByteArray())).readAll(
+        (stream, content) -> {
+          completed.add(stream);
+          assertEquals(stream == 1 ? "x".repeat(100) + "y".repeat(10) : "small",
+                       new String(content, UTF_8));
+        });
+    assertEquals(List.of(2, 1), completed);
+  }
+
+  @Test
+  void bytesAndFlushedContent() throws Exception {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    FramedOutput framed = new FramedOutput(sink, 8);
+    FramedOutput.Stream stream = framed.open(42);
+    stream.write("\u00e9");
+    stream.outputStream().write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10});
+    stream.flush();
+    stream.close();
+    stream.close();
+    assertThrows(IllegalStateException.class, () -> stream.write("closed"));
+
+    FrameReader frames = new FrameReader(new ByteArrayInputStream(sink.toByteArray()));
+    List<Integer> lengths = new ArrayList<>();
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    for (FrameReader.Frame frame = frames.next(); frame != null; frame = frames.next()) {
+      assertEquals(42, frame.stream());
+      assertEquals(frame.payload().length == 0, frame.isEnd());
+      lengths.add(frame.payload().length);
+      content.write(frame.payload());
+    }
+    assertEquals(List.of(8, 4, 0), lengths);
+    assertArrayEquals(new byte[]{(byte)0xC3, (byte)0xA9, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10},
+                      content.toByteArray());
+  }
+
+  @Test
+  void abortedStream() {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    FramedOutput framed = new FramedOutput(sink, 4);
+    RuntimeException failure = assertThrows(RuntimeException.class,
+        () -> framed.write(3, out -> {
+          try {
+            out.write("partial content");
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+          throw new IllegalStateException("Encoding failed");
+        }));
+    assertEquals("Encoding failed", failure.getMessage());
+    framed.write(4, out -> {});
+
+    Map<Integer, String> failed = new HashMap<>();
+    List<Integer> completed = new ArrayList<>();
+    new FrameReader(new ByteArrayInputStream(sink.toByteArray())).readAll(new FrameReader.Listener() {
+      @Override
+      public void completed(int stream, byte[] content) {
+        completed.add(stream);
+        assertEquals(0, content.length);
+      }
+
+      @Override
+      public void failed(int stream, String reason) {
+        failed.put(stream, reason);
+      }
+    });
+    assertEquals(List.of(4), completed);
+    assertEquals(Map.of(3, "java.lang.IllegalStateException: Encoding failed"), failed);
+  }
+
+  @Test
+  void concurrentStreamsWithAborts() throws Exception {
+    /*
+     * Threads released together write streams of numbered lines through their
+     * own streams, flushing as they go; every third stream is aborted part way,
+     * after some of its frames have been sent.
+     */
+    int streams = 12;
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    FramedOutput framed = new FramedOutput(sink, 64);
+    CyclicBarrier start = new CyclicBarrier(streams);
+    ExecutorService executor = Executors.newFixedThreadPool(streams);
+    try {
+      List<Future<?>> writes = new ArrayList<>();
+      for (int i = 0; i < streams; i++) {
+        int id = i;
+        writes.add(executor.submit(() -> {
+          start.await();
+          FramedOutput.Stream stream = framed.open(id);
+          for (int line = 0; line < 500; line++) {
+            if (id % 3 == 2 && line == 250) {
+              stream.abort("Stream " + id + " failed");
+              return null;
+            }
+            stream.write(line(id, line));
+            if (line % 50 == 0) stream.flush();
+          }
+          stream.close();
+          return null;
+        }));
+      }
+      for (Future<?> write: writes) write.get();
+    } finally {
+      executor.shutdown();
+    }
+
+    Map<Integer, String> completed = new HashMap<>();
+    Map<Integer, String> failed = new HashMap<>();
+    new FrameReader(new ByteArrayInputStream(sink.toByteArray())).readAll(new FrameReader.Listener() {
+      @Override
+      public void completed(int stream, byte[] content) {
+        assertNull(completed.put(stream, new String(content, UTF_8)));
+      }
+
+      @Override
+      public void failed(int stream, String reason) {
+        assertNull(failed.put(stream, reason));
+      }
+    });
+
+    for (int i = 0; i < streams; i++) {
+      if (i % 3 == 2) {
+        assertFalse(completed.containsKey(i));
+        assertEquals("Stream " + i + " failed", failed.get(i));
+      } else {
+        StringBuilder expected = new StringBuilder();
+        for (int line = 0; line < 500; line++) expected.append(line(i, line));
+        assertEquals(expected.toString(), completed.get(i));
+        assertFalse(failed.containsKey(i));
+      }
+    }
+    assertEquals(streams, completed.size() + failed.size());
+  }
+
+  @Test
+  void truncatedInput() throws Exception {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    FramedOutput framed = new FramedOutput(sink, 4);
+    FramedOutput.Stream stream = framed.open(1);
+    stream.write("unfinished");
+    byte[] bytes = sink.toByteArray();
+
+    assertThrows(IllegalArgumentException.class,
+        () -> new FrameReader(new ByteArrayInputStream(bytes)).readAll((s, content) -> {}));
+    assertThrows(IllegalArgumentException.class,
+        () -> new FrameReader(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 1))).readAll((s, content) -> {}));
+    assertThrows(IllegalArgumentException.class,
+        () -> new FrameReader(new ByteArrayInputStream(Arrays.copyOf(bytes, 5))).next());
+  }
+
+  @Test
+  void oversizedFrame() throws Exception {
+    ByteArrayOutputStream sink = new ByteArrayOutputStream();
+    FramedOutput framed = new FramedOutput(sink, 100);
+    try (FramedOutput.Stream stream = framed.open(1)) {
+      stream.write("x".repeat(100));
+    }
+    byte[] bytes = sink.toByteArray();
+    assertEquals(100, new FrameReader(new ByteArrayInputStream(bytes), 100).next().payload().length);
+    assertThrows(IllegalArgumentException.class,
+        () -> new FrameReader(new ByteArrayInputStream(bytes), 99).next());
+
+    /*
+     * A corrupt length is rejected without reading or allocating its payload.
+     */
+    byte[] corrupt = {0, 0, 0, 1, 0, 0x7F, (byte)0xFF, (byte)0xFF, (byte)0xFF, 1, 2, 3};
+    IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+        () -> new FrameReader(new ByteArrayInputStream(corrupt)).next());
+    assertTrue(e.getMessage().startsWith("Malformed framed input"));
+    assertThrows(IllegalArgumentException.class, () -> new FrameReader(new ByteArrayInputStream(corrupt), 0));
+  }
+
+  /**
+   * A line of a stream with multi-byte characters and a surrogate pair.
+   */
+  private static String line(int stream, int line) {
+    return "{\"stream\": " + stream + ", \"line\": " + line + ", \"text\": \"\u00e9\u20ac\ud83d\ude00\"}\n";
+  }
+}
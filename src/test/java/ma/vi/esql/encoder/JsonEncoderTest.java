@@ -1,18 +1,39 @@
 package ma.vi.esql.encoder;
 
 import ma.vi.base.config.Configuration;
+import ma.vi.base.tuple.T2;
 import ma.vi.esql.database.EsqlConnection;
 import ma.vi.esql.exec.Result;
+import ma.vi.esql.semantic.type.Column;
+import ma.vi.esql.semantic.type.Relation;
+import ma.vi.esql.syntax.define.Attribute;
+import ma.vi.esql.syntax.expression.Expression;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.jupiter.api.DynamicTest;
 import org.junit.jupiter.api.TestFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.*;
 import static ma.vi.esql.encoder.ResultEncoder.TARGET;
 import static ma.vi.esql.translation.Translatable.Target.ESQL;
+import static ma.vi.esql.translation.Translatable.Target.JAVASCRIPT;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
 
 /**
@@ -188,4 +209,758 @@ public class JsonEncoderTest extends DataTest {
                    }
                  }));
   }
+
+  @TestFactory
+  Stream<DynamicTest> encodeMemoizedAttributes() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.TC");
+                     con.exec("""
+                            create table test.TC drop undefined(
+                              _id uuid not null,
+                              a int {
+                                n: 10,
+                                f: true,
+                                e: b + 1
+                              },
+                              b int,
+                              primary key(_id)
+                            )""");
+                     Relation relation = db.structure().relation("test.TC");
+                     Map<String, Attribute> attributes = null;
+                     for (T2<Relation, Column> column: relation.columns()) {
+                       if (column.b().name().equals("a")) attributes = column.b().metadata().attributes();
+                     }
+                     assertNotNull(attributes);
+                     Expression<?, ?> n = attributes.get("n").attributeValue();
+                     Expression<?, ?> f = attributes.get("f").attributeValue();
+                     Expression<?, ?> e = attributes.get("e").attributeValue();
+
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     encoder.encode(relation);
+                     encoder.encode(relation, Configuration.of(TARGET, ESQL));
+
+                     /*
+                      * Number and boolean literals are not evaluated nor memoized.
+                      */
+                     assertSame(TranslationCache.MISSING, TranslationCache.get(n, JAVASCRIPT));
+                     assertSame(TranslationCache.MISSING, TranslationCache.get(f, JAVASCRIPT));
+                     assertEquals(10, ((Number)JsonResultEncoder.translate(n, JAVASCRIPT, true)).intValue());
+                     assertEquals(true, JsonResultEncoder.translate(f, JAVASCRIPT, true));
+                     assertSame(TranslationCache.MISSING, TranslationCache.get(n, JAVASCRIPT));
+
+                     /*
+                      * Expressions are translated once per target and memoized.
+                      */
+                     Object javascript = TranslationCache.get(e, JAVASCRIPT);
+                     Object esql = TranslationCache.get(e, ESQL);
+                     assertNotSame(TranslationCache.MISSING, javascript);
+                     assertNotSame(TranslationCache.MISSING, esql);
+                     assertSame(javascript, JsonResultEncoder.translate(e, JAVASCRIPT, true));
+                     assertSame(esql, JsonResultEncoder.translate(e, ESQL, true));
+                     assertEquals(javascript, JsonResultEncoder.translate(e, JAVASCRIPT, false));
+                     assertNotSame(javascript, JsonResultEncoder.translate(e, JAVASCRIPT, false));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeWithMetrics() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.M");
+                     con.exec("""
+                            create table test.M drop undefined(
+                              _id uuid not null,
+                              a int,
+                              b string,
+                              primary key(_id)
+                            )""");
+                     con.exec("""
+                              insert into test.M(_id, a, b)
+                              values (newid(), 1, 'x'),
+                                     (newid(), 2, null),
+                                     (newid(), 3, 'z')
+                              """);
+
+                     List<EncodeStats> collected = new ArrayList<>();
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     Result rs = con.exec("select a, b from test.M order by a");
+                     String encoded = encoder.encode(rs, Configuration.of(ResultEncoder.METRICS_LISTENER,
+                                                                          (EncoderListener)collected::add));
+                     assertEquals(1, collected.size());
+                     EncodeStats stats = collected.get(0);
+                     assertEquals("result", stats.kind());
+                     assertEquals(3, stats.rows());
+                     assertEquals(2, stats.columns());
+                     assertEquals(encoded.getBytes(UTF_8).length, stats.bytes());
+                     assertEquals(3, stats.values(EncodeStats.ValueType.NUMBER));
+                     assertEquals(1, stats.values(EncodeStats.ValueType.NULL));
+                     assertTrue(stats.elapsedNanos() >= stats.sinkWaitNanos());
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeProjectedColumns() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.P");
+                     con.exec("""
+                            create table test.P drop undefined(
+                              _id uuid not null,
+                              a int {
+                                m1: 1,
+                                m2: 'x'
+                              },
+                              b string,
+                              c int,
+                              primary key(_id)
+                            )""");
+                     con.exec("""
+                              insert into test.P(_id, a, b, c)
+                              values (newid(), 1, 'x', 10),
+                                     (newid(), 2, 'y', 20)
+                              """);
+
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     Result rs = con.exec("select a, b, c from test.P order by a");
+                     JSONObject encoded = new JSONObject(encoder.encode(rs, Configuration.of(ResultEncoder.COLUMNS, "c, a")));
+                     assertEquals(2, encoded.getJSONObject("columns").length());
+                     assertTrue(new JSONArray("[[10, 1], [20, 2]]").similar(encoded.getJSONArray("rows")));
+
+                     rs = con.exec("select a, b, c from test.P order by a");
+                     encoded = new JSONObject(encoder.encode(rs, Configuration.of(ResultEncoder.COLUMNS,
+                                                                                  Map.of("a", List.of("m1")))));
+                     JSONObject a = encoded.getJSONObject("columns").getJSONObject("a");
+                     assertTrue(a.has("m1"));
+                     assertFalse(a.has("m2"));
+                     assertTrue(new JSONArray("[[1], [2]]").similar(encoded.getJSONArray("rows")));
+
+                     Result unknown = con.exec("select a from test.P");
+                     assertThrows(IllegalArgumentException.class,
+                                  () -> encoder.encode(unknown, Configuration.of(ResultEncoder.COLUMNS, "z")));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeBatch() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.B");
+                     con.exec("""
+                            create table test.B drop undefined(
+                              _id uuid not null,
+                              a int,
+                              b string,
+                              primary key(_id)
+                            )""");
+                     con.exec("""
+                              insert into test.B(_id, a, b)
+                              values (newid(), 1, 'x'),
+                                     (newid(), 2, 'y'),
+                                     (newid(), 3, 'z')
+                              """);
+
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     String[] queries = {"select a, b from test.B order by a",
+                                         "select a from test.B where a > 1 order by a",
+                                         "select b from test.B order by b desc"};
+                     List<Result> results = new ArrayList<>();
+                     for (String q: queries) results.add(con.exec(q));
+                     JSONArray sequential = new JSONArray(encoder.encodeBatch(results, Configuration.EMPTY, null));
+                     assertEquals(3, sequential.length());
+                     assertTrue(new JSONArray("[[2], [3]]").similar(sequential.getJSONObject(1).getJSONArray("rows")));
+
+                     /*
+                      * Results encoded in parallel are read from different connections.
+                      */
+                     ExecutorService executor = Executors.newFixedThreadPool(3);
+                     List<EsqlConnection> connections = new ArrayList<>();
+                     try {
+                       results.clear();
+                       for (String q: queries) {
+                         EsqlConnection c = db.esql(db.pooledConnection());
+                         connections.add(c);
+                         results.add(c.exec(q));
+                       }
+                       JSONArray parallel = new JSONArray(encoder.encodeBatch(results, Configuration.EMPTY, executor));
+                       assertTrue(sequential.similar(parallel));
+                     } finally {
+                       executor.shutdown();
+                       for (EsqlConnection c: connections) c.close();
+                     }
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeBatchWithDates() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.BD");
+                     con.exec("""
+                            create table test.BD drop undefined(
+                              _id uuid not null,
+                              a int,
+                              d datetime,
+                              primary key(_id)
+                            )""");
+                     for (int i = 0; i < 100; i++) {
+                       con.exec("insert into test.BD(_id, a, d) values (newid(), " + i + ", now())");
+                     }
+
+                     /*
+                      * Dates encoded concurrently by the results of a parallel batch
+                      * are formatted as when they are encoded one after the other.
+                      */
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     String query = "select a, d from test.BD order by a";
+                     int size = 16;
+                     List<Result> results = new ArrayList<>();
+                     for (int i = 0; i < size; i++) results.add(con.exec(query));
+                     JSONArray sequential = new JSONArray(encoder.encodeBatch(results, Configuration.EMPTY, null));
+                     assertEquals(size, sequential.length());
+
+                     ExecutorService executor = Executors.newFixedThreadPool(size);
+                     List<EsqlConnection> connections = new ArrayList<>();
+                     try {
+                       for (int round = 0; round < 5; round++) {
+                         results.clear();
+                         for (int i = 0; i < size; i++) {
+                           EsqlConnection c = db.esql(db.pooledConnection());
+                           connections.add(c);
+                           results.add(c.exec(query));
+                         }
+                         JSONArray parallel = new JSONArray(encoder.encodeBatch(results, Configuration.EMPTY, executor));
+                         assertTrue(sequential.similar(parallel));
+                       }
+                     } finally {
+                       executor.shutdown();
+                       for (EsqlConnection c: connections) c.close();
+                     }
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeWithKnownStructures() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.S");
+                     con.exec("""
+                            create table test.S drop undefined(
+                              _id uuid not null,
+                              a int {
+                                label: 'A'
+                              },
+                              b string,
+                              primary key(_id)
+                            )""");
+                     con.exec("""
+                              insert into test.S(_id, a, b)
+                              values (newid(), 1, 'x'),
+                                     (newid(), 2, 'y')
+                              """);
+
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     JSONObject full = new JSONObject(encoder.encode(con.exec("select a, b from test.S order by a"),
+                                                                     Configuration.of(ResultEncoder.KNOWN_STRUCTURES, List.of())));
+                     String fingerprint = full.getString("$s");
+                     assertTrue(full.has("columns"));
+
+                     JSONObject rowsOnly = new JSONObject(encoder.encode(con.exec("select a, b from test.S order by a"),
+                                                                         Configuration.of(ResultEncoder.KNOWN_STRUCTURES, fingerprint)));
+                     assertEquals(fingerprint, rowsOnly.getString("$s"));
+                     assertFalse(rowsOnly.has("columns"));
+                     assertFalse(rowsOnly.has("$m"));
+                     assertTrue(full.getJSONArray("rows").similar(rowsOnly.getJSONArray("rows")));
+
+                     JSONObject header = new JSONObject(Structures.header(fingerprint));
+                     assertTrue(full.getJSONObject("columns").similar(header.getJSONObject("columns")));
+
+                     JSONObject other = new JSONObject(encoder.encode(con.exec("select b from test.S order by a"),
+                                                                      Configuration.of(ResultEncoder.KNOWN_STRUCTURES, fingerprint)));
+                     assertNotEquals(fingerprint, other.getString("$s"));
+                     assertTrue(other.has("columns"));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeCancelled() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.C");
+                     con.exec("""
+                            create table test.C drop undefined(
+                              _id uuid not null,
+                              a int,
+                              primary key(_id)
+                            )""");
+                     for (int i = 0; i < 10; i++) {
+                       con.exec("insert into test.C(_id, a) values (newid(), " + i + ")");
+                     }
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     String query = "select a from test.C order by a";
+
+                     EncodeCancellation cancelled = new EncodeCancellation();
+                     cancelled.cancel();
+                     EncodeCancelledException e = assertThrows(EncodeCancelledException.class,
+                        () -> encoder.encode(con.exec(query), Configuration.of(ResultEncoder.CANCELLATION, cancelled)));
+                     assertEquals(0, e.rows());
+                     assertEquals(EncodeCancelledException.Reason.CANCELLED, e.reason());
+
+                     e = assertThrows(EncodeCancelledException.class,
+                        () -> encoder.encode(con.exec(query), Configuration.of(ResultEncoder.DEADLINE, Duration.ZERO)));
+                     assertEquals(EncodeCancelledException.Reason.DEADLINE, e.reason());
+
+                     /*
+                      * Cancelled while encoding, after the third row is written.
+                      */
+                     EncodeCancellation token = new EncodeCancellation();
+                     Writer cancelling = new StringWriter() {
+                       @Override
+                       public void write(int c) {
+                         super.write(c);
+                         if (c == ']' && ++rows == 3) token.cancel();
+                       }
+                       private int rows;
+                     };
+                     e = assertThrows(EncodeCancelledException.class,
+                        () -> encoder.encode(con.exec(query), cancelling,
+                                             Configuration.of(ResultEncoder.ROWS_ONLY, true,
+                                                              ResultEncoder.CANCELLATION, token,
+                                                              ResultEncoder.CANCELLATION_CHECK_INTERVAL, 1)));
+                     assertEquals(3, e.rows());
+                     assertEquals(EncodeCancelledException.Reason.CANCELLED, e.reason());
+
+                     /*
+                      * Output failing as when a client disconnects.
+                      */
+                     Writer failing = new Writer() {
+                       @Override
+                       public void write(char[] chars, int off, int len) throws IOException {
+                         if ((written += len) > 20) throw new IOException("Connection reset");
+                       }
+                       @Override public void flush() {}
+                       @Override public void close() {}
+                       private int written;
+                     };
+                     e = assertThrows(EncodeCancelledException.class,
+                        () -> encoder.encode(con.exec(query), failing, Configuration.of(ResultEncoder.ROWS_ONLY, true)));
+                     assertEquals(EncodeCancelledException.Reason.WRITE_FAILED, e.reason());
+                     assertInstanceOf(IOException.class, e.getCause());
+                     assertTrue(e.rows() < 10);
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeWithDigest() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.D");
+                     con.exec("""
+                            create table test.D drop undefined(
+                              _id uuid not null,
+                              a int {
+                                label: 'A',
+                                required: true,
+                                description: 'First'
+                              },
+                              b string,
+                              primary key(_id)
+                            )""");
+                     con.exec("""
+                              insert into test.D(_id, a, b)
+                              values (newid(), 1, 'x'),
+                                     (newid(), 2, 'y')
+                              """);
+
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     String query = "select a, b from test.D order by a";
+                     EncodeDigest first = new EncodeDigest();
+                     String encoded = encoder.encode(con.exec(query),
+                                                     Configuration.of(ResultEncoder.SORT_ATTRIBUTES, true,
+                                                                      ResultEncoder.DIGEST, first));
+                     assertTrue(encoded.indexOf("\"description\"") < encoded.indexOf("\"label\""));
+                     assertTrue(encoded.indexOf("\"label\"") < encoded.indexOf("\"required\""));
+                     assertEquals(EncodeDigest.etag(encoded.getBytes(UTF_8), 0, encoded.getBytes(UTF_8).length),
+                                  first.etag());
+
+                     EncodeDigest second = new EncodeDigest();
+                     JSONObject trailed = new JSONObject(encoder.encode(con.exec(query),
+                                                                        Configuration.of(ResultEncoder.SORT_ATTRIBUTES, true,
+                                                                                         ResultEncoder.DIGEST, second,
+                                                                                         ResultEncoder.DIGEST_TRAILER, true)));
+                     assertEquals(second.hash(), trailed.getString("$h"));
+                     assertTrue(new JSONObject(encoded).getJSONArray("rows").similar(trailed.getJSONArray("rows")));
+
+                     /*
+                      * A batch, sequential or parallel, is hashed as a whole.
+                      */
+                     ExecutorService executor = Executors.newFixedThreadPool(2);
+                     try {
+                       for (Executor e: new Executor[]{null, executor}) {
+                         EncodeDigest batch = new EncodeDigest();
+                         String batched = encoder.encodeBatch(List.of(con.exec(query), con.exec(query), con.exec(query)),
+                                                              Configuration.of(ResultEncoder.SORT_ATTRIBUTES, true,
+                                                                               ResultEncoder.DIGEST, batch,
+                                                                               ResultEncoder.DIGEST_TRAILER, true),
+                                                              e);
+                         byte[] bytes = batched.getBytes(UTF_8);
+                         assertEquals(EncodeDigest.etag(bytes, 0, bytes.length), batch.etag());
+                         assertFalse(batched.contains("\"$h\""));
+                       }
+                     } finally {
+                       executor.shutdown();
+                     }
+
+                     /*
+                      * No hash of failed encodings.
+                      */
+                     EncodeDigest failed = new EncodeDigest();
+                     assertThrows(EncodeCancelledException.class,
+                        () -> encoder.encode(con.exec(query), Configuration.of(ResultEncoder.DIGEST, failed,
+                                                                               ResultEncoder.DEADLINE, Duration.ZERO)));
+                     assertThrows(IllegalStateException.class, failed::etag);
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeLocalizedAttributes() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.L");
+                     con.exec("""
+                            create table test.L drop undefined(
+                              _id uuid not null,
+                              a int {
+                                label: {en: 'Amount', fr: 'Montant'},
+                                description: 'First',
+                                "values": {"any": {en: 'Any', fr: 'Une ou plusieurs'}, "all": {en: 'All', fr: 'Toutes'}}
+                              },
+                              b string {
+                                label: {en: 'Name', fr: 'Nom'}
+                              },
+                              primary key(_id)
+                            )""");
+                     con.exec("insert into test.L(_id, a, b) values (newid(), 1, 'x')");
+
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     String query = "select a, b from test.L";
+                     JSONObject all = new JSONObject(encoder.encode(con.exec(query)));
+                     assertEquals("Montant", all.getJSONObject("columns").getJSONObject("a")
+                                                .getJSONObject("label").getString("fr"));
+
+                     JSONObject fr = new JSONObject(encoder.encode(con.exec(query),
+                                                                   Configuration.of(ResultEncoder.LOCALE, "fr-FR",
+                                                                                    ResultEncoder.EXCLUDE_ATTRIBUTES, "description")));
+                     JSONObject a = fr.getJSONObject("columns").getJSONObject("a");
+                     assertEquals("Montant", a.getString("label"));
+                     assertEquals("Une ou plusieurs", a.getJSONObject("values").getString("any"));
+                     assertEquals("Toutes", a.getJSONObject("values").getString("all"));
+                     assertFalse(a.has("description"));
+                     assertEquals("Nom", fr.getJSONObject("columns").getJSONObject("b").getString("label"));
+                     assertTrue(all.getJSONArray("rows").similar(fr.getJSONArray("rows")));
+
+                     /*
+                      * Allowlist on the relation structure, falling back to English.
+                      */
+                     JSONObject structure = new JSONObject(encoder.encode(db.structure().relation("test.L"),
+                                                                          Configuration.of(ResultEncoder.LOCALE, "de",
+                                                                                           ResultEncoder.FALLBACK_LOCALE, "en",
+                                                                                           ResultEncoder.ATTRIBUTES, List.of("label"))));
+                     a = structure.getJSONObject("columns").getJSONObject("a");
+                     assertEquals("Amount", a.getString("label"));
+                     assertFalse(a.has("values"));
+                     assertFalse(a.has("description"));
+                     assertFalse(structure.getJSONObject("$m").has("type"));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeGrouped() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.GC");
+                     con.exec("drop table test.GP");
+                     con.exec("""
+                            create table test.GP drop undefined(
+                              _id uuid not null,
+                              name string not null,
+                              code string,
+                              primary key(_id)
+                            )""");
+                     con.exec("""
+                            create table test.GC drop undefined(
+                              _id uuid not null,
+                              gp_id uuid not null,
+                              x int,
+                              y string,
+                              foreign key (gp_id) references test.GP(_id),
+                              primary key(_id)
+                            )""");
+                     con.exec("""
+                              insert into test.GP(_id, name, code)
+                              values (newid(), 'A', 'a'),
+                                     (newid(), 'B', 'b'),
+                                     (newid(), 'C', 'c'),
+                                     (newid(), 'D', 'd')
+                              """);
+                     con.exec("""
+                              insert into test.GC(_id, gp_id, x, y)
+                              values (newid(), (select _id from test.GP where name='A'), 1, 'p'),
+                                     (newid(), (select _id from test.GP where name='A'), 2, 'q'),
+                                     (newid(), (select _id from test.GP where name='B'), null, null),
+                                     (newid(), (select _id from test.GP where name='C'), 3, 'r')
+                              """);
+
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     String query = """
+                                    select p.name, c.x, p.code, c.y, c.gp_id
+                                      from p:test.GP left join c:test.GC on c.gp_id=p._id
+                                     order by p.name, c.x""";
+                     Configuration params = Configuration.of(ResultEncoder.COLUMNS, "name, x, code, y",
+                                                             ResultEncoder.GROUP_BY, "name",
+                                                             ResultEncoder.GROUP_COLUMNS, List.of("code"),
+                                                             ResultEncoder.GROUP_CHILD_KEY, "gp_id");
+                     JSONObject grouped = new JSONObject(encoder.encode(con.exec(query), params));
+                     assertEquals(2, grouped.getInt("$g"));
+
+                     /*
+                      * The child of B with only nulls is kept; D has no child.
+                      */
+                     assertTrue(new JSONArray("""
+                                              [["A", "a", [[1, "p"], [2, "q"]]],
+                                               ["B", "b", [[null, null]]],
+                                               ["C", "c", [[3, "r"]]],
+                                               ["D", "d", []]]""").similar(grouped.getJSONArray("rows")));
+
+                     /*
+                      * The _id of the children is the child key by default.
+                      */
+                     JSONArray byId = new JSONObject(encoder.encode(con.exec("""
+                                                                            select p.name, c._id, c.x
+                                                                              from p:test.GP left join c:test.GC on c.gp_id=p._id
+                                                                             order by p.name, c.x"""),
+                                                                    Configuration.of(ResultEncoder.GROUP_BY, "name")))
+                                         .getJSONArray("rows");
+                     assertEquals(List.of(2, 1, 1, 0), List.of(byId.getJSONArray(0).getJSONArray(1).length(),
+                                                               byId.getJSONArray(1).getJSONArray(1).length(),
+                                                               byId.getJSONArray(2).getJSONArray(1).length(),
+                                                               byId.getJSONArray(3).getJSONArray(1).length()));
+                     assertThrows(IllegalArgumentException.class,
+                                  () -> encoder.encode(con.exec(query), Configuration.of(ResultEncoder.GROUP_BY, "name",
+                                                                                         ResultEncoder.GROUP_CHILD_KEY, "z")));
+
+                     /*
+                      * Same rows when decoded, with the children as the last value.
+                      */
+                     try (ResultCursor cursor = new JsonResultDecoder().decode(
+                              new ByteArrayInputStream(encoder.encodeToBytes(con.exec(query), params)),
+                              Configuration.EMPTY)) {
+                       assertEquals(List.of("name", "code", "x", "y"), cursor.columns());
+                       int parents = 0;
+                       while (cursor.next()) {
+                         assertEquals(3, cursor.size());
+                         parents++;
+                       }
+                       assertEquals(4, parents);
+                     }
+
+                     assertThrows(IllegalArgumentException.class,
+                                  () -> encoder.encode(con.exec(query), Configuration.of(ResultEncoder.GROUP_BY, "z")));
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeSparseRows() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.W");
+                     con.exec("""
+                            create table test.W drop undefined(
+                              _id uuid not null,
+                              a int, b int, c string, d string, e int, f int, g string, h string,
+                              primary key(_id)
+                            )""");
+                     con.exec("""
+                              insert into test.W(_id, a, b, c, d, e, f, g, h)
+                              values (newid(), 1, null, null, null, null, null, null, 'x'),
+                                     (newid(), 2, 3, 'p', 'q', 4, 5, 'r', 's'),
+                                     (newid(), 3, null, null, null, null, null, null, null)
+                              """);
+
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     String query = "select a, b, c, d, e, f, g, h from test.W order by a";
+                     byte[] dense = encoder.encodeToBytes(con.exec(query), Configuration.EMPTY);
+                     byte[] sparse = encoder.encodeToBytes(con.exec(query), Configuration.of(ResultEncoder.SPARSE_ROWS, 0.5));
+                     assertTrue(sparse.length < dense.length);
+
+                     JSONArray rows = new JSONObject(new String(sparse, UTF_8)).getJSONArray("rows");
+                     assertTrue(new JSONObject("{\"0\": 1, \"7\": \"x\"}").similar(rows.get(0)));
+                     assertTrue(new JSONArray("[2, 3, \"p\", \"q\", 4, 5, \"r\", \"s\"]").similar(rows.get(1)));
+                     assertTrue(new JSONObject("{\"0\": 3}").similar(rows.get(2)));
+
+                     /*
+                      * Decoded as the dense rows.
+                      */
+                     try (ResultCursor expected = new JsonResultDecoder().decode(dense);
+                          ResultCursor actual = new JsonResultDecoder().decode(sparse)) {
+                       while (expected.next()) {
+                         assertTrue(actual.next());
+                         assertEquals(expected.size(), actual.size());
+                         for (int i = 1; i <= expected.size(); i++) {
+                           assertEquals(expected.getObject(i), actual.getObject(i));
+                         }
+                       }
+                       assertFalse(actual.next());
+                     }
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeFramed() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     con.exec("drop table test.W");
+                     con.exec("""
+                            create table test.W drop undefined(
+                              _id uuid not null,
+                              a int, c string,
+                              primary key(_id)
+                            )""");
+                     for (int i = 0; i < 200; i++) {
+                       con.exec("insert into test.W(_id, a, c) values (newid(), " + i + ", 'row " + i + "')");
+                     }
+
+                     /*
+                      * A large result and a small one encoded into the same framed
+                      * output, the small one ending while the large one is encoded.
+                      */
+                     ResultEncoder encoder = new JsonResultEncoder();
+                     String large = "select a, c from test.W order by a";
+                     String small = "select a, c from test.W where a < 2 order by a";
+                     String expectedLarge = encoder.encode(con.exec(large));
+                     String expectedSmall = encoder.encode(con.exec(small));
+
+                     ByteArrayOutputStream sink = new ByteArrayOutputStream();
+                     FramedOutput framed = new FramedOutput(sink, 256);
+                     FramedOutput.Stream stream = framed.open(1);
+                     encoder.encode(con.exec(large), stream, Configuration.EMPTY);
+                     encoder.encodeFramed(con.exec(small), framed, 2, Configuration.EMPTY);
+                     stream.close();
+
+                     List<Integer> completed = new ArrayList<>();
+                     new FrameReader(new ByteArrayInputStream(sink.toByteArray())).readAll((id, content) -> {
+                       completed.add(id);
+                       assertEquals(id == 1 ? expectedLarge : expectedSmall, new String(content, UTF_8));
+                     });
+                     assertEquals(List.of(2, 1), completed);
+                   }
+                 }));
+  }
+
+  @TestFactory
+  Stream<DynamicTest> encodeStructureBundle() {
+    return Stream.of(databases)
+                 .map(db -> dynamicTest(db.target().toString(), () -> {
+                   try (EsqlConnection con = db.esql(db.pooledConnection())) {
+                     for (String table: List.of("test.E1", "test.E2", "test.E3")) {
+                       con.exec("drop table " + table);
+                       con.exec("create table " + table + " drop undefined("
+                              + "  _id uuid not null, "
+                              + "  a int { label: 'A' }, "
+                              + "  primary key(_id))");
+                     }
+                     List<Relation> relations = List.of(db.structure().relation("test.E3"),
+                                                        db.structure().relation("test.E1"),
+                                                        db.structure().relation("test.E2"));
+
+                     /*
+                      * Encoder counting the relations it encodes, failing on
+                      * test.E2 when asked to.
+                      */
+                     AtomicInteger encoded = new AtomicInteger();
+                     AtomicBoolean failing = new AtomicBoolean();
+                     JsonResultEncoder json = new JsonResultEncoder();
+                     ResultEncoder encoder = new JsonResultEncoder() {
+                       @Override
+                       public void encode(Relation relation, Writer out, Configuration params) {
+                         if (failing.get() && relation.name().equals("test.E2")) {
+                           throw new IllegalStateException("Encoding failed");
+                         }
+                         encoded.incrementAndGet();
+                         json.encode(relation, out, params);
+                       }
+                     };
+
+                     ExecutorService executor = Executors.newFixedThreadPool(3);
+                     try {
+                       StructureBundle builder = new StructureBundle(encoder, Configuration.EMPTY, executor);
+                       StructureBundle.Bundle bundle = builder.build(relations);
+                       assertEquals(3, encoded.get());
+                       assertEquals(1, bundle.version());
+                       assertEquals(3, bundle.relations());
+
+                       JSONArray decoded = new JSONArray(new String(bundle.toByteArray(), UTF_8));
+                       assertEquals(3, decoded.length());
+                       assertTrue(new JSONObject(json.encode(db.structure().relation("test.E1")))
+                                      .similar(decoded.getJSONObject(0)));
+                       assertTrue(new JSONObject(json.encode(db.structure().relation("test.E3")))
+                                      .similar(decoded.getJSONObject(2)));
+
+                       assertSame(bundle, builder.build(relations));
+                       assertEquals(3, encoded.get());
+
+                       builder.invalidate("test.E2");
+                       StructureBundle.Bundle rebuilt = builder.build(relations);
+                       assertEquals(4, encoded.get());
+                       assertEquals(2, rebuilt.version());
+                       assertEquals(bundle.etag(), rebuilt.etag());
+
+                       StructureBundle.Bundle smaller = builder.build(relations.subList(0, 2));
+                       assertEquals(4, encoded.get());
+                       assertEquals(2, smaller.relations());
+                       assertNotEquals(bundle.etag(), smaller.etag());
+                       assertSame(smaller, builder.current());
+
+                       /*
+                        * A failed build changes nothing: the next build still
+                        * drops the relations removed by the failed one.
+                        */
+                       failing.set(true);
+                       assertThrows(IllegalStateException.class,
+                                    () -> builder.build(List.of(relations.get(0), relations.get(2))));
+                       assertSame(smaller, builder.current());
+                       failing.set(false);
+                       StructureBundle.Bundle single = builder.build(relations.subList(0, 1));
+                       assertEquals(1, single.relations());
+                       assertEquals(smaller.version() + 1, single.version());
+                       assertEquals(1, new JSONArray(new String(single.toByteArray(), UTF_8)).length());
+                     } finally {
+                       executor.shutdown();
+                     }
+                   }
+                 }));
+  }
 }
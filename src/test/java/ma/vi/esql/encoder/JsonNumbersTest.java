@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import ma.vi.esql.encoder.JsonNumbers.NonFinite;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static ma.vi.esql.encoder.JsonResultEncoder.toJson;
+import static ma.vi.esql.translation.Translatable.Target.JAVASCRIPT;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the writing of numbers by {@link JsonNumbers}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class JsonNumbersTest {
+  @Test
+  void integers() {
+    assertEquals("0",                    toJson(0));
+    assertEquals("-7",                   toJson((short)-7));
+    assertEquals("2147483647",           toJson(Integer.MAX_VALUE));
+    assertEquals("-9223372036854775808", toJson(Long.MIN_VALUE));
+    assertEquals("9223372036854775807",  toJson(Long.MAX_VALUE));
+    assertEquals("123456789012345678901234567890",
+                 toJson(new BigInteger("123456789012345678901234567890")));
+  }
+
+  @Test
+  void doubles() {
+    assertEquals("1",                        toJson(1.0));
+    assertEquals("0",                        toJson(-0.0));
+    assertEquals("0.1",                      toJson(0.1));
+    assertEquals("-1.5",                     toJson(-1.5));
+    assertEquals("0.30000000000000004",      toJson(0.1 + 0.2));
+    assertEquals("100000000000000000000",    toJson(1e20));
+    assertEquals("1e+21",                    toJson(1e21));
+    assertEquals("1e+23",                    toJson(1e23));
+    assertEquals("0.000001",                 toJson(1e-6));
+    assertEquals("1e-7",                     toJson(1e-7));
+    assertEquals("5e-324",                   toJson(Double.MIN_VALUE));
+    assertEquals("1.7976931348623157e+308",  toJson(Double.MAX_VALUE));
+    assertEquals("2.2250738585072014e-308",  toJson(Double.MIN_NORMAL));
+  }
+
+  @Test
+  void floats() {
+    assertEquals("0.1",            toJson(0.1f));
+    assertEquals("16777216",       toJson(16777216f));
+    assertEquals("33554450",       toJson(33554448f));
+    assertEquals("1e-45",          toJson(Float.MIN_VALUE));
+    assertEquals("3.4028235e+38",  toJson(Float.MAX_VALUE));
+    assertEquals("1.1754944e-38",  toJson(Float.MIN_NORMAL));
+  }
+
+  @Test
+  void shortestRoundTrip() {
+    Random random = new Random(11);
+    for (int i = 0; i < 200_000; i++) {
+      double d = Double.longBitsToDouble(random.nextLong());
+      if (Double.isFinite(d)) {
+        String s = JsonNumbers.toString(d);
+        assertEquals(d, Double.parseDouble(s), s);
+        if (i % 100 == 0) {
+          assertEquals(shortestDigits(new BigDecimal(d), d), significantDigits(s), s);
+        }
+      }
+      float f = Float.intBitsToFloat(random.nextInt());
+      if (Float.isFinite(f)) {
+        String s = JsonNumbers.toString(f);
+        assertEquals(f, Float.parseFloat(s), s);
+      }
+    }
+  }
+
+  @Test
+  void concurrentWrites() throws Exception {
+    /*
+     * Numbers written from several threads at once, each reusing its own
+     * scratch array, are written intact.
+     */
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> writes = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        long seed = t;
+        writes.add(executor.submit(() -> {
+          Random random = new Random(seed);
+          StringBuilder out = new StringBuilder();
+          StringBuilder expected = new StringBuilder();
+          for (int i = 0; i < 20_000; i++) {
+            long l = random.nextLong();
+            double d = random.nextDouble() * 1e6;
+            JsonNumbers.write(l, out);
+            JsonNumbers.write(d, NonFinite.NULL, out);
+            out.append(',');
+            expected.append(l).append(JsonNumbers.toString(d)).append(',');
+          }
+          assertEquals(expected.toString(), out.toString());
+          return null;
+        }));
+      }
+      for (Future<?> write: writes) write.get();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void bigDecimals() {
+    assertEquals("1000",       toJson(new BigDecimal("1E+3")));
+    assertEquals("0.00000012", toJson(new BigDecimal("1.2E-7")));
+    assertEquals("12.50",      toJson(new BigDecimal("12.50")));
+    assertEquals("1E+1000",    toJson(new BigDecimal("1E+1000")));
+  }
+
+  @Test
+  void nonFinite() throws IOException {
+    assertEquals("null",              toJson(Double.NaN));
+    assertEquals("[1, null, null]",   toJson(new double[]{1, Double.POSITIVE_INFINITY, Double.NaN}));
+
+    StringBuilder out = new StringBuilder();
+    JsonNumbers.write(Double.NEGATIVE_INFINITY, NonFinite.STRING, out);
+    JsonNumbers.write(Float.NaN, NonFinite.STRING, out);
+    assertEquals("\"-Infinity\"\"NaN\"", out.toString());
+
+    assertThrows(IllegalArgumentException.class,
+                 () -> JsonNumbers.write(Double.POSITIVE_INFINITY, NonFinite.ERROR, new StringBuilder()));
+  }
+
+  @Test
+  void nonFiniteInHeaders() throws IOException {
+    /*
+     * Attributes in headers follow the same policy as row values.
+     */
+    StringBuilder out = new StringBuilder();
+    JsonResultEncoder.write(Double.POSITIVE_INFINITY, 0, JAVASCRIPT, JsonOptions.header(Configuration.EMPTY), out);
+    assertEquals("null", out.toString());
+
+    out.setLength(0);
+    JsonResultEncoder.write(Double.POSITIVE_INFINITY, 0, JAVASCRIPT,
+                            JsonOptions.header(Configuration.of(ResultEncoder.NON_FINITE, "string",
+                                                                ResultEncoder.SORT_ATTRIBUTES, true)), out);
+    assertEquals("\"Infinity\"", out.toString());
+
+    assertThrows(IllegalArgumentException.class,
+                 () -> JsonResultEncoder.write(Double.NaN, 0, JAVASCRIPT,
+                                               JsonOptions.header(Configuration.of(ResultEncoder.NON_FINITE, NonFinite.ERROR)),
+                                               new StringBuilder()));
+  }
+
+  /**
+   * Number of digits of the shortest decimal which parses back to the double.
+   */
+  private static int shortestDigits(BigDecimal exact, double d) {
+    for (int p = 1; ; p++) {
+      if (exact.round(new MathContext(p)).doubleValue() == d) return p;
+    }
+  }
+
+  private static int significantDigits(String s) {
+    String mantissa = s.replace("-", "").split("e")[0].replace(".", "");
+    mantissa = mantissa.replaceFirst("^0+", "").replaceFirst("0+$", "");
+    return Math.max(1, mantissa.length());
+  }
+}
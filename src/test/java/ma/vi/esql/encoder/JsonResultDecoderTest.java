@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import ma.vi.base.config.Configuration;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static ma.vi.esql.encoder.JsonResultEncoder.toJson;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the decoding of encoded results by {@link JsonResultDecoder}. Its
+ * throughput is measured by a benchmark run by the <code>benchmark</code> task,
+ * not by <code>test</code>.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class JsonResultDecoderTest {
+  @Test
+  void decodesHeaderAndRows() {
+    String encoded = """
+        {
+        "$s":"abc",
+        "$m":{
+          "type":"test.X"
+        },
+        "columns":{
+          "a":{
+            "type":"int"
+          },
+          "b":{
+            "type":"string"
+          },
+          "c":{
+            "type":"double"
+          },
+          "d":{
+            "type":"bool"
+          }
+        },
+        "rows":[
+          [1, "x\\"y\\u00e9\\n", 1.5, true],
+          [-9223372036854775807, null, 1e+21, false],
+          [3, {"$v":"z", "$m":{"label":"Z"}}, "NaN", null]
+        ]
+        }""";
+    try (ResultCursor cursor = new JsonResultDecoder().decode(encoded.getBytes(UTF_8))) {
+      assertEquals("abc", cursor.structure());
+      assertEquals(List.of("a", "b", "c", "d"), cursor.columns());
+      assertEquals(3, cursor.indexOf("c"));
+
+      assertTrue(cursor.next());
+      assertEquals(4, cursor.size());
+      assertEquals(1, cursor.getInt("a"));
+      assertEquals("x\"y\u00e9\n", cursor.getString("b"));
+      assertEquals(1.5, cursor.getDouble("c"));
+      assertEquals(new BigDecimal("1.5"), cursor.getBigDecimal(3));
+      assertTrue(cursor.getBoolean("d"));
+      assertEquals("\"x\\\"y\\u00e9\\n\"", cursor.getRaw(2));
+      assertNull(cursor.getMetadata(2));
+
+      assertTrue(cursor.next());
+      assertEquals(-9223372036854775807L, cursor.getLong(1));
+      assertTrue(cursor.isNull("b"));
+      assertNull(cursor.getString(2));
+      assertEquals(1e21, cursor.getDouble(3));
+      assertFalse(cursor.getBoolean(4));
+
+      assertTrue(cursor.next());
+      assertEquals("z", cursor.getString(2));
+      assertNotNull(cursor.getMetadata(2));
+      assertTrue(Double.isNaN(cursor.getDouble(3)));
+      assertNull(cursor.getObject(4));
+      assertEquals(3L, cursor.getObject(1));
+
+      assertFalse(cursor.next());
+      assertFalse(cursor.next());
+      assertThrows(IllegalStateException.class, () -> cursor.getInt(1));
+    }
+  }
+
+  @Test
+  void decodesRowsOnly() {
+    try (ResultCursor cursor = new JsonResultDecoder().decode("[\n  [1, \"a\"],\n  []\n]\n".getBytes(UTF_8))) {
+      assertTrue(cursor.columns().isEmpty());
+      assertTrue(cursor.next());
+      assertEquals("a", cursor.getString(2));
+      assertTrue(cursor.next());
+      assertEquals(0, cursor.size());
+      assertThrows(IndexOutOfBoundsException.class, () -> cursor.getString(1));
+      assertFalse(cursor.next());
+    }
+    try (ResultCursor cursor = new JsonResultDecoder().decode(new byte[0])) {
+      assertFalse(cursor.next());
+    }
+  }
+
+  @Test
+  void unwrapsOnlyValueObjects() {
+    String row = "[[{\"$v\":1,\"k\":2}, {\"$v\":1}, { \"$v\" : 2 , \"$m\" : {\"a\":1} }, {\"$v\":3,\"$m\":{},\"x\":0}]]";
+    try (ResultCursor cursor = new JsonResultDecoder().decode(row.getBytes(UTF_8))) {
+      assertTrue(cursor.next());
+      assertEquals("{\"$v\":1,\"k\":2}", cursor.getRaw(1));
+      assertNull(cursor.getMetadata(1));
+      assertEquals(1, cursor.getInt(2));
+      assertNull(cursor.getMetadata(2));
+      assertEquals(2, cursor.getInt(3));
+      assertNotNull(cursor.getMetadata(3));
+      assertEquals("{\"$v\":3,\"$m\":{},\"x\":0}", cursor.getRaw(4));
+      assertNull(cursor.getMetadata(4));
+    }
+  }
+
+  @Test
+  void decodesSparseRows() {
+    String encoded = """
+        {
+        "columns":{"a":{}, "b":{}, "c":{}, "d":{}},
+        "rows":[
+          {"1": "x", "3": true},
+          [1, null, 2, false],
+          {},
+          {"0": {"$v":null, "$m":{"label":"A"}}}
+        ]
+        }""";
+    try (ResultCursor cursor = new JsonResultDecoder().decode(encoded.getBytes(UTF_8))) {
+      assertTrue(cursor.next());
+      assertEquals(4, cursor.size());
+      assertTrue(cursor.isNull(1));
+      assertNull(cursor.getObject("a"));
+      assertEquals("x", cursor.getString(2));
+      assertNull(cursor.getBigDecimal(3));
+      assertEquals(0, cursor.getLong(3));
+      assertEquals("null", cursor.getRaw(3));
+      assertTrue(cursor.getBoolean(4));
+
+      assertTrue(cursor.next());
+      assertEquals(2, cursor.getInt(3));
+
+      assertTrue(cursor.next());
+      assertEquals(4, cursor.size());
+      assertFalse(cursor.getBoolean(4));
+
+      assertTrue(cursor.next());
+      assertTrue(cursor.isNull(1));
+      assertNotNull(cursor.getMetadata(1));
+      assertTrue(cursor.isNull(4));
+      assertFalse(cursor.next());
+    }
+
+    /*
+     * Without a header, rows extend to their last value.
+     */
+    try (ResultCursor cursor = new JsonResultDecoder().decode("[{\"2\": 5}]".getBytes(UTF_8))) {
+      assertTrue(cursor.next());
+      assertEquals(3, cursor.size());
+      assertEquals(5, cursor.getInt(3));
+      assertTrue(cursor.isNull(1));
+    }
+    assertThrows(IllegalArgumentException.class,
+                 () -> new JsonResultDecoder().decode("[{\"a\": 5}]".getBytes(UTF_8)).next());
+  }
+
+  @Test
+  void rejectsMalformed() {
+    assertThrows(IllegalArgumentException.class,
+                 () -> new JsonResultDecoder().decode("{\"rows\":[[1, \"a".getBytes(UTF_8)).next());
+    assertThrows(IllegalArgumentException.class,
+                 () -> new JsonResultDecoder().decode("\"x\"".getBytes(UTF_8)));
+  }
+
+  @Test
+  void decodesInConstantMemory() {
+    int rows = 200_000;
+    JsonResultDecoder.Cursor cursor = (JsonResultDecoder.Cursor)
+        new JsonResultDecoder().decode(new GeneratedResult(rows), Configuration.of(ResultDecoder.BUFFER_SIZE, 4096));
+    try (cursor) {
+      long sum = 0;
+      int count = 0;
+      while (cursor.next()) {
+        assertEquals(count, cursor.getInt(1));
+        sum += cursor.getLong("a");
+        count++;
+      }
+      assertEquals(rows, count);
+      assertEquals((long)rows * (rows - 1) / 2, sum);
+      assertEquals(4096, cursor.bufferSize());
+    }
+  }
+
+  @Test
+  @Tag("benchmark")
+  void throughput() throws Exception {
+    int rows = 500_000;
+    byte[] encoded = new GeneratedResult(rows).readAllBytes();
+    double mb = encoded.length / (1024.0 * 1024.0);
+    for (int round = 0; round < 5; round++) {
+      long start = System.nanoTime();
+      long checksum = 0;
+      try (ResultCursor cursor = new JsonResultDecoder().decode(encoded)) {
+        while (cursor.next()) checksum += cursor.getLong(1);
+      }
+      long oneColumn = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      try (ResultCursor cursor = new JsonResultDecoder().decode(encoded)) {
+        while (cursor.next()) {
+          checksum += cursor.getLong(1) + cursor.getString(2).length() + (long)cursor.getDouble(3);
+          if (cursor.getBoolean(4)) checksum++;
+        }
+      }
+      long allColumns = System.nanoTime() - start;
+      assertTrue(checksum > 0);
+
+      System.out.printf("Decoded %.1f MB, %d rows: %.0f MB/s reading one column, %.0f MB/s reading all%n",
+                        mb, rows, mb / (oneColumn / 1e9), mb / (allColumns / 1e9));
+    }
+  }
+
+  /**
+   * An encoded result generated row by row as it is read.
+   */
+  private static class GeneratedResult extends InputStream {
+    GeneratedResult(int rows) {
+      this.rows = rows;
+      this.chunk = ("{\n\"columns\":{\n  \"a\":{\n  },\n  \"b\":{\n  },\n  \"c\":{\n  },\n  \"d\":{\n  }\n},\n\"rows\":[\n")
+                   .getBytes(UTF_8);
+    }
+
+    @Override
+    public int read() {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (position == chunk.length) {
+        if (row > rows) return -1;
+        chunk = row == rows ? "\n]\n}".getBytes(UTF_8)
+              : ((row == 0 ? "" : ",\n")
+                + "  [" + row + ", " + toJson("name \"" + row + '"') + ", " + toJson(row * 1.25)
+                + ", " + (row % 2 == 0) + ']').getBytes(UTF_8);
+        position = 0;
+        row++;
+      }
+      int n = Math.min(len, chunk.length - position);
+      System.arraycopy(chunk, position, b, off, n);
+      position += n;
+      size += n;
+      return n;
+    }
+
+    long size() {
+      return size;
+    }
+
+    private final int rows;
+    private int row;
+    private byte[] chunk;
+    private int position;
+    private long size;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that {@link JsonStrings} escapes strings exactly as
+ * {@link JSONObject#quote(String)}. Its throughput is measured by a benchmark
+ * run by the <code>benchmark</code> task, not by <code>test</code>.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class JsonStringsTest {
+  @Test
+  void escapes() {
+    assertEquals("\"\"", JsonStrings.quote(""));
+    assertEquals("\"plain text\"", JsonStrings.quote("plain text"));
+    assertEquals("\"a\\\"b\\\\c\\n\\t\\r\\b\\f\"", JsonStrings.quote("a\"b\\c\n\t\r\b\f"));
+    assertEquals("\"<\\/tag> a/b\"", JsonStrings.quote("</tag> a/b"));
+    assertEquals("\"\\u0000\\u001f\\u0085\\u2028 \u00e9\u4e2d\"", JsonStrings.quote("\u0000\u001f\u0085\u2028 \u00e9\u4e2d"));
+  }
+
+  @Test
+  void fuzzEquivalentToJsonObjectQuote() throws Exception {
+    Random random = new Random(42);
+    for (int round = 0; round < 20_000; round++) {
+      String s = randomString(random, random.nextInt(round % 10 == 0 ? 2000 : 40));
+      String expected = JSONObject.quote(s);
+      assertEquals(expected, JsonStrings.quote(s), () -> "Escaping " + codes(s));
+
+      StringWriter writer = new StringWriter();
+      JsonStrings.quote(s, writer);
+      assertEquals(expected, writer.toString());
+
+      try (EncodeBuffer buffer = new EncodeBuffer(16)) {
+        JsonStrings.quote(s, buffer);
+        assertArrayEquals(expected.getBytes(UTF_8), buffer.toByteArray());
+      }
+
+      /*
+       * Escaped in chunks (as large text values are), with '<' and '/' possibly
+       * split between chunks.
+       */
+      StringBuilder chunked = new StringBuilder("\"");
+      char previous = '\0';
+      for (int start = 0; start < s.length(); ) {
+        int end = Math.min(s.length(), start + 1 + random.nextInt(8));
+        previous = JsonStrings.escape(CharBuffer.wrap(s), start, end, previous, chunked);
+        start = end;
+      }
+      assertEquals(expected, chunked.append('"').toString());
+    }
+  }
+
+  @Test
+  @Tag("benchmark")
+  void throughput() throws Exception {
+    Random random = new Random(7);
+    String[] strings = new String[100_000];
+    long chars = 0;
+    for (int i = 0; i < strings.length; i++) {
+      /*
+       * Mostly short ASCII values, some needing escapes.
+       */
+      StringBuilder st = new StringBuilder();
+      int length = 4 + random.nextInt(40);
+      for (int j = 0; j < length; j++) {
+        st.append(random.nextInt(50) == 0 ? '"' : (char)('a' + random.nextInt(26)));
+      }
+      strings[i] = st.toString();
+      chars += length;
+    }
+    for (int round = 0; round < 5; round++) {
+      long start = System.nanoTime();
+      long size = 0;
+      for (String s: strings) size += JSONObject.quote(s).length();
+      long reference = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      try (EncodeBuffer buffer = new EncodeBuffer(1 << 23)) {
+        for (String s: strings) JsonStrings.quote(s, buffer);
+        assertEquals(size, buffer.size());
+      }
+      long escaper = System.nanoTime() - start;
+      System.out.printf("Quoted %d strings (%d chars): JSONObject.quote %.1f ns/string, JsonStrings %.1f ns/string%n",
+                        strings.length, chars,
+                        (double)reference / strings.length, (double)escaper / strings.length);
+    }
+  }
+
+  private static String randomString(Random random, int length) {
+    StringBuilder st = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      st.append(switch (random.nextInt(10)) {
+        case 0  -> "\"\\/<\b\t\n\f\r".charAt(random.nextInt(9));
+        case 1  -> (char)random.nextInt(0x20);
+        case 2  -> (char)(0x7F + random.nextInt(0x30));
+        case 3  -> (char)(0x1FF0 + random.nextInt(0x120));
+        case 4  -> (char)(0xD800 + random.nextInt(0x800));
+        case 5  -> (char)random.nextInt(0x10000);
+        default -> (char)(' ' + random.nextInt(0x60));
+      });
+    }
+    return st.toString();
+  }
+
+  private static String codes(String s) {
+    StringBuilder st = new StringBuilder();
+    for (char c: s.toCharArray()) st.append(String.format("\\u%04x", (int)c));
+    return st.toString();
+  }
+}
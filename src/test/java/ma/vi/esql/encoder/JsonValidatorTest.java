@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class JsonValidatorTest {
+  @Test
+  void acceptsWellFormed() {
+    String[] valid = {
+        "null", "true", "false", "0", "-0", "12", "-3.25e+10", "1E5", "\"\"",
+        "\"esc \\\" \\\\ \\/ \\b \\f \\n \\r \\t \\u00e9\"",
+        "{}", "[]", " [ ] ", "{\"a\":1}", "{ \"a\" : [1, 2, {\"b\": null}], \"c\": {} }",
+        "[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[[]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]]",
+        "\n{\"x\": \"y\"}\n"
+    };
+    for (String s: valid) {
+      assertTrue(JsonValidator.isValid(s), s);
+    }
+  }
+
+  @Test
+  void rejectsMalformed() {
+    String[] invalid = {
+        "", " ", "nul", "True", "01", "1.", ".5", "-", "1e", "+1", "'a'", "\"abc",
+        "\"\\x\"", "\"\\u12\"", "\"tab\there\"", "{", "}", "[1,]", "[,1]", "{\"a\"}",
+        "{\"a\":}", "{a:1}", "{\"a\":1,}", "[1 2]", "{\"a\":1]", "[1}", "1 2", "{} x"
+    };
+    for (String s: invalid) {
+      assertFalse(JsonValidator.isValid(s));
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static ma.vi.esql.encoder.JsonResultEncoder.toJson;
+import static ma.vi.esql.translation.Translatable.Target.JAVASCRIPT;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the encoding of single values by {@link JsonResultEncoder#toJson}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class JsonValueTest {
+  @Test
+  void primitiveArrays() {
+    assertEquals("[]",                  toJson(new int[0]));
+    assertEquals("[1, -2, 3]",          toJson(new int[]{1, -2, 3}));
+    assertEquals("[9223372036854775807, 0]", toJson(new long[]{Long.MAX_VALUE, 0}));
+    assertEquals("[1.5, -0.25]",        toJson(new double[]{1.5, -0.25}));
+    assertEquals("[2.5]",               toJson(new float[]{2.5f}));
+    assertEquals("[7, 8]",              toJson(new short[]{7, 8}));
+    assertEquals("[true, false]",       toJson(new boolean[]{true, false}));
+  }
+
+  @Test
+  void objectArrays() {
+    assertEquals("[\"a\", \"b\\\"c\"]",   toJson(new String[]{"a", "b\"c"}));
+    assertEquals("[1, null, 3]",          toJson(new Integer[]{1, null, 3}));
+    assertEquals("[[1, 2], [3]]",         toJson(new int[][]{{1, 2}, {3}}));
+  }
+
+  @Test
+  void streamsLargeArrays() throws Exception {
+    long[] readings = new long[100_000];
+    for (int i = 0; i < readings.length; i++) readings[i] = i * 31L;
+    StringWriter out = new StringWriter();
+    toJson(readings, 0, JAVASCRIPT, out);
+    String encoded = out.toString();
+    assertTrue(encoded.startsWith("[0, 31, 62, "));
+    assertTrue(encoded.endsWith(", " + (readings.length - 1) * 31L + "]"));
+  }
+
+  @Test
+  void datesKeepFormatSettings() throws Exception {
+    /*
+     * The copy of TO_JAVASCRIPT_DATE made for a thread keeps the time zone set
+     * on it; dates are also formatted consistently by concurrent threads. The
+     * time zone of the shared formatter is restored once done.
+     */
+    SimpleDateFormat format = JsonResultEncoder.TO_JAVASCRIPT_DATE;
+    TimeZone zone;
+    synchronized (format) {
+      zone = format.getTimeZone();
+    }
+    try {
+      synchronized (format) {
+        format.setTimeZone(TimeZone.getTimeZone("Pacific/Kiritimati"));
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(8);
+      try {
+        List<Future<?>> encodings = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+          int thread = t;
+          encodings.add(executor.submit(() -> {
+            for (int i = 0; i < 1000; i++) {
+              Date date = new Date(thread * 86_400_000L * 31 + i * 3_600_123L);
+              String expected;
+              synchronized (format) {
+                expected = '"' + format.format(date) + '"';
+              }
+              assertEquals(expected, toJson(date));
+            }
+          }));
+        }
+        for (Future<?> encoding: encodings) encoding.get();
+      } finally {
+        executor.shutdown();
+      }
+    } finally {
+      synchronized (format) {
+        format.setTimeZone(zone);
+      }
+    }
+  }
+
+  @Test
+  void binaryAsBase64() {
+    byte[] bytes = new byte[10_000];
+    new Random(3).nextBytes(bytes);
+    assertEquals('"' + Base64.getEncoder().encodeToString(bytes) + '"', toJson(bytes));
+    assertEquals('"' + Base64.getEncoder().encodeToString(bytes) + '"',
+                 toJson(new ByteArrayInputStream(bytes)));
+    assertEquals("\"\"", toJson(new byte[0]));
+  }
+
+  @Test
+  void streamedText() {
+    String text = "line 1\n\"quoted\" </tag> \u00e9".repeat(2000);
+    assertEquals(JSONObject.quote(text), toJson(new StringReader(text)));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the encoding into, reading from and release of {@link OffHeapBuffer}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class OffHeapBufferTest {
+  @Test
+  void encodesAcrossSegments() throws Exception {
+    /*
+     * Multi-byte characters and surrogate pairs falling on the boundaries of
+     * the staging buffer and of the (small) segments.
+     */
+    Random random = new Random(7);
+    StringBuilder text = new StringBuilder();
+    String[] parts = {"a", "\u00e9", "\u20ac", "\ud83d\ude00", "\"json\"", "\n"};
+    while (text.length() < 100_000) text.append(parts[random.nextInt(parts.length)]);
+    String expected = text.toString();
+
+    try (OffHeapBuffer buffer = new OffHeapBuffer(1000)) {
+      for (int i = 0; i < expected.length(); ) {
+        int n = Math.min(expected.length() - i, 1 + random.nextInt(9000));
+        if (n % 3 == 0) buffer.write(expected.charAt(i++));
+        else {
+          buffer.write(expected, i, n);
+          i += n;
+        }
+      }
+      byte[] bytes = expected.getBytes(UTF_8);
+      assertEquals(bytes.length, buffer.size());
+      assertEquals((bytes.length + 999) / 1000, buffer.segments().length);
+
+      assertArrayEquals(bytes, buffer.inputStream().readAllBytes());
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      buffer.writeTo(out);
+      assertArrayEquals(bytes, out.toByteArray());
+
+      out.reset();
+      buffer.writeTo(Channels.newChannel(out));
+      assertArrayEquals(bytes, out.toByteArray());
+
+      out.reset();
+      try (ReadableByteChannel channel = buffer.channel()) {
+        ByteBuffer chunk = ByteBuffer.allocate(777);
+        while (channel.read(chunk) >= 0) {
+          out.write(chunk.array(), 0, chunk.position());
+          chunk.clear();
+        }
+      }
+      assertArrayEquals(bytes, out.toByteArray());
+    }
+  }
+
+  @Test
+  void mixesCharactersAndBytes() throws Exception {
+    try (OffHeapBuffer buffer = new OffHeapBuffer()) {
+      buffer.write("[\ud83d");
+      buffer.outputStream().write("1,".getBytes(UTF_8));
+      buffer.append('\u00e9').append("]");
+      assertEquals("[?1,\u00e9]", new String(buffer.inputStream().readAllBytes(), UTF_8));
+    }
+  }
+
+  @Test
+  void releasesSegments() {
+    OffHeapBuffer buffer = new OffHeapBuffer();
+    buffer.write("x".repeat(200_000));
+    assertEquals(4, buffer.segments().length);
+    int pooled = OffHeapBuffer.pooledSegments();
+    buffer.close();
+    assertEquals(pooled + 4, OffHeapBuffer.pooledSegments());
+    assertThrows(IllegalStateException.class, () -> buffer.write("y"));
+    buffer.close();
+
+    try (OffHeapBuffer reused = new OffHeapBuffer()) {
+      reused.write("y".repeat(100_000));
+      assertEquals(pooled + 2, OffHeapBuffer.pooledSegments());
+      assertEquals(100_000, reused.size());
+      assertTrue(reused.segments()[0].isDirect());
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2026 Vikash Madhow
+ */
+
+package ma.vi.esql.encoder;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import static ma.vi.esql.translation.Translatable.Target;
+import static ma.vi.esql.translation.Translatable.Target.ESQL;
+import static ma.vi.esql.translation.Translatable.Target.JAVASCRIPT;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the memoization of the translations of attribute expressions by
+ * {@link TranslationCache}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class TranslationCacheTest {
+  @Test
+  void translatedOncePerTarget() {
+    Object expression = new Object();
+    List<Target> evaluated = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      assertEquals("js", TranslationCache.computeIfAbsent(expression, JAVASCRIPT, (e, t) -> {
+        evaluated.add(t);
+        return "js";
+      }));
+      assertEquals("esql", TranslationCache.computeIfAbsent(expression, ESQL, (e, t) -> {
+        evaluated.add(t);
+        return "esql";
+      }));
+    }
+    assertEquals(List.of(JAVASCRIPT, ESQL), evaluated);
+    assertEquals("js", TranslationCache.get(expression, JAVASCRIPT));
+    assertEquals("esql", TranslationCache.get(expression, ESQL));
+
+    /*
+     * Keyed by identity: an equal expression is evaluated separately.
+     */
+    String first = new String("a > 0");
+    String second = new String("a > 0");
+    TranslationCache.computeIfAbsent(first, JAVASCRIPT, (e, t) -> "first");
+    assertSame(TranslationCache.MISSING, TranslationCache.get(second, JAVASCRIPT));
+    assertEquals("second", TranslationCache.computeIfAbsent(second, JAVASCRIPT, (e, t) -> "second"));
+
+    /*
+     * Null values are memoized.
+     */
+    Object nothing = new Object();
+    TranslationCache.computeIfAbsent(nothing, JAVASCRIPT, (e, t) -> null);
+    assertNull(TranslationCache.get(nothing, JAVASCRIPT));
+    assertNull(TranslationCache.computeIfAbsent(nothing, JAVASCRIPT, (e, t) -> fail("Evaluated again")));
+  }
+
+  @Test
+  void droppedWhenUnreachable() throws Exception {
+    TranslationCache.clear();
+    WeakReference<Object> expression = memoize();
+    assertEquals(2, TranslationCache.size());
+
+    for (int i = 0; i < 100 && expression.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(expression.get());
+    for (int i = 0; i < 100 && TranslationCache.size() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, TranslationCache.size());
+  }
+
+  /**
+   * Memoizes the translations of an expression which is not referenced once
+   * this method returns.
+   */
+  private static WeakReference<Object> memoize() {
+    Object expression = new Object();
+    TranslationCache.computeIfAbsent(expression, JAVASCRIPT, (e, t) -> "js");
+    TranslationCache.computeIfAbsent(expression, ESQL, (e, t) -> "esql");
+    return new WeakReference<>(expression);
+  }
+}